@@ -101,7 +101,7 @@ public class CKMSQuantileBenchmark {
             ckmsQuantiles.get(0);
             // compress everything so we have a similar samples size regardless of n.
             ckmsQuantiles.compress();
-            System.out.println("Sample size is: " + ckmsQuantiles.samples.size());
+            System.out.println("Sample size is: " + ckmsQuantiles.size);
         }
 
     }
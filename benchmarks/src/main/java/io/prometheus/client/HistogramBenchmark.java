@@ -0,0 +1,147 @@
+package io.prometheus.client;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Histogram.Child.observe() with different bucket layouts. Linear and exponential buckets compute the bucket
+ * index directly, the same upper bounds passed to {@code buckets()} use binary search.
+ */
+@State(Scope.Benchmark)
+public class HistogramBenchmark {
+
+  @Param({"15", "60"})
+  int numberOfBuckets;
+
+  Histogram.Child defaultBuckets;
+  Histogram.Child linear;
+  Histogram.Child linearAsCustom;
+  Histogram.Child exponential;
+  Histogram.Child exponentialAsCustom;
+  Histogram.Child powersOfTwo;
+  Histogram.Child powersOfTwoAsCustom;
+
+  @Setup
+  public void setup() {
+    defaultBuckets = Histogram.build().name("name").help("help").create().labels();
+    Histogram linearHistogram = Histogram.build().name("name").help("help")
+      .linearBuckets(0.1, 0.1, numberOfBuckets).create();
+    linear = linearHistogram.labels();
+    linearAsCustom = custom(linearHistogram);
+    Histogram exponentialHistogram = Histogram.build().name("name").help("help")
+      .exponentialBuckets(0.001, 1.2, numberOfBuckets).create();
+    exponential = exponentialHistogram.labels();
+    exponentialAsCustom = custom(exponentialHistogram);
+    Histogram powersOfTwoHistogram = Histogram.build().name("name").help("help")
+      .exponentialBuckets(1, 2, numberOfBuckets).create();
+    powersOfTwo = powersOfTwoHistogram.labels();
+    powersOfTwoAsCustom = custom(powersOfTwoHistogram);
+  }
+
+  /**
+   * Same upper bounds, but without the layout.
+   */
+  private static Histogram.Child custom(Histogram histogram) {
+    return Histogram.build().name("name").help("help").buckets(histogram.getBuckets()).create().labels();
+  }
+
+  @State(Scope.Thread)
+  public static class Observations {
+    final double[] latencies = new double[1024];
+    final double[] sizes = new double[1024];
+    int i;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      Random random = new Random(0);
+      for (int j = 0; j < latencies.length; j++) {
+        latencies[j] = Math.exp(random.nextGaussian() - 3);
+        sizes[j] = Math.floor(Math.exp(random.nextGaussian() * 3 + 8));
+      }
+    }
+
+    double nextLatency() {
+      return latencies[i++ & 1023];
+    }
+
+    double nextSize() {
+      return sizes[i++ & 1023];
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode({Mode.AverageTime})
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void defaultBucketsObserve(Observations o) {
+    defaultBuckets.observe(o.nextLatency());
+  }
+
+  @Benchmark
+  @BenchmarkMode({Mode.AverageTime})
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void linearObserve(Observations o) {
+    linear.observe(o.nextLatency());
+  }
+
+  @Benchmark
+  @BenchmarkMode({Mode.AverageTime})
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void linearAsCustomObserve(Observations o) {
+    linearAsCustom.observe(o.nextLatency());
+  }
+
+  @Benchmark
+  @BenchmarkMode({Mode.AverageTime})
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void exponentialObserve(Observations o) {
+    exponential.observe(o.nextLatency());
+  }
+
+  @Benchmark
+  @BenchmarkMode({Mode.AverageTime})
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void exponentialAsCustomObserve(Observations o) {
+    exponentialAsCustom.observe(o.nextLatency());
+  }
+
+  @Benchmark
+  @BenchmarkMode({Mode.AverageTime})
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void powersOfTwoObserve(Observations o) {
+    powersOfTwo.observe(o.nextSize());
+  }
+
+  @Benchmark
+  @BenchmarkMode({Mode.AverageTime})
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void powersOfTwoAsCustomObserve(Observations o) {
+    powersOfTwoAsCustom.observe(o.nextSize());
+  }
+
+  public static void main(String[] args) throws RunnerException {
+
+    Options opt = new OptionsBuilder()
+      .include(HistogramBenchmark.class.getSimpleName())
+      .warmupIterations(5)
+      .measurementIterations(4)
+      .threads(1)
+      .forks(1)
+      .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,92 @@
+package io.prometheus.client;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the bucket storage of Histogram.Child: one {@link DoubleAdder} per bucket plus one for the sum
+ * (the previous layout) against {@link HistogramCells}, where a stripe holds all buckets and the sum.
+ * <p>
+ * Run with different thread counts, e.g. {@code -t 1}, {@code -t 4}, {@code -t 16}, to see the effect of contention.
+ */
+@State(Scope.Benchmark)
+public class HistogramCellsBenchmark {
+
+    private static final double[] UPPER_BOUNDS = {.005, .01, .025, .05, .075, .1, .25, .5, .75, 1, 2.5, 5, 7.5, 10, Double.POSITIVE_INFINITY};
+
+    DoubleAdder[] adders;
+    DoubleAdder sum;
+    HistogramCells cells;
+    Histogram.Child histogramChild;
+
+    @Setup
+    public void setup() {
+        adders = new DoubleAdder[UPPER_BOUNDS.length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new DoubleAdder();
+        }
+        sum = new DoubleAdder();
+        cells = new HistogramCells(UPPER_BOUNDS.length);
+        histogramChild = Histogram.build().name("name").help("help").create().labels();
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        double value;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            value = Math.random() * 2;
+        }
+    }
+
+    private static int bucket(double value) {
+        for (int i = 0; i < UPPER_BOUNDS.length; i++) {
+            if (value <= UPPER_BOUNDS[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.AverageTime})
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void doubleAdderPerBucket(ThreadState state) {
+        adders[bucket(state.value)].add(1);
+        sum.add(state.value);
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.AverageTime})
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void histogramCells(ThreadState state) {
+        cells.observe(bucket(state.value), state.value);
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.AverageTime})
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void histogramChildObserve(ThreadState state) {
+        histogramChild.observe(state.value);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[]{1, 4, 16}) {
+            Options opt = new OptionsBuilder()
+                    .include(HistogramCellsBenchmark.class.getSimpleName())
+                    .warmupIterations(5)
+                    .measurementIterations(4)
+                    .threads(threads)
+                    .forks(1)
+                    .build();
+
+            new Runner(opt).run();
+        }
+    }
+}
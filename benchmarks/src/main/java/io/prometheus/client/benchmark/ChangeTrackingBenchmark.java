@@ -0,0 +1,102 @@
+package io.prometheus.client.benchmark;
+
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of updates while {@link CollectorRegistry#metricFamilySamplesChangedSince(long)} keeps clearing
+ * the changed flags, which makes the next update of each child write its flag again.
+ */
+@State(Scope.Benchmark)
+public class ChangeTrackingBenchmark {
+
+  /**
+   * {@code true} to call {@link CollectorRegistry#metricFamilySamplesChangedSince(long)} in a loop on another thread.
+   */
+  @Param({"false", "true"})
+  public boolean exporting;
+
+  private Counter.Child counter;
+  private Gauge.Child gauge;
+  private Histogram.Child histogram;
+  private Thread exporter;
+
+  @Setup
+  public void setup() {
+    final CollectorRegistry registry = new CollectorRegistry();
+    counter = Counter.build()
+        .name("counter_total")
+        .help("Total number of requests.")
+        .labelNames("path")
+        .register(registry)
+        .labels("test");
+    gauge = Gauge.build()
+        .name("gauge")
+        .help("In progress requests.")
+        .labelNames("path")
+        .register(registry)
+        .labels("test");
+    histogram = Histogram.build()
+        .name("histogram")
+        .help("Request duration.")
+        .labelNames("path")
+        .register(registry)
+        .labels("test");
+
+    if (exporting) {
+      exporter = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          long token = 0;
+          while (!Thread.currentThread().isInterrupted()) {
+            token = registry.metricFamilySamplesChangedSince(token).token;
+          }
+        }
+      }, "change-tracking-exporter");
+      exporter.setDaemon(true);
+      exporter.start();
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws InterruptedException {
+    if (exporter != null) {
+      exporter.interrupt();
+      exporter.join();
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode({Mode.AverageTime})
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void counterInc() {
+    counter.inc();
+  }
+
+  @Benchmark
+  @BenchmarkMode({Mode.AverageTime})
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void gaugeSet() {
+    gauge.set(42);
+  }
+
+  @Benchmark
+  @BenchmarkMode({Mode.AverageTime})
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void histogramObserve() {
+    histogram.observe(0.2);
+  }
+}
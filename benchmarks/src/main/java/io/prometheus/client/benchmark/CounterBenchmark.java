@@ -25,6 +25,8 @@ public class CounterBenchmark {
   io.prometheus.client.Counter prometheusSimpleCounter;
   io.prometheus.client.Counter.Child prometheusSimpleCounterChild;
   io.prometheus.client.Counter prometheusSimpleCounterNoLabels;
+  io.prometheus.client.Counter.Child prometheusIntegerCounterChild;
+  io.prometheus.client.Counter prometheusIntegerCounterNoLabels;
 
   @Setup
   public void setup() {
@@ -39,6 +41,17 @@ public class CounterBenchmark {
       .help("some description..")
       .create();
 
+    prometheusIntegerCounterChild = io.prometheus.client.Counter.build()
+      .name("name")
+      .help("some description..")
+      .labelNames("some", "group")
+      .integer().create().labels("test", "group");
+
+    prometheusIntegerCounterNoLabels = io.prometheus.client.Counter.build()
+      .name("name")
+      .help("some description..")
+      .integer().create();
+
     registry = new MetricRegistry();
     codahaleCounter = registry.counter("counter");
     codahaleMeter = registry.meter("meter");
@@ -65,6 +78,20 @@ public class CounterBenchmark {
     prometheusSimpleCounterNoLabels.inc(); 
   }
 
+  @Benchmark
+  @BenchmarkMode({Mode.AverageTime})
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void prometheusIntegerCounterChildIncBenchmark() {
+    prometheusIntegerCounterChild.inc();
+  }
+
+  @Benchmark
+  @BenchmarkMode({Mode.AverageTime})
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void prometheusIntegerCounterNoLabelsIncBenchmark() {
+    prometheusIntegerCounterNoLabels.inc();
+  }
+
   @Benchmark
   @BenchmarkMode({Mode.AverageTime})
   @OutputTimeUnit(TimeUnit.NANOSECONDS)
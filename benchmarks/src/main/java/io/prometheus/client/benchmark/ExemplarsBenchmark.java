@@ -1,28 +1,46 @@
 package io.prometheus.client.benchmark;
 
+import io.prometheus.client.Clock;
 import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
 import io.prometheus.client.exemplars.DefaultExemplarSampler;
 import io.prometheus.client.exemplars.tracer.common.SpanContextSupplier;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
 import org.openjdk.jmh.annotations.Mode;
 import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
 import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
 
 import java.util.concurrent.TimeUnit;
 
 @State(Scope.Benchmark)
 public class ExemplarsBenchmark {
 
+  /**
+   * The default {@link Clock}, {@code coarse} to compare the per-observation cost of reading the system clock.
+   */
+  @Param({"system", "coarse"})
+  public String clock;
+
   private Counter counter;
   private Counter counterWithExemplars;
   private Counter counterWithoutExemplars;
+  private Histogram histogramWithExemplars;
+  private Histogram histogramWithoutExemplars;
+  private Clock.Coarse coarseClock;
 
   @Setup
   public void setup() {
 
+    if (clock.equals("coarse")) {
+      coarseClock = Clock.coarse(1);
+      Clock.setDefault(coarseClock);
+    }
+
     counter = Counter.build()
         .name("counter_total")
         .help("Total number of requests.")
@@ -42,6 +60,28 @@ public class ExemplarsBenchmark {
         .labelNames("path")
         .withoutExemplars()
         .create();
+
+    histogramWithExemplars = Histogram.build()
+        .name("histogram_with_exemplars")
+        .help("Request duration.")
+        .labelNames("path")
+        .withExemplarSampler(new DefaultExemplarSampler(new MockSpanContextSupplier()))
+        .create();
+
+    histogramWithoutExemplars = Histogram.build()
+        .name("histogram_without_exemplars")
+        .help("Request duration.")
+        .labelNames("path")
+        .withoutExemplars()
+        .create();
+  }
+
+  @TearDown
+  public void tearDown() {
+    Clock.setDefault(Clock.system());
+    if (coarseClock != null) {
+      coarseClock.close();
+    }
   }
 
   @Benchmark
@@ -65,6 +105,20 @@ public class ExemplarsBenchmark {
     counterWithoutExemplars.labels("test").inc();
   }
 
+  @Benchmark
+  @BenchmarkMode({Mode.AverageTime})
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void testHistogramWithExemplars() {
+    histogramWithExemplars.labels("test").observe(0.2);
+  }
+
+  @Benchmark
+  @BenchmarkMode({Mode.AverageTime})
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void testHistogramWithoutExemplars() {
+    histogramWithoutExemplars.labels("test").observe(0.2);
+  }
+
   private static class MockSpanContextSupplier implements SpanContextSupplier {
 
     @Override
@@ -0,0 +1,105 @@
+package io.prometheus.client.benchmark;
+
+import io.prometheus.client.Counter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of looking up an existing child with {@code labels()}.
+ * <p>
+ * Run with the GC profiler to see the allocation rate, the fixed-arity lookups should report 0 B/op:
+ * <pre>
+ *   java -jar target/benchmarks.jar LabelsBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+public class LabelsBenchmark {
+
+  Counter oneLabel;
+  Counter twoLabels;
+  Counter fourLabels;
+
+  // Label values are fields so that the varargs array can't be constant-folded away.
+  String v1 = "get";
+  String v2 = "/api/v1/users";
+  String v3 = "200";
+  String v4 = "eu-west-1";
+  String[] twoLabelValues = new String[]{v1, v2};
+
+  @Setup
+  public void setup() {
+    oneLabel = Counter.build()
+        .name("one_label_total")
+        .help("help")
+        .labelNames("method")
+        .create();
+    twoLabels = Counter.build()
+        .name("two_labels_total")
+        .help("help")
+        .labelNames("method", "path")
+        .create();
+    fourLabels = Counter.build()
+        .name("four_labels_total")
+        .help("help")
+        .labelNames("method", "path", "status", "region")
+        .create();
+    oneLabel.labels(v1);
+    twoLabels.labels(v1, v2);
+    fourLabels.labels(v1, v2, v3, v4);
+  }
+
+  @Benchmark
+  @BenchmarkMode({Mode.AverageTime})
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void oneLabel(Blackhole blackhole) {
+    blackhole.consume(oneLabel.labels(v1));
+  }
+
+  @Benchmark
+  @BenchmarkMode({Mode.AverageTime})
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void twoLabels(Blackhole blackhole) {
+    blackhole.consume(twoLabels.labels(v1, v2));
+  }
+
+  @Benchmark
+  @BenchmarkMode({Mode.AverageTime})
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void twoLabelsArray(Blackhole blackhole) {
+    blackhole.consume(twoLabels.labels(twoLabelValues));
+  }
+
+  @Benchmark
+  @BenchmarkMode({Mode.AverageTime})
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void fourLabels(Blackhole blackhole) {
+    blackhole.consume(fourLabels.labels(v1, v2, v3, v4));
+  }
+
+  public static void main(String[] args) throws RunnerException {
+
+    Options opt = new OptionsBuilder()
+        .include(LabelsBenchmark.class.getSimpleName())
+        .warmupIterations(5)
+        .measurementIterations(4)
+        .threads(4)
+        .forks(1)
+        .addProfiler(GCProfiler.class)
+        .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -24,6 +24,11 @@ public class SummaryBenchmark {
   io.prometheus.client.Summary prometheusSimpleSummary;
   io.prometheus.client.Summary.Child prometheusSimpleSummaryChild;
   io.prometheus.client.Summary prometheusSimpleSummaryNoLabels;
+  io.prometheus.client.Summary prometheusQuantileSummary;
+  io.prometheus.client.Summary.Child prometheusQuantileSummaryChild;
+  io.prometheus.client.Summary.Child prometheusBufferedQuantileSummaryChild;
+  io.prometheus.client.Summary.Child prometheusRelativeErrorSketchSummaryChild;
+  io.prometheus.client.Summary.Child prometheusTDigestSummaryChild;
   io.prometheus.client.Histogram prometheusSimpleHistogram;
   io.prometheus.client.Histogram.Child prometheusSimpleHistogramChild;
   io.prometheus.client.Histogram prometheusSimpleHistogramNoLabels;
@@ -41,6 +46,38 @@ public class SummaryBenchmark {
       .help("some description..")
       .create();
 
+    prometheusQuantileSummary = io.prometheus.client.Summary.build()
+      .name("name")
+      .help("some description..")
+      .quantile(0.5, 0.05)
+      .quantile(0.99, 0.001)
+      .labelNames("some", "group").create();
+    prometheusQuantileSummaryChild = prometheusQuantileSummary.labels("test", "group");
+
+    prometheusBufferedQuantileSummaryChild = io.prometheus.client.Summary.build()
+      .name("name")
+      .help("some description..")
+      .quantile(0.5, 0.05)
+      .quantile(0.99, 0.001)
+      .bufferObservations()
+      .labelNames("some", "group").create().labels("test", "group");
+
+    prometheusRelativeErrorSketchSummaryChild = io.prometheus.client.Summary.build()
+      .name("name")
+      .help("some description..")
+      .quantile(0.5, 0.05)
+      .quantile(0.99, 0.001)
+      .quantileEstimator(io.prometheus.client.RelativeErrorSketch.factory(0.01))
+      .labelNames("some", "group").create().labels("test", "group");
+
+    prometheusTDigestSummaryChild = io.prometheus.client.Summary.build()
+      .name("name")
+      .help("some description..")
+      .quantile(0.5, 0.05)
+      .quantile(0.99, 0.001)
+      .quantileEstimator(io.prometheus.client.TDigest.factory(100))
+      .labelNames("some", "group").create().labels("test", "group");
+
     prometheusSimpleHistogram = io.prometheus.client.Histogram.build()
       .name("name")
       .help("some description..")
@@ -77,6 +114,34 @@ public class SummaryBenchmark {
     prometheusSimpleSummaryNoLabels.observe(1); 
   }
 
+  @Benchmark
+  @BenchmarkMode({Mode.AverageTime})
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void prometheusQuantileSummaryChildBenchmark() {
+    prometheusQuantileSummaryChild.observe(1);
+  }
+
+  @Benchmark
+  @BenchmarkMode({Mode.AverageTime})
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void prometheusBufferedQuantileSummaryChildBenchmark() {
+    prometheusBufferedQuantileSummaryChild.observe(1);
+  }
+
+  @Benchmark
+  @BenchmarkMode({Mode.AverageTime})
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void prometheusRelativeErrorSketchSummaryChildBenchmark() {
+    prometheusRelativeErrorSketchSummaryChild.observe(1);
+  }
+
+  @Benchmark
+  @BenchmarkMode({Mode.AverageTime})
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void prometheusTDigestSummaryChildBenchmark() {
+    prometheusTDigestSummaryChild.observe(1);
+  }
+
   @Benchmark
   @BenchmarkMode({Mode.AverageTime})
   @OutputTimeUnit(TimeUnit.NANOSECONDS)
@@ -0,0 +1,172 @@
+package io.prometheus.client;
+
+/**
+ * Finds the classic bucket of an observation in a {@link Histogram}.
+ * <p>
+ * If the buckets were created with {@link Histogram.Builder#linearBuckets(double, double, int)} or
+ * {@link Histogram.Builder#exponentialBuckets(double, double, int)}, the index is computed directly from the
+ * value. Exponential buckets with factor 2 starting at a power of two, like byte sizes, use the exponent of the
+ * value rather than a logarithm. Because of rounding the computed index may be off by one, so it is corrected by
+ * comparing with the actual upper bounds. The result is always the same as scanning the upper bounds.
+ * <p>
+ * Other buckets use binary search.
+ */
+abstract class BucketIndex {
+
+  enum Layout {
+    CUSTOM, LINEAR, EXPONENTIAL
+  }
+
+  final double[] upperBounds;
+
+  private BucketIndex(double[] upperBounds) {
+    this.upperBounds = upperBounds;
+  }
+
+  /**
+   * @param upperBounds in increasing order, the last one is {@code +Inf}.
+   * @param start       start as passed to linearBuckets() or exponentialBuckets(), ignored for CUSTOM.
+   * @param step        width or factor as passed to linearBuckets() or exponentialBuckets(), ignored for CUSTOM.
+   */
+  static BucketIndex create(Layout layout, double start, double step, double[] upperBounds) {
+    switch (layout) {
+      case LINEAR:
+        return new Linear(upperBounds, start, step);
+      case EXPONENTIAL:
+        if (step == 2 && start >= Double.MIN_NORMAL && start == Math.scalb(1.0, Math.getExponent(start))) {
+          return new PowersOfTwo(upperBounds, Math.getExponent(start));
+        }
+        if (start > 0 && step > 1) {
+          return new Exponential(upperBounds, start, step);
+        }
+        return new BinarySearch(upperBounds);
+      default:
+        return new BinarySearch(upperBounds);
+    }
+  }
+
+  /**
+   * Index of the first upper bound that is greater than or equal to {@code value}, or -1 for NaN.
+   */
+  abstract int index(double value);
+
+  /**
+   * Move the estimated index {@code i} to the first upper bound that is greater than or equal to {@code value}.
+   * {@code value} must not be NaN.
+   */
+  final int adjust(int i, double value) {
+    if (i < 0) {
+      i = 0;
+    } else if (i >= upperBounds.length) {
+      i = upperBounds.length - 1;
+    }
+    while (i > 0 && value <= upperBounds[i - 1]) {
+      i--;
+    }
+    while (value > upperBounds[i]) { // terminates, because the last upper bound is +Inf
+      i++;
+    }
+    return i;
+  }
+
+  private static final class Linear extends BucketIndex {
+
+    private final double start;
+    private final double width;
+
+    Linear(double[] upperBounds, double start, double width) {
+      super(upperBounds);
+      this.start = start;
+      this.width = width;
+    }
+
+    @Override
+    int index(double value) {
+      if (Double.isNaN(value)) {
+        return -1;
+      }
+      double d = Math.ceil((value - start) / width);
+      return adjust(d >= upperBounds.length ? upperBounds.length : (int) d, value);
+    }
+  }
+
+  private static final class Exponential extends BucketIndex {
+
+    private final double start;
+    private final double inverseLogFactor;
+
+    Exponential(double[] upperBounds, double start, double factor) {
+      super(upperBounds);
+      this.start = start;
+      this.inverseLogFactor = 1 / Math.log(factor);
+    }
+
+    @Override
+    int index(double value) {
+      if (Double.isNaN(value)) {
+        return -1;
+      }
+      if (value <= start) {
+        return adjust(0, value);
+      }
+      double d = Math.ceil(Math.log(value / start) * inverseLogFactor);
+      return adjust(d >= upperBounds.length ? upperBounds.length : (int) d, value);
+    }
+  }
+
+  /**
+   * Upper bounds {@code 2^startExponent, 2^(startExponent+1), ...}.
+   */
+  private static final class PowersOfTwo extends BucketIndex {
+
+    private static final long SIGNIFICAND_MASK = 0x000fffffffffffffL;
+
+    private final int startExponent;
+
+    PowersOfTwo(double[] upperBounds, int startExponent) {
+      super(upperBounds);
+      this.startExponent = startExponent;
+    }
+
+    @Override
+    int index(double value) {
+      if (Double.isNaN(value)) {
+        return -1;
+      }
+      if (!(value > upperBounds[0])) {
+        return 0;
+      }
+      // value is a normal number or +Inf, so ceil(log2(value)) is its exponent, plus one unless it is a power of two.
+      int exponent = Math.getExponent(value);
+      if ((Double.doubleToRawLongBits(value) & SIGNIFICAND_MASK) != 0) {
+        exponent++;
+      }
+      return adjust(exponent - startExponent, value);
+    }
+  }
+
+  private static final class BinarySearch extends BucketIndex {
+
+    BinarySearch(double[] upperBounds) {
+      super(upperBounds);
+    }
+
+    @Override
+    int index(double value) {
+      if (Double.isNaN(value)) {
+        return -1;
+      }
+      // Not Arrays.binarySearch(), because that orders -0.0 before 0.0, and we need value <= upperBound.
+      // The result is in [low, low + n). The conditional assignment can be compiled without a branch,
+      // which avoids mispredictions when consecutive observations land in different buckets.
+      int low = 0;
+      int n = upperBounds.length;
+      while (n > 1) {
+        int half = n >>> 1;
+        low = value <= upperBounds[low + half - 1] ? low : low + half;
+        n -= half;
+      }
+      return low;
+    }
+  }
+}
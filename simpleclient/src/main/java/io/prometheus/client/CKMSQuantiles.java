@@ -21,18 +21,19 @@ package io.prometheus.client;
  limitations under the License.
  */
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.ListIterator;
+import java.util.List;
 
 /**
  * Algorithm solving the "Targeted Quantile Problem" as described in
  * "Effective Computation of Biased Quantiles over Data Streams"
  * by Cormode, Korn, Muthukrishnan, and Srivastava.
- *
+ * <p>
+ * The samples are stored in parallel primitive arrays rather than as a list of objects,
+ * so a retained sample costs 16 bytes and inserting or compressing doesn't allocate.
  */
-final class CKMSQuantiles {
+final class CKMSQuantiles implements QuantileEstimator {
 
     final Quantile[] quantiles;
 
@@ -42,9 +43,25 @@ final class CKMSQuantiles {
     int n = 0;
 
     /**
-     * List of sampled observations, ordered by Sample.value.
+     * Number of sampled observations.
      */
-    final LinkedList<Sample> samples = new LinkedList<Sample>();
+    int size = 0;
+
+    /**
+     * Sampled observations, ordered by value. Only the first {@link #size} entries are used.
+     */
+    private double[] value = new double[0];
+
+    /**
+     * g[i] is the difference between the lowest possible rank of sample i and its predecessor.
+     * This always starts with 1, but will be updated when compress() merges samples.
+     */
+    private int[] g = new int[0];
+
+    /**
+     * delta[i] is the difference between the greatest possible rank of sample i and its lowest possible rank.
+     */
+    private int[] delta = new int[0];
 
     /**
      * Compress is called every compressInterval inserts.
@@ -70,9 +87,19 @@ final class CKMSQuantiles {
         this.quantiles = quantiles;
     }
 
+    static QuantileEstimator.Factory factory(final Quantile... quantiles) {
+        return new QuantileEstimator.Factory() {
+            @Override
+            public QuantileEstimator create() {
+                return new CKMSQuantiles(quantiles);
+            }
+        };
+    }
+
     /**
      * Add an observed value
      */
+    @Override
     public void insert(double value) {
         buffer[bufferPos++] = value;
 
@@ -86,6 +113,17 @@ final class CKMSQuantiles {
         }
     }
 
+    /**
+     * Drop all observations, but keep the allocated arrays for reuse.
+     */
+    @Override
+    public void reset() {
+        n = 0;
+        size = 0;
+        bufferPos = 0;
+        insertsSinceLastCompress = 0;
+    }
+
     private void flush() {
         Arrays.sort(buffer, 0, bufferPos);
         insertBatch(buffer, bufferPos);
@@ -94,87 +132,99 @@ final class CKMSQuantiles {
 
     /**
      * Inserts the elements from index 0 to index toIndex from the sortedBuffer.
+     * <p>
+     * The batch is merged into the samples from right to left, so that each existing sample is moved at most once
+     * and no temporary arrays are needed.
      */
     void insertBatch(double[] sortedBuffer, int toIndex) {
         if (toIndex == 0) {
             return;
         }
-        ListIterator<Sample> iterator = samples.listIterator();
-        int i = 0; // position in buffer
-        int r = 0; // sum of g's left of the current sample
-        while (iterator.hasNext() && i < toIndex) {
-            Sample item = iterator.next();
-            while (i < toIndex) {
-                if (sortedBuffer[i] > item.value) {
-                    break;
-                }
-                insertBefore(iterator, sortedBuffer[i], r);
-                r++; // new item with g=1 was inserted before, so increment r
-                i++;
-                n++;
+        ensureCapacity(size + toIndex);
+        int nBefore = n;
+        int gRight = 0; // sum of g's of the existing samples right of j
+        int j = size - 1; // position in the existing samples
+        int out = size + toIndex - 1; // position in the merged samples
+        for (int i = toIndex - 1; i >= 0; i--) {
+            // A new sample is inserted before all existing samples with a greater or equal value.
+            while (j >= 0 && value[j] >= sortedBuffer[i]) {
+                gRight += g[j];
+                move(j--, out--);
             }
-            r += item.g;
-        }
-        while (i < toIndex) {
-            samples.add(new Sample(sortedBuffer[i], 0));
-            i++;
-            n++;
+            int d;
+            if (j == size - 1 || (j < 0 && i == 0)) {
+                // new maximum or new minimum, the rank is known exactly.
+                d = 0;
+            } else {
+                // r is the sum of g's left of the new sample: the existing samples left of it plus the i new
+                // samples with smaller values. The new samples left of it have not been counted in n yet.
+                int r = nBefore - gRight + i;
+                d = f(r, nBefore + i) - 1;
+            }
+            value[out] = sortedBuffer[i];
+            g[out] = 1;
+            delta[out] = d;
+            out--;
         }
+        size += toIndex;
+        n += toIndex;
     }
 
-    private void insertBefore(ListIterator<Sample> iterator, double value, int r) {
-        if (!iterator.hasPrevious()) {
-            samples.addFirst(new Sample(value, 0));
-        } else {
-            iterator.previous();
-            iterator.add(new Sample(value, f(r) - 1));
-            iterator.next();
+    private void move(int from, int to) {
+        value[to] = value[from];
+        g[to] = g[from];
+        delta[to] = delta[from];
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > value.length) {
+            int newCapacity = Math.max(capacity, 2 * value.length);
+            value = Arrays.copyOf(value, newCapacity);
+            g = Arrays.copyOf(g, newCapacity);
+            delta = Arrays.copyOf(delta, newCapacity);
         }
     }
 
     /**
      * Get the estimated value at the specified quantile.
      */
+    @Override
     public double get(double q) {
         flush();
 
-        if (samples.size() == 0) {
+        if (size == 0) {
             return Double.NaN;
         }
 
         if (q == 0.0) {
-            return samples.getFirst().value;
+            return value[0];
         }
 
         if (q == 1.0) {
-            return samples.getLast().value;
+            return value[size - 1];
         }
 
         int r = 0; // sum of g's left of the current sample
         int desiredRank = (int) Math.ceil(q * n);
         int upperBound = desiredRank + f(desiredRank) / 2;
 
-        ListIterator<Sample> iterator = samples.listIterator();
-        while (iterator.hasNext()) {
-            Sample sample = iterator.next();
-            if (r + sample.g + sample.delta > upperBound) {
-                iterator.previous(); // roll back the item.next() above
-                if (iterator.hasPrevious()) {
-                    Sample result = iterator.previous();
-                    return result.value;
-                } else {
-                    return sample.value;
-                }
+        for (int i = 0; i < size; i++) {
+            if (r + g[i] + delta[i] > upperBound) {
+                return i > 0 ? value[i - 1] : value[i];
             }
-            r += sample.g;
+            r += g[i];
         }
-        return samples.getLast().value;
+        return value[size - 1];
     }
 
     /**
      * Error function, as in definition 5 of the paper.
      */
     int f(int r) {
+        return f(r, n);
+    }
+
+    private int f(int r, int n) {
         int minResult = Integer.MAX_VALUE;
         for (Quantile q : quantiles) {
             if (q.quantile == 0 || q.quantile == 1) {
@@ -199,32 +249,44 @@ final class CKMSQuantiles {
 
     /**
      * Merge pairs of consecutive samples if this doesn't violate the error function.
+     * <p>
+     * Samples are visited from right to left. The samples that are kept are moved to the right end of the arrays,
+     * and shifted back to the start in one copy at the end.
      */
     void compress() {
-        if (samples.size() < 3) {
+        if (size < 3) {
             return;
         }
-        Iterator<Sample> descendingIterator = samples.descendingIterator();
-        int r = n; // n is equal to the sum of the g's of all samples
-
-        Sample right;
-        Sample left = descendingIterator.next();
-        r -= left.g;
-
-        while (descendingIterator.hasNext()) {
-            right = left;
-            left = descendingIterator.next();
-            r = r - left.g;
-            if (left == samples.getFirst()) {
-                // The min sample must never be merged.
-                break;
-            }
-            if (left.g + right.g + right.delta < f(r)) {
-                right.g += left.g;
-                descendingIterator.remove();
-                left = right;
+        int right = size - 1; // position of the current right sample in the compressed samples
+        int r = n - g[size - 1]; // n is equal to the sum of the g's of all samples
+
+        // The min sample (index 0) must never be merged.
+        for (int left = size - 2; left > 0; left--) {
+            r -= g[left];
+            if (g[left] + g[right] + delta[right] < f(r)) {
+                g[right] += g[left];
+            } else {
+                move(left, --right);
             }
         }
+        move(0, --right);
+        if (right > 0) {
+            size -= right;
+            System.arraycopy(value, right, value, 0, size);
+            System.arraycopy(g, right, g, 0, size);
+            System.arraycopy(delta, right, delta, 0, size);
+        }
+    }
+
+    /**
+     * Copy of the current samples, for testing and debugging.
+     */
+    List<Sample> samples() {
+        List<Sample> result = new ArrayList<Sample>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(new Sample(value[i], g[i], delta[i]));
+        }
+        return result;
     }
 
     static class Sample {
@@ -236,17 +298,17 @@ final class CKMSQuantiles {
 
         /**
          * Difference between the lowest possible rank of this sample and its predecessor.
-         * This always starts with 1, but will be updated when compress() merges Samples.
          */
-        int g = 1;
+        final int g;
 
         /**
          * Difference between the greatest possible rank of this sample and the lowest possible rank of this sample.
          */
         final int delta;
 
-        Sample(double value, int delta) {
+        Sample(double value, int g, int delta) {
             this.value = value;
+            this.g = g;
             this.delta = delta;
         }
 
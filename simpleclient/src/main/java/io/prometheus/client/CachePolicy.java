@@ -0,0 +1,42 @@
+package io.prometheus.client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long a {@link CollectorRegistry} may reuse the result of a collector, see
+ * {@link CollectorRegistry#register(Collector, CachePolicy)}.
+ * <p>
+ * This is intended for collectors that are expensive to collect, when several Prometheus servers scrape the
+ * same process. Samples may be up to the TTL old.
+ */
+public final class CachePolicy {
+
+  private static final CachePolicy NONE = new CachePolicy(0);
+
+  private final long ttlNanos;
+
+  private CachePolicy(long ttlNanos) {
+    this.ttlNanos = ttlNanos;
+  }
+
+  /**
+   * Collect on every scrape, this is the default.
+   */
+  public static CachePolicy none() {
+    return NONE;
+  }
+
+  /**
+   * Reuse the collected samples for {@code ttl}.
+   */
+  public static CachePolicy ttl(long ttl, TimeUnit unit) {
+    if (ttl <= 0) {
+      throw new IllegalArgumentException("ttl must be positive, got " + ttl + ".");
+    }
+    return new CachePolicy(unit.toNanos(ttl));
+  }
+
+  long getTtlNanos() {
+    return ttlNanos;
+  }
+}
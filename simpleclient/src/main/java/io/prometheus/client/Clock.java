@@ -0,0 +1,116 @@
+package io.prometheus.client;
+
+import java.io.Closeable;
+
+/**
+ * Source of timestamps for exemplars, {@code _created} series and timers.
+ * <p>
+ * By default the system clock is used. Exemplars with the default sampler read the clock on every observation.
+ * If that shows up in profiles, a coarse clock can be configured globally:
+ * <pre>
+ * {@code
+ *   Clock.setDefault(Clock.coarse(1));
+ * }
+ * </pre>
+ */
+public abstract class Clock {
+
+  private static final Clock SYSTEM = new Clock() {
+    @Override
+    public long currentTimeMillis() {
+      return System.currentTimeMillis();
+    }
+  };
+
+  private static volatile Clock defaultClock = SYSTEM;
+
+  /**
+   * Wall clock time in milliseconds, like {@link System#currentTimeMillis()}.
+   */
+  public abstract long currentTimeMillis();
+
+  /**
+   * Monotonic time in nanoseconds for measuring durations, like {@link System#nanoTime()}.
+   */
+  public long nanoTime() {
+    return System.nanoTime();
+  }
+
+  /**
+   * The clock used by all metrics.
+   */
+  public static Clock getDefault() {
+    return defaultClock;
+  }
+
+  /**
+   * Set the clock used by all metrics.
+   */
+  public static void setDefault(Clock clock) {
+    if (clock == null) {
+      throw new NullPointerException();
+    }
+    defaultClock = clock;
+  }
+
+  /**
+   * The system clock, this is the default.
+   */
+  public static Clock system() {
+    return SYSTEM;
+  }
+
+  /**
+   * A clock whose {@link #currentTimeMillis()} is updated every {@code tickMillis} by a daemon thread,
+   * and is a plain volatile read otherwise. Timestamps may be late by up to a tick, or more if the thread
+   * is not scheduled in time. {@link #nanoTime()} is not affected, so durations are still measured precisely.
+   * <p>
+   * Each call starts a new thread, use {@link Coarse#close()} to stop it.
+   */
+  public static Coarse coarse(long tickMillis) {
+    if (tickMillis <= 0) {
+      throw new IllegalArgumentException("tickMillis must be positive, got " + tickMillis + ".");
+    }
+    return new Coarse(tickMillis);
+  }
+
+  /**
+   * See {@link #coarse(long)}.
+   */
+  public static final class Coarse extends Clock implements Closeable {
+
+    private volatile long millis = System.currentTimeMillis();
+    private final Thread ticker;
+
+    private Coarse(final long tickMillis) {
+      ticker = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            while (!Thread.currentThread().isInterrupted()) {
+              Thread.sleep(tickMillis);
+              millis = System.currentTimeMillis();
+            }
+          } catch (InterruptedException e) {
+            // closed
+          }
+        }
+      }, "prometheus-coarse-clock");
+      ticker.setDaemon(true);
+      ticker.start();
+    }
+
+    @Override
+    public long currentTimeMillis() {
+      return millis;
+    }
+
+    /**
+     * Stop updating the time. If this is the default clock, {@link #setDefault(Clock) set another one} first.
+     */
+    @Override
+    public void close() {
+      ticker.interrupt();
+    }
+  }
+}
@@ -3,6 +3,7 @@ package io.prometheus.client;
 
 import io.prometheus.client.exemplars.Exemplar;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.regex.Pattern;
 
@@ -58,6 +59,22 @@ public abstract class Collector {
     return remaining;
   }
 
+  /**
+   * Like {@link #collect(Predicate)}, but write the metrics to {@code sink} one sample at a time instead of
+   * returning them. Like with {@link #collect(Predicate)}, families may contain samples that don't match
+   * {@code sampleNameFilter}, the {@link CollectorRegistry} drops them.
+   * <p>
+   * The default implementation writes the result of {@link #collect(Predicate)}. Collectors that produce many
+   * samples can override this method, so that a scrape doesn't need to hold all of them in memory.
+   *
+   * @param sampleNameFilter may be {@code null}, indicating that all metrics should be collected.
+   */
+  public void collect(SampleSink sink, Predicate<String> sampleNameFilter) throws IOException {
+    for (MetricFamilySamples mfs : collect(sampleNameFilter)) {
+      mfs.writeTo(sink);
+    }
+  }
+
   public enum Type {
     UNKNOWN, // This is untyped in Prometheus text format.
     COUNTER,
@@ -113,6 +130,27 @@ public abstract class Collector {
       this.samples = mungedSamples;
     }
 
+    /**
+     * Write this family to {@code sink}.
+     */
+    public void writeTo(SampleSink sink) throws IOException {
+      sink.startFamily(name, unit, type, help);
+      if (samples instanceof SampleColumns) {
+        SampleColumns columns = (SampleColumns) samples;
+        for (int row = 0; row < columns.size(); row++) {
+          sink.sample(columns.getName(row), columns.getLabelNames(), columns.getLabelValues(row),
+              columns.getExtraLabelName(), columns.getExtraLabelValue(row), columns.getValue(row),
+              columns.getExemplar(row), null);
+        }
+      } else {
+        for (Sample sample : samples) {
+          sink.sample(sample.name, sample.labelNames, sample.labelValues, null, null, sample.value,
+              sample.exemplar, sample.timestampMs);
+        }
+      }
+      sink.endFamily();
+    }
+
     /**
      * @param sampleNameFilter may be {@code null} indicating that the result contains the complete list of samples.
      * @return A new MetricFamilySamples containing only the Samples matching the {@code sampleNameFilter},
@@ -122,10 +160,19 @@ public abstract class Collector {
       if (sampleNameFilter == null) {
         return this;
       }
-      List<Sample> remainingSamples = new ArrayList<Sample>(samples.size());
-      for (Sample sample : samples) {
-        if (sampleNameFilter.test(sample.name)) {
-          remainingSamples.add(sample);
+      if (allSamplesMatch(sampleNameFilter)) {
+        // Collectors that filter themselves produce only matching samples, no need to copy them.
+        return samples.isEmpty() ? null : this;
+      }
+      List<Sample> remainingSamples;
+      if (samples instanceof SampleColumns) {
+        remainingSamples = ((SampleColumns) samples).filter(sampleNameFilter);
+      } else {
+        remainingSamples = new ArrayList<Sample>(samples.size());
+        for (Sample sample : samples) {
+          if (sampleNameFilter.test(sample.name)) {
+            remainingSamples.add(sample);
+          }
         }
       }
       if (remainingSamples.isEmpty()) {
@@ -134,6 +181,24 @@ public abstract class Collector {
       return new MetricFamilySamples(name, unit, type, help, remainingSamples);
     }
 
+    private boolean allSamplesMatch(Predicate<String> sampleNameFilter) {
+      if (samples instanceof SampleColumns) {
+        SampleColumns columns = (SampleColumns) samples;
+        for (int i = 0; i < columns.size(); i++) {
+          if (!sampleNameFilter.test(columns.getName(i))) {
+            return false;
+          }
+        }
+        return true;
+      }
+      for (Sample sample : samples) {
+        if (!sampleNameFilter.test(sample.name)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
     /**
      * List of names that are reserved for Samples in these MetricsFamilySamples.
      * <p>
@@ -393,6 +458,11 @@ public abstract class Collector {
     if (d == Double.NEGATIVE_INFINITY) {
       return "-Inf";
     }
+    // Fast path for whole numbers, like the values of counters. Double.toString() uses plain notation
+    // below 10^7, so this gives the same result without the floating point formatting. -0.0 is excluded.
+    if (d > -1e7 && d < 1e7 && d == (long) d && (d != 0 || 1 / d > 0)) {
+      return Long.toString((long) d) + ".0";
+    }
     return Double.toString(d);
   }
 }
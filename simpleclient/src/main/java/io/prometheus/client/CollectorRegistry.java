@@ -1,16 +1,33 @@
 package io.prometheus.client;
 
+import io.prometheus.client.exemplars.Exemplar;
+
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A registry of Collectors.
@@ -28,10 +45,24 @@ public class CollectorRegistry {
   public static final CollectorRegistry defaultRegistry = new CollectorRegistry(true);
 
   private final Object namesCollectorsLock = new Object();
-  private final Map<Collector, List<String>> collectorsToNames = new HashMap<Collector, List<String>>();
+  // In registration order, so that collectors are collected in the same order on every scrape.
+  private final Map<Collector, List<String>> collectorsToNames = new LinkedHashMap<Collector, List<String>>();
   private final Map<String, Collector> namesToCollectors = new HashMap<String, Collector>();
+  // Sweeps for metricFamilySamplesChangedSince() must not overlap, in any registry.
+  private static final Object changeTrackingLock = new Object();
+  private static long changeGeneration; // guarded by changeTrackingLock
+  // Published after each change of the maps above, so that scrapes don't need namesCollectorsLock.
+  private volatile Snapshot snapshot = new Snapshot(0, collectorsToNames, namesToCollectors);
+  // Modified while holding namesCollectorsLock, read without it while collecting.
+  private final ConcurrentMap<Collector, CachedCollector> cachedCollectors =
+      new ConcurrentHashMap<Collector, CachedCollector>();
+  private final CacheStatsCollector cacheStats = new CacheStatsCollector();
+  private final ConcurrentMap<String, AtomicLong> timeoutsByCollector = new ConcurrentHashMap<String, AtomicLong>();
+  private final ScrapeTimeoutsCollector scrapeTimeouts = new ScrapeTimeoutsCollector();
+  private volatile CollectorStatsCollector collectorStats; // null unless enableCollectorStats() was called
 
   private final boolean autoDescribe;
+  private volatile ParallelCollection parallelCollection; // null means collectors are collected one by one
 
   public CollectorRegistry() {
     this(false);
@@ -41,26 +72,170 @@ public class CollectorRegistry {
     this.autoDescribe = autoDescribe;
   }
 
+  /**
+   * Collect the collectors concurrently on {@code executor}, rather than one after the other on the thread
+   * that reads the metrics.
+   * <p>
+   * This reduces the scrape duration if several collectors spend time waiting, e.g. for JMX or files.
+   * The results are returned in the same order as without parallel collection.
+   * Each collector must finish within {@code timeout} of the start of the scrape, otherwise it is interrupted
+   * and its metrics are left out of this scrape. If the executor rejects a collector, it is collected on the
+   * calling thread.
+   * <p>
+   * The executor should be bounded, e.g. {@link java.util.concurrent.Executors#newFixedThreadPool(int)} with
+   * daemon threads. It is not shut down by the registry.
+   */
+  public void enableParallelCollection(Executor executor, long timeout, TimeUnit unit) {
+    if (executor == null || unit == null) {
+      throw new NullPointerException();
+    }
+    if (timeout <= 0) {
+      throw new IllegalArgumentException("timeout must be positive, got " + timeout + ".");
+    }
+    parallelCollection = new ParallelCollection(executor, unit.toNanos(timeout));
+  }
+
+  /**
+   * Collect the collectors one after the other again, this is the default.
+   */
+  public void disableParallelCollection() {
+    parallelCollection = null;
+  }
+
+  /**
+   * Record how long each collector takes to collect, how many samples it returns and how often it fails.
+   * <p>
+   * The statistics are exposed as {@code collector_duration_seconds}, {@code collector_samples} and
+   * {@code collector_failures_total} with the first name the collector was registered with as {@code collector}
+   * label, and are available from {@link #getCollectorStats()}. Collectors that were registered without names use
+   * their class name. Cached results are not counted as collections.
+   * <p>
+   * The statistics stay enabled after {@link #clear()}.
+   *
+   * @throws IllegalArgumentException if one of the names is already used by a registered collector.
+   */
+  public void enableCollectorStats() {
+    synchronized (namesCollectorsLock) {
+      if (collectorStats != null) {
+        return;
+      }
+      CollectorStatsCollector stats = new CollectorStatsCollector();
+      List<String> names = collectorNames(stats);
+      assertNamesAvailable(stats, names);
+      addNames(stats, names);
+      collectorStats = stats;
+      publishSnapshot();
+    }
+  }
+
+  /**
+   * Statistics by collector, see {@link #enableCollectorStats()}. Empty unless {@link #enableCollectorStats()} was called.
+   */
+  public Map<String, CollectorStats> getCollectorStats() {
+    CollectorStatsCollector stats = collectorStats;
+    if (stats == null) {
+      return Collections.emptyMap();
+    }
+    return stats.snapshot();
+  }
+
+  /**
+   * Statistics of a collector, see {@link #enableCollectorStats()}.
+   */
+  public static class CollectorStats {
+    /**
+     * Number of collections, including failed ones.
+     */
+    public final long collections;
+    /**
+     * Total duration of all collections.
+     */
+    public final double durationSeconds;
+    /**
+     * Number of samples returned by the last successful collection.
+     */
+    public final long samples;
+    /**
+     * Number of collections that threw an exception.
+     */
+    public final long failures;
+
+    public CollectorStats(long collections, double durationSeconds, long samples, long failures) {
+      this.collections = collections;
+      this.durationSeconds = durationSeconds;
+      this.samples = samples;
+      this.failures = failures;
+    }
+  }
+
   /**
    * Register a Collector.
    * <p>
    * A collector can be registered to multiple CollectorRegistries.
    */
   public void register(Collector m) {
+    register(m, CachePolicy.none());
+  }
+
+  /**
+   * Register a Collector, and reuse its collected samples as configured by {@code cachePolicy}.
+   * <p>
+   * While at least one collector is cached, the registry also exposes {@code collector_cache_requests_total}
+   * with the number of cache hits and misses per collector.
+   */
+  public void register(Collector m, CachePolicy cachePolicy) {
+    if (cachePolicy == null) {
+      throw new NullPointerException();
+    }
+    boolean cached = cachePolicy.getTtlNanos() > 0;
     List<String> names = collectorNames(m);
     assertNoDuplicateNames(m, names);
+    List<String> cacheStatsNames = cached ? collectorNames(cacheStats) : Collections.<String>emptyList();
     synchronized (namesCollectorsLock) {
-      for (String name : names) {
-        if (namesToCollectors.containsKey(name)) {
-          throw new IllegalArgumentException("Failed to register Collector of type " + m.getClass().getSimpleName()
-                  + ": " + name + " is already in use by another Collector of type "
-                  + namesToCollectors.get(name).getClass().getSimpleName());
+      assertNamesAvailable(m, names);
+      boolean addCacheStats = cached && cachedCollectors.isEmpty();
+      if (addCacheStats) {
+        assertNamesAvailable(cacheStats, cacheStatsNames);
+      }
+      addNames(m, names);
+      if (cached) {
+        cachedCollectors.put(m, new CachedCollector(m, cachePolicy.getTtlNanos()));
+        if (addCacheStats) {
+          addNames(cacheStats, cacheStatsNames);
         }
       }
+      publishSnapshot();
+    }
+  }
+
+  private void assertNamesAvailable(Collector m, List<String> names) {
+    for (String name : names) {
+      if (namesToCollectors.containsKey(name)) {
+        throw new IllegalArgumentException("Failed to register Collector of type " + m.getClass().getSimpleName()
+                + ": " + name + " is already in use by another Collector of type "
+                + namesToCollectors.get(name).getClass().getSimpleName());
+      }
+    }
+  }
+
+  private void addNames(Collector m, List<String> names) {
+    for (String name : names) {
+      namesToCollectors.put(name, m);
+    }
+    collectorsToNames.put(m, names);
+  }
+
+  // Must hold namesCollectorsLock.
+  private void publishSnapshot() {
+    snapshot = new Snapshot(snapshot.version + 1, collectorsToNames, namesToCollectors);
+  }
+
+  private void removeNames(Collector m) {
+    List<String> names = collectorsToNames.remove(m);
+    if (names != null) {
       for (String name : names) {
-        namesToCollectors.put(name, m);
+        namesToCollectors.remove(name);
       }
-      collectorsToNames.put(m, names);
     }
   }
 
@@ -75,35 +250,148 @@ public class CollectorRegistry {
   }
 
   /**
-   * Unregister a Collector.
+   * Unregister a Collector. Its statistics and scrape timeouts are removed as well, unless another registered
+   * collector shares its {@code collector} label.
    */
   public void unregister(Collector m) {
     synchronized (namesCollectorsLock) {
-      List<String> names = collectorsToNames.remove(m);
-      if (names != null) {
-        for (String name : names) {
-          namesToCollectors.remove(name);
-        }
+      boolean registered = collectorsToNames.containsKey(m);
+      String statsKey = snapshot.statsKey(m);
+      removeNames(m);
+      if (cachedCollectors.remove(m) != null && cachedCollectors.isEmpty()) {
+        removeNames(cacheStats);
+      }
+      publishSnapshot();
+      if (registered && !isStatsKeyInUse(statsKey)) {
+        removeStats(statsKey);
       }
     }
   }
 
   /**
-   * Unregister all Collectors.
+   * Unregister all Collectors. The statistics enabled by {@link #enableCollectorStats()} stay registered, but
+   * their values, and the scrape timeouts, are reset.
    */
   public void clear() {
     synchronized (namesCollectorsLock) {
       collectorsToNames.clear();
       namesToCollectors.clear();
+      cachedCollectors.clear();
+      timeoutsByCollector.clear();
+      CollectorStatsCollector stats = collectorStats;
+      if (stats != null) {
+        stats.duration.clear();
+        stats.samples.clear();
+        stats.failures.clear();
+        addNames(stats, collectorNames(stats));
+      }
+      publishSnapshot();
+    }
+  }
+
+  // Must hold namesCollectorsLock.
+  private boolean isStatsKeyInUse(String statsKey) {
+    Snapshot current = snapshot;
+    for (Collector collector : current.collectors) {
+      if (statsKey.equals(current.statsKey(collector))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void removeStats(String statsKey) {
+    timeoutsByCollector.remove(statsKey);
+    CollectorStatsCollector stats = collectorStats;
+    if (stats != null) {
+      stats.duration.remove(statsKey);
+      stats.samples.remove(statsKey);
+      stats.failures.remove(statsKey);
     }
   }
 
   /**
-   * A snapshot of the current collectors.
+   * The registered collectors and their names at one point in time.
    */
-  private Set<Collector> collectors() {
-    synchronized (namesCollectorsLock) {
-      return new HashSet<Collector>(collectorsToNames.keySet());
+  private static final class Snapshot {
+
+    final long version;
+    final List<Collector> collectors; // in registration order
+    private final Map<Collector, Integer> positions;
+    private final TreeMap<String, Collector> namesToCollectors;
+    private final List<Collector> collectorsWithoutNames;
+    private final Map<Collector, String> firstNames;
+
+    Snapshot(long version, Map<Collector, List<String>> collectorsToNames, Map<String, Collector> namesToCollectors) {
+      this.version = version;
+      this.collectors = Collections.unmodifiableList(new ArrayList<Collector>(collectorsToNames.keySet()));
+      this.positions = new HashMap<Collector, Integer>(collectorsToNames.size() * 2);
+      this.firstNames = new HashMap<Collector, String>(collectorsToNames.size() * 2);
+      List<Collector> withoutNames = new ArrayList<Collector>();
+      for (Map.Entry<Collector, List<String>> entry : collectorsToNames.entrySet()) {
+        positions.put(entry.getKey(), positions.size());
+        if (entry.getValue().isEmpty()) {
+          withoutNames.add(entry.getKey());
+        } else {
+          firstNames.put(entry.getKey(), entry.getValue().get(0));
+        }
+      }
+      this.namesToCollectors = new TreeMap<String, Collector>(namesToCollectors);
+      this.collectorsWithoutNames = withoutNames;
+    }
+
+    /**
+     * The collectors that have at least one name matching {@code sampleNameFilter}, and the collectors without
+     * names, in registration order.
+     */
+    List<Collector> filter(Predicate<String> sampleNameFilter) {
+      if (sampleNameFilter == null) {
+        return collectors;
+      }
+      Set<Collector> matching = new HashSet<Collector>(collectorsWithoutNames);
+      SampleNameFilter indexable = SampleNameFilter.indexablePart(sampleNameFilter);
+      if (indexable != null && !indexable.getNameIsEqualTo().isEmpty()) {
+        for (String name : indexable.getNameIsEqualTo()) {
+          addIfMatches(name, namesToCollectors.get(name), sampleNameFilter, matching);
+        }
+      } else if (indexable != null && !indexable.getNameStartsWith().isEmpty()) {
+        for (String prefix : indexable.getNameStartsWith()) {
+          for (Map.Entry<String, Collector> entry : namesToCollectors.tailMap(prefix).entrySet()) {
+            if (!entry.getKey().startsWith(prefix)) {
+              break;
+            }
+            addIfMatches(entry.getKey(), entry.getValue(), sampleNameFilter, matching);
+          }
+        }
+      } else {
+        for (Map.Entry<String, Collector> entry : namesToCollectors.entrySet()) {
+          addIfMatches(entry.getKey(), entry.getValue(), sampleNameFilter, matching);
+        }
+      }
+      List<Collector> result = new ArrayList<Collector>(matching);
+      Collections.sort(result, new Comparator<Collector>() {
+        @Override
+        public int compare(Collector a, Collector b) {
+          return positions.get(a) - positions.get(b);
+        }
+      });
+      return result;
+    }
+
+    /**
+     * The {@code collector} label of the statistics of {@code collector}: the first name it was registered with,
+     * or its class name if it has no names.
+     */
+    String statsKey(Collector collector) {
+      String name = firstNames.get(collector);
+      return name != null ? name : collector.getClass().getName();
+    }
+
+    private static void addIfMatches(String name, Collector collector, Predicate<String> sampleNameFilter,
+                                     Set<Collector> matching) {
+      if (collector != null && sampleNameFilter.test(name)) {
+        matching.add(collector);
+      }
     }
   }
 
@@ -151,41 +439,189 @@ public class CollectorRegistry {
     return new MetricFamilySamplesEnumeration(sampleNameFilter);
   }
 
+  /**
+   * Like {@link #filteredMetricFamilySamples(Predicate)}, but collectors that don't finish within {@code timeout}
+   * are left out, so that the metrics that are available can be returned before the scraper gives up.
+   * <p>
+   * Collectors are skipped if the timeout expired before they were started. A collector that was already
+   * started can only be abandoned with {@link #enableParallelCollection(Executor, long, TimeUnit) parallel
+   * collection}. Skipped collectors are counted in {@code scrape_collector_timeouts_total}, which is exposed
+   * after the first timeout.
+   *
+   * @param sampleNameFilter may be {@code null}, indicating that the enumeration should contain all metrics.
+   */
+  public Enumeration<Collector.MetricFamilySamples> filteredMetricFamilySamples(Predicate<String> sampleNameFilter,
+                                                                               long timeout, TimeUnit unit) {
+    if (timeout <= 0) {
+      throw new IllegalArgumentException("timeout must be positive, got " + timeout + ".");
+    }
+    return new MetricFamilySamplesEnumeration(sampleNameFilter, unit.toNanos(timeout));
+  }
+
+  /**
+   * Like {@link #filteredMetricFamilySamples(Predicate)}, but write the metrics to {@code sink} while collecting,
+   * using {@link Collector#collect(SampleSink, Predicate)}. Unlike with the enumeration, samples that don't match
+   * {@code sampleNameFilter} are dropped before they reach {@code sink}, and families without matching samples are
+   * not written at all.
+   * <p>
+   * Cached collectors and {@link #enableParallelCollection(Executor, long, TimeUnit) parallel collection} need
+   * the complete results of a collector, these are written once they are available.
+   *
+   * @param sampleNameFilter may be {@code null}, indicating that all metrics should be written.
+   */
+  public void collect(SampleSink sink, Predicate<String> sampleNameFilter) throws IOException {
+    collect(sink, sampleNameFilter, 0);
+  }
+
+  /**
+   * Like {@link #collect(SampleSink, Predicate)}, with a timeout like
+   * {@link #filteredMetricFamilySamples(Predicate, long, TimeUnit)}.
+   */
+  public void collect(SampleSink sink, Predicate<String> sampleNameFilter, long timeout, TimeUnit unit)
+      throws IOException {
+    if (timeout <= 0) {
+      throw new IllegalArgumentException("timeout must be positive, got " + timeout + ".");
+    }
+    collect(sink, sampleNameFilter, unit.toNanos(timeout));
+  }
+
+  /**
+   * @param timeoutNanos 0 means no timeout.
+   */
+  private void collect(SampleSink sink, Predicate<String> sampleNameFilter, long timeoutNanos) throws IOException {
+    if (sink == null) {
+      throw new NullPointerException();
+    }
+    SampleSink filteredSink = sampleNameFilter == null ? sink : new SampleNameFilteringSink(sink, sampleNameFilter);
+    if (parallelCollection != null) {
+      Enumeration<Collector.MetricFamilySamples> mfs = new MetricFamilySamplesEnumeration(sampleNameFilter, timeoutNanos);
+      while (mfs.hasMoreElements()) {
+        mfs.nextElement().writeTo(filteredSink);
+      }
+      return;
+    }
+    boolean hasDeadline = timeoutNanos > 0;
+    long deadlineNanos = System.nanoTime() + timeoutNanos;
+    for (Collector collector : snapshot.filter(sampleNameFilter)) {
+      if (hasDeadline && System.nanoTime() - deadlineNanos >= 0) {
+        recordTimeout(collector);
+        continue;
+      }
+      collect(collector, filteredSink, sampleNameFilter);
+    }
+  }
+
+  private void collect(Collector collector, SampleSink sink, Predicate<String> sampleNameFilter) throws IOException {
+    CachedCollector cached = cachedCollectors.get(collector);
+    if (cached != null) {
+      for (Collector.MetricFamilySamples mfs : cached.collect()) {
+        mfs.writeTo(sink);
+      }
+    } else {
+      collectWithStats(collector, sink, sampleNameFilter);
+    }
+  }
+
+  /**
+   * Result of {@link #metricFamilySamplesChangedSince(long)}.
+   */
+  public static class Changes {
+
+    /**
+     * Pass this to the next call of {@link #metricFamilySamplesChangedSince(long)}.
+     */
+    public final long token;
+    public final List<Collector.MetricFamilySamples> metricFamilySamples;
+
+    Changes(long token, List<Collector.MetricFamilySamples> metricFamilySamples) {
+      this.token = token;
+      this.metricFamilySamples = metricFamilySamples;
+    }
+  }
+
+  /**
+   * The metrics that changed since the call that returned {@code token}, for exporters that push deltas.
+   * <p>
+   * Children of {@link Counter}, {@link Gauge}, {@link Histogram}, {@link Summary}, {@link Info} and
+   * {@link Enumeration} count as changed if they were updated or created, their samples are left out
+   * otherwise. Families without changed children are left out entirely. Other collectors and callback gauges
+   * are always included. Children that were removed are not reported. Updates are tracked with a flag that is
+   * only written if it isn't set already, so the cost per update is a read of the flag.
+   * <p>
+   * Each child may be reported once more than necessary, but a change is never missed. Tokens are shared by all
+   * registries, so a collector can be in several registries, and several exporters can each keep their own token.
+   * Collectors are collected one by one, even if {@link #enableParallelCollection parallel collection} is
+   * enabled. The {@link CachePolicy} of a collector is ignored, as cached samples could be older than the changes
+   * that were swept.
+   *
+   * @param token 0 for all metrics, or {@link Changes#token} of a previous call.
+   */
+  public Changes metricFamilySamplesChangedSince(long token) {
+    if (token < 0) {
+      throw new IllegalArgumentException("token must not be negative, got " + token + ".");
+    }
+    List<Collector> collectors = snapshot.collectors;
+    Map<Collector, Set<List<String>>> unchangedChildren = new HashMap<Collector, Set<List<String>>>();
+    long generation;
+    synchronized (changeTrackingLock) {
+      generation = ++changeGeneration;
+      for (Collector collector : collectors) {
+        if (collector instanceof SimpleCollector) {
+          unchangedChildren.put(collector, ((SimpleCollector<?>) collector).sweepUnchangedChildren(token, generation));
+        }
+      }
+    }
+    ListSink result = new ListSink(true);
+    try {
+      for (Collector collector : collectors) {
+        Set<List<String>> unchanged = unchangedChildren.get(collector);
+        // Not through the cache, the samples must be read after the sweep.
+        if (unchanged == null || unchanged.isEmpty()) {
+          collectWithStats(collector, result, null);
+        } else {
+          int labelCount = ((SimpleCollector<?>) collector).labelNames.size();
+          collectWithStats(collector, new ChangedChildrenSink(result, labelCount, unchanged), null);
+        }
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException(e); // ListSink doesn't throw
+    }
+    return new Changes(generation, result.metricFamilySamples);
+  }
+
   class MetricFamilySamplesEnumeration implements Enumeration<Collector.MetricFamilySamples> {
 
     private final Iterator<Collector> collectorIter;
     private Iterator<Collector.MetricFamilySamples> metricFamilySamples;
     private Collector.MetricFamilySamples next;
     private final Predicate<String> sampleNameFilter;
+    // Results of parallel collection, null if collectors are collected one by one while iterating.
+    private final Map<Collector, List<Collector.MetricFamilySamples>> collected;
+
+    private final long deadlineNanos;
+    private final boolean hasDeadline;
 
     MetricFamilySamplesEnumeration(Predicate<String> sampleNameFilter) {
-      this.sampleNameFilter = sampleNameFilter;
-      this.collectorIter = filteredCollectorIterator();
-      findNextElement();
+      this(sampleNameFilter, 0);
     }
 
-    private Iterator<Collector> filteredCollectorIterator() {
-      if (sampleNameFilter == null) {
-        return collectors().iterator();
+    /**
+     * @param timeoutNanos 0 means no timeout.
+     */
+    MetricFamilySamplesEnumeration(Predicate<String> sampleNameFilter, long timeoutNanos) {
+      this.sampleNameFilter = sampleNameFilter;
+      this.hasDeadline = timeoutNanos > 0;
+      this.deadlineNanos = System.nanoTime() + timeoutNanos;
+      List<Collector> collectors = snapshot.filter(sampleNameFilter);
+      this.collectorIter = collectors.iterator();
+      ParallelCollection parallel = parallelCollection;
+      if (parallel == null) {
+        this.collected = null;
       } else {
-        HashSet<Collector> collectors = new HashSet<Collector>();
-        synchronized (namesCollectorsLock) {
-          for (Map.Entry<Collector, List<String>> entry : collectorsToNames.entrySet()) {
-            List<String> names = entry.getValue();
-            if (names.isEmpty()) {
-              collectors.add(entry.getKey());
-            } else {
-              for (String name : names) {
-                if (sampleNameFilter.test(name)) {
-                  collectors.add(entry.getKey());
-                  break;
-                }
-              }
-            }
-          }
-        }
-        return collectors.iterator();
+        long parallelTimeout = hasDeadline ? Math.min(timeoutNanos, parallel.timeoutNanos) : parallel.timeoutNanos;
+        this.collected = parallel.collectAll(collectors, sampleNameFilter, parallelTimeout);
       }
+      findNextElement();
     }
 
     MetricFamilySamplesEnumeration() {
@@ -203,7 +639,20 @@ public class CollectorRegistry {
       }
 
       while (collectorIter.hasNext()) {
-        metricFamilySamples = collectorIter.next().collect(sampleNameFilter).iterator();
+        Collector collector = collectorIter.next();
+        List<Collector.MetricFamilySamples> mfs;
+        if (collected != null) {
+          mfs = collected.get(collector);
+          if (mfs == null) {
+            continue; // timed out
+          }
+        } else if (hasDeadline && System.nanoTime() - deadlineNanos >= 0) {
+          recordTimeout(collector);
+          continue;
+        } else {
+          mfs = collect(collector, sampleNameFilter);
+        }
+        metricFamilySamples = mfs.iterator();
         while (metricFamilySamples.hasNext()) {
           next = metricFamilySamples.next().filter(sampleNameFilter);
           if (next != null) {
@@ -227,6 +676,462 @@ public class CollectorRegistry {
     }
   }
 
+  private List<Collector.MetricFamilySamples> collect(Collector collector, Predicate<String> sampleNameFilter) {
+    CachedCollector cached = cachedCollectors.get(collector);
+    if (cached != null) {
+      // The cache holds all samples, the enumeration drops the ones that don't match the filter.
+      return cached.collect();
+    }
+    return collectWithStats(collector, sampleNameFilter);
+  }
+
+  private List<Collector.MetricFamilySamples> collectWithStats(Collector collector,
+                                                              Predicate<String> sampleNameFilter) {
+    CollectorStatsCollector stats = collectorStats;
+    if (stats == null) {
+      return collector.collect(sampleNameFilter);
+    }
+    String key = snapshot.statsKey(collector);
+    long start = System.nanoTime();
+    boolean success = false;
+    try {
+      List<Collector.MetricFamilySamples> mfs = collector.collect(sampleNameFilter);
+      int samples = 0;
+      for (Collector.MetricFamilySamples family : mfs) {
+        samples += family.samples.size();
+      }
+      stats.samples.labels(key).set(samples);
+      success = true;
+      return mfs;
+    } finally {
+      stats.duration.labels(key).observe(SimpleTimer.elapsedSecondsFromNanos(start, System.nanoTime()));
+      if (!success) {
+        stats.failures.labels(key).inc();
+      }
+    }
+  }
+
+  /**
+   * Like {@link #collectWithStats(Collector, Predicate)}, for {@link #collect(SampleSink, Predicate)}.
+   */
+  private void collectWithStats(Collector collector, SampleSink sink, Predicate<String> sampleNameFilter)
+      throws IOException {
+    CollectorStatsCollector stats = collectorStats;
+    if (stats == null) {
+      collector.collect(sink, sampleNameFilter);
+      return;
+    }
+    String key = snapshot.statsKey(collector);
+    long start = System.nanoTime();
+    boolean success = false;
+    try {
+      CountingSink countingSink = new CountingSink(sink);
+      collector.collect(countingSink, sampleNameFilter);
+      stats.samples.labels(key).set(countingSink.samples);
+      success = true;
+    } finally {
+      stats.duration.labels(key).observe(SimpleTimer.elapsedSecondsFromNanos(start, System.nanoTime()));
+      if (!success) {
+        stats.failures.labels(key).inc();
+      }
+    }
+  }
+
+  /**
+   * Drops the samples that are not {@link #accept(String, List) accepted}, and families that have no accepted
+   * samples.
+   */
+  private abstract static class FilteringSink implements SampleSink {
+
+    private final SampleSink delegate;
+    private String name;
+    private String unit;
+    private Collector.Type type;
+    private String help;
+    private boolean started;
+
+    FilteringSink(SampleSink delegate) {
+      this.delegate = delegate;
+    }
+
+    abstract boolean accept(String name, List<String> labelValues);
+
+    @Override
+    public void startFamily(String name, String unit, Collector.Type type, String help) {
+      this.name = name;
+      this.unit = unit;
+      this.type = type;
+      this.help = help;
+      this.started = false;
+    }
+
+    @Override
+    public void sample(String name, List<String> labelNames, List<String> labelValues, String extraLabelName,
+                       String extraLabelValue, double value, Exemplar exemplar, Long timestampMs)
+        throws IOException {
+      if (!accept(name, labelValues)) {
+        return;
+      }
+      if (!started) {
+        delegate.startFamily(this.name, unit, type, help);
+        started = true;
+      }
+      delegate.sample(name, labelNames, labelValues, extraLabelName, extraLabelValue, value, exemplar, timestampMs);
+    }
+
+    @Override
+    public void endFamily() throws IOException {
+      if (started) {
+        delegate.endFamily();
+        started = false;
+      }
+    }
+  }
+
+  private static final class SampleNameFilteringSink extends FilteringSink {
+
+    private final Predicate<String> sampleNameFilter;
+
+    SampleNameFilteringSink(SampleSink delegate, Predicate<String> sampleNameFilter) {
+      super(delegate);
+      this.sampleNameFilter = sampleNameFilter;
+    }
+
+    @Override
+    boolean accept(String name, List<String> labelValues) {
+      return sampleNameFilter.test(name);
+    }
+  }
+
+  /**
+   * Drops the samples of unchanged children. A sample belongs to the child whose label values it starts with,
+   * samples with fewer label values, like those of the cardinality overflow family, are kept.
+   */
+  private static final class ChangedChildrenSink extends FilteringSink {
+
+    private final int labelCount;
+    private final Set<List<String>> unchangedChildren;
+
+    ChangedChildrenSink(SampleSink delegate, int labelCount, Set<List<String>> unchangedChildren) {
+      super(delegate);
+      this.labelCount = labelCount;
+      this.unchangedChildren = unchangedChildren;
+    }
+
+    @Override
+    boolean accept(String name, List<String> labelValues) {
+      if (labelValues.size() < labelCount) {
+        return true;
+      }
+      List<String> child = labelValues.size() == labelCount ? labelValues : labelValues.subList(0, labelCount);
+      return !unchangedChildren.contains(child);
+    }
+  }
+
+  private static final class CountingSink implements SampleSink {
+
+    private final SampleSink delegate;
+    private long samples;
+
+    CountingSink(SampleSink delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void startFamily(String name, String unit, Collector.Type type, String help) throws IOException {
+      delegate.startFamily(name, unit, type, help);
+    }
+
+    @Override
+    public void sample(String name, List<String> labelNames, List<String> labelValues, String extraLabelName,
+                       String extraLabelValue, double value, Exemplar exemplar, Long timestampMs)
+        throws IOException {
+      samples++;
+      delegate.sample(name, labelNames, labelValues, extraLabelName, extraLabelValue, value, exemplar, timestampMs);
+    }
+
+    @Override
+    public void endFamily() throws IOException {
+      delegate.endFamily();
+    }
+  }
+
+  /**
+   * Collects on an executor, see {@link #enableParallelCollection(Executor, long, TimeUnit)}.
+   */
+  private final class ParallelCollection {
+
+    private final Executor executor;
+    private final long timeoutNanos;
+
+    ParallelCollection(Executor executor, long timeoutNanos) {
+      this.executor = executor;
+      this.timeoutNanos = timeoutNanos;
+    }
+
+    /**
+     * Returns the results by collector. Collectors that didn't finish in time are missing.
+     */
+    Map<Collector, List<Collector.MetricFamilySamples>> collectAll(List<Collector> collectors,
+                                                                   final Predicate<String> sampleNameFilter,
+                                                                   long timeoutNanos) {
+      long deadline = System.nanoTime() + timeoutNanos;
+      Map<Collector, FutureTask<List<Collector.MetricFamilySamples>>> tasks =
+          new LinkedHashMap<Collector, FutureTask<List<Collector.MetricFamilySamples>>>();
+      for (final Collector collector : collectors) {
+        FutureTask<List<Collector.MetricFamilySamples>> task = new FutureTask<List<Collector.MetricFamilySamples>>(
+            new Callable<List<Collector.MetricFamilySamples>>() {
+              @Override
+              public List<Collector.MetricFamilySamples> call() {
+                return collect(collector, sampleNameFilter);
+              }
+            });
+        try {
+          executor.execute(task);
+        } catch (RejectedExecutionException e) {
+          task.run();
+        }
+        tasks.put(collector, task);
+      }
+      Map<Collector, List<Collector.MetricFamilySamples>> result =
+          new IdentityHashMap<Collector, List<Collector.MetricFamilySamples>>();
+      boolean interrupted = false;
+      try {
+        for (Map.Entry<Collector, FutureTask<List<Collector.MetricFamilySamples>>> entry : tasks.entrySet()) {
+          FutureTask<List<Collector.MetricFamilySamples>> task = entry.getValue();
+          try {
+            result.put(entry.getKey(), task.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+          } catch (TimeoutException e) {
+            task.cancel(true);
+            recordTimeout(entry.getKey());
+          } catch (InterruptedException e) {
+            interrupted = true;
+            cancelAll(tasks);
+            break;
+          } catch (ExecutionException e) {
+            cancelAll(tasks);
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+              throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+              throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+          }
+        }
+      } finally {
+        if (interrupted) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      return result;
+    }
+
+    private void cancelAll(Map<Collector, FutureTask<List<Collector.MetricFamilySamples>>> tasks) {
+      for (FutureTask<List<Collector.MetricFamilySamples>> task : tasks.values()) {
+        task.cancel(true);
+      }
+    }
+  }
+
+  private void recordTimeout(Collector collector) {
+    String key = snapshot.statsKey(collector);
+    AtomicLong timeouts = timeoutsByCollector.get(key);
+    if (timeouts == null) {
+      AtomicLong existing = timeoutsByCollector.putIfAbsent(key, timeouts = new AtomicLong());
+      if (existing != null) {
+        timeouts = existing;
+      }
+    }
+    timeouts.incrementAndGet();
+    synchronized (namesCollectorsLock) {
+      if (!collectorsToNames.containsKey(scrapeTimeouts)) {
+        List<String> names = collectorNames(scrapeTimeouts);
+        for (String name : names) {
+          if (namesToCollectors.containsKey(name)) {
+            return; // name used by an application metric, don't expose the timeouts
+          }
+        }
+        addNames(scrapeTimeouts, names);
+        publishSnapshot();
+      }
+    }
+  }
+
+  /**
+   * Exposes the statistics recorded after {@link #enableCollectorStats()}.
+   */
+  private static class CollectorStatsCollector extends Collector implements Collector.Describable {
+
+    final Histogram duration = Histogram.build()
+        .name("collector_duration_seconds").help("Time spent collecting, by collector.")
+        .labelNames("collector")
+        .buckets(.0005, .001, .0025, .005, .01, .025, .05, .1, .25, .5, 1, 2.5, 5, 10)
+        .withoutExemplars()
+        .create();
+    final Gauge samples = Gauge.build()
+        .name("collector_samples").help("Samples returned by the last collection, by collector.")
+        .labelNames("collector")
+        .create();
+    final Counter failures = Counter.build()
+        .name("collector_failures_total").help("Collections that threw an exception, by collector.")
+        .labelNames("collector")
+        .withoutExemplars()
+        .create();
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+      List<MetricFamilySamples> mfs = new ArrayList<MetricFamilySamples>(3);
+      mfs.addAll(duration.collect());
+      mfs.addAll(samples.collect());
+      mfs.addAll(failures.collect());
+      return mfs;
+    }
+
+    @Override
+    public List<MetricFamilySamples> describe() {
+      List<MetricFamilySamples> mfs = new ArrayList<MetricFamilySamples>(3);
+      mfs.addAll(duration.describe());
+      mfs.addAll(samples.describe());
+      mfs.addAll(failures.describe());
+      return mfs;
+    }
+
+    Map<String, CollectorStats> snapshot() {
+      Map<String, CollectorStats> result = new TreeMap<String, CollectorStats>();
+      for (Map.Entry<List<String>, Histogram.Child> entry : duration.children.entrySet()) {
+        Histogram.Child.Value value = entry.getValue().get();
+        Gauge.Child sampleCount = samples.children.get(entry.getKey());
+        Counter.Child failureCount = failures.children.get(entry.getKey());
+        result.put(entry.getKey().get(0), new CollectorStats(
+            (long) value.buckets[value.buckets.length - 1],
+            value.sum,
+            sampleCount == null ? 0 : (long) sampleCount.get(),
+            failureCount == null ? 0 : (long) failureCount.get()));
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Exposes the number of collectors that were left out of scrapes because they didn't finish in time.
+   */
+  private class ScrapeTimeoutsCollector extends Collector implements Collector.Describable {
+
+    private static final String NAME = "scrape_collector_timeouts";
+    private static final String HELP = "Collectors left out of a scrape because they didn't finish in time.";
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+      CounterMetricFamily family = new CounterMetricFamily(NAME, HELP, Collections.singletonList("collector"));
+      for (Map.Entry<String, AtomicLong> entry : new TreeMap<String, AtomicLong>(timeoutsByCollector).entrySet()) {
+        family.addMetric(Collections.singletonList(entry.getKey()), entry.getValue().get());
+      }
+      List<MetricFamilySamples> mfs = new ArrayList<MetricFamilySamples>(1);
+      mfs.add(family);
+      return mfs;
+    }
+
+    @Override
+    public List<MetricFamilySamples> describe() {
+      List<MetricFamilySamples> mfs = new ArrayList<MetricFamilySamples>(1);
+      mfs.add(new CounterMetricFamily(NAME, HELP, Collections.singletonList("collector")));
+      return mfs;
+    }
+  }
+
+  /**
+   * The result of a collector registered with a {@link CachePolicy}.
+   */
+  private final class CachedCollector {
+
+    private final Collector collector;
+    private final long ttlNanos;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile CachedResult entry;
+
+    CachedCollector(Collector collector, long ttlNanos) {
+      this.collector = collector;
+      this.ttlNanos = ttlNanos;
+    }
+
+    List<Collector.MetricFamilySamples> collect() {
+      CachedResult e = entry;
+      if (e != null && e.isValid()) {
+        hits.incrementAndGet();
+        return e.mfs;
+      }
+      // Concurrent scrapes after expiry wait for one of them to collect, rather than all collecting.
+      synchronized (this) {
+        e = entry;
+        if (e != null && e.isValid()) {
+          hits.incrementAndGet();
+          return e.mfs;
+        }
+        misses.incrementAndGet();
+        List<Collector.MetricFamilySamples> mfs = collectWithStats(collector, null);
+        entry = new CachedResult(mfs, Clock.getDefault().nanoTime() + ttlNanos);
+        return mfs;
+      }
+    }
+  }
+
+  private static final class CachedResult {
+    final List<Collector.MetricFamilySamples> mfs;
+    final long expiresAtNanos;
+
+    CachedResult(List<Collector.MetricFamilySamples> mfs, long expiresAtNanos) {
+      this.mfs = mfs;
+      this.expiresAtNanos = expiresAtNanos;
+    }
+
+    boolean isValid() {
+      return Clock.getDefault().nanoTime() - expiresAtNanos < 0;
+    }
+  }
+
+  /**
+   * Exposes cache hits and misses of the collectors registered with a {@link CachePolicy}.
+   */
+  private class CacheStatsCollector extends Collector implements Collector.Describable {
+
+    private static final String NAME = "collector_cache_requests";
+    private static final String HELP = "Collections of cached collectors, by whether they were served from the cache.";
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+      Snapshot current = snapshot;
+      Map<String, long[]> byCollector = new TreeMap<String, long[]>();
+      for (CachedCollector cached : cachedCollectors.values()) {
+        String key = current.statsKey(cached.collector);
+        long[] counts = byCollector.get(key);
+        if (counts == null) {
+          counts = new long[2];
+          byCollector.put(key, counts);
+        }
+        counts[0] += cached.hits.get();
+        counts[1] += cached.misses.get();
+      }
+      CounterMetricFamily family = new CounterMetricFamily(NAME, HELP, Arrays.asList("collector", "result"));
+      for (Map.Entry<String, long[]> entry : byCollector.entrySet()) {
+        family.addMetric(Arrays.asList(entry.getKey(), "hit"), entry.getValue()[0]);
+        family.addMetric(Arrays.asList(entry.getKey(), "miss"), entry.getValue()[1]);
+      }
+      List<MetricFamilySamples> mfs = new ArrayList<MetricFamilySamples>(1);
+      mfs.add(family);
+      return mfs;
+    }
+
+    @Override
+    public List<MetricFamilySamples> describe() {
+      List<MetricFamilySamples> mfs = new ArrayList<MetricFamilySamples>(1);
+      mfs.add(new CounterMetricFamily(NAME, HELP, Arrays.asList("collector", "result")));
+      return mfs;
+    }
+  }
+
   /**
    * Returns the given value, or null if it doesn't exist.
    * <p>
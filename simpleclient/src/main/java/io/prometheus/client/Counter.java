@@ -4,8 +4,7 @@ import io.prometheus.client.exemplars.CounterExemplarSampler;
 import io.prometheus.client.exemplars.Exemplar;
 import io.prometheus.client.exemplars.ExemplarConfig;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
@@ -78,16 +77,25 @@ import static java.lang.Boolean.TRUE;
  * <code>_total</code> suffix will be added. This is for compatibility between
  * OpenMetrics and the Prometheus text format, as OpenMetrics requires the
  * <code>_total</code> suffix.
+ *
+ * <p>
+ * Counters that only count events, i.e. are only ever incremented by whole numbers, can be built with
+ * {@link Builder#integer()}. Their value is kept in a {@link LongAdder} rather than a {@link DoubleAdder},
+ * so {@link Child#inc()} is a plain striped long addition.
  */
 public class Counter extends SimpleCollector<Counter.Child> implements Collector.Describable {
 
   private final Boolean exemplarsEnabled; // null means default from ExemplarConfig applies
   private final CounterExemplarSampler exemplarSampler;
+  private final boolean integer;
+  private final MultiprocessStore multiprocessStore;
 
   Counter(Builder b) {
     super(b);
     this.exemplarsEnabled = b.exemplarsEnabled;
     this.exemplarSampler = b.exemplarSampler;
+    this.integer = b.integer;
+    this.multiprocessStore = b.multiprocessStore;
     initializeNoLabelsChild();
   }
 
@@ -95,6 +103,8 @@ public class Counter extends SimpleCollector<Counter.Child> implements Collector
 
     private Boolean exemplarsEnabled = null;
     private CounterExemplarSampler exemplarSampler = null;
+    private boolean integer = false;
+    private MultiprocessStore multiprocessStore = null;
 
     @Override
     public Counter create() {
@@ -139,6 +149,31 @@ public class Counter extends SimpleCollector<Counter.Child> implements Collector
       this.exemplarsEnabled = FALSE;
       return this;
     }
+
+    /**
+     * Only allow incrementing by whole numbers.
+     * <p>
+     * The value is kept as a {@code long} rather than a {@code double}, which makes {@link Child#inc()} cheaper.
+     * Incrementing by an amount that is not a whole number, or that is not less than {@link Long#MAX_VALUE},
+     * throws an {@link IllegalArgumentException}.
+     */
+    public Builder integer() {
+      this.integer = true;
+      return this;
+    }
+
+    /**
+     * Also store the values in {@code store}, so that they can be exposed by a {@link MultiprocessCollector}.
+     * The values of different processes are added up. A child that is removed and created again continues from
+     * its value in the store, so that the counter doesn't go backwards.
+     */
+    public Builder multiprocess(MultiprocessStore store) {
+      if (store == null) {
+        throw new NullPointerException();
+      }
+      this.multiprocessStore = store;
+      return this;
+    }
   }
 
   /**
@@ -160,7 +195,16 @@ public class Counter extends SimpleCollector<Counter.Child> implements Collector
 
   @Override
   protected Child newChild() {
-    return new Child(exemplarsEnabled, exemplarSampler);
+    return new Child(exemplarsEnabled, exemplarSampler, integer, null);
+  }
+
+  @Override
+  protected Child newChild(List<String> labelValues) {
+    if (multiprocessStore == null) {
+      return newChild();
+    }
+    return new Child(exemplarsEnabled, exemplarSampler, integer, multiprocessStore.slot(Type.COUNTER, null,
+        fullname, unit, help, fullname + "_total", labelNames, labelValues));
   }
 
   /**
@@ -169,9 +213,12 @@ public class Counter extends SimpleCollector<Counter.Child> implements Collector
    * <em>Warning:</em> References to a Child become invalid after using
    * {@link SimpleCollector#remove} or {@link SimpleCollector#clear},
    */
-  public static class Child {
-    private final DoubleAdder value = new DoubleAdder();
-    private final long created = System.currentTimeMillis();
+  public static class Child extends TrackedChild {
+    // Exactly one of value and longValue is set, depending on Builder.integer().
+    private final DoubleAdder value;
+    private final LongAdder longValue;
+    private final MultiprocessStore.Slot slot; // null unless the counter was built with multiprocess()
+    private final long created = Clock.getDefault().currentTimeMillis();
     private final Boolean exemplarsEnabled;
     private final CounterExemplarSampler exemplarSampler;
     private final AtomicReference<Exemplar> exemplar = new AtomicReference<Exemplar>();
@@ -181,15 +228,38 @@ public class Counter extends SimpleCollector<Counter.Child> implements Collector
     }
 
     public Child(Boolean exemplarsEnabled, CounterExemplarSampler exemplarSampler) {
+      this(exemplarsEnabled, exemplarSampler, false, null);
+    }
+
+    Child(Boolean exemplarsEnabled, CounterExemplarSampler exemplarSampler, boolean integer,
+          MultiprocessStore.Slot slot) {
       this.exemplarsEnabled = exemplarsEnabled;
       this.exemplarSampler = exemplarSampler;
+      this.value = integer ? null : new DoubleAdder();
+      this.longValue = integer ? new LongAdder() : null;
+      this.slot = slot;
+      if (slot != null) {
+        // The slot is not new if a child with the same labels was removed before.
+        if (longValue != null) {
+          longValue.add((long) slot.get());
+        } else {
+          value.add(slot.get());
+        }
+      }
     }
 
     /**
      * Increment the counter by 1.
      */
     public void inc() {
-      inc(1);
+      if (longValue != null) {
+        longValue.increment();
+        publish();
+        updateExemplar(1, null);
+        changed();
+      } else {
+        inc(1);
+      }
     }
 
     /**
@@ -209,7 +279,8 @@ public class Counter extends SimpleCollector<Counter.Child> implements Collector
     /**
      * Increment the counter by the given amount.
      *
-     * @throws IllegalArgumentException If amt is negative.
+     * @throws IllegalArgumentException If amt is negative, or if it is not a whole number less than
+     *                                  {@link Long#MAX_VALUE} and the counter was built with {@link Builder#integer()}.
      */
     public void inc(double amt) {
       incWithExemplar(amt, (String[]) null);
@@ -232,12 +303,25 @@ public class Counter extends SimpleCollector<Counter.Child> implements Collector
      *                       to calling {@code inc(amt)}.
      */
     public void incWithExemplar(double amt, String... exemplarLabels) {
-      Exemplar exemplar = exemplarLabels == null ? null : new Exemplar(amt, System.currentTimeMillis(), exemplarLabels);
+      Exemplar exemplar = exemplarLabels == null ? null : new Exemplar(amt, Clock.getDefault().currentTimeMillis(), exemplarLabels);
       if (amt < 0) {
         throw new IllegalArgumentException("Amount to increment must be non-negative.");
       }
-      value.add(amt);
+      if (longValue != null && amt != Math.floor(amt)) {
+        throw new IllegalArgumentException("Amount to increment must be a whole number, got " + amt + ".");
+      }
+      if (longValue != null && amt >= Long.MAX_VALUE) {
+        // Also rejects infinity. The cast to long would saturate, and the next increment would wrap around.
+        throw new IllegalArgumentException("Amount to increment must be less than Long.MAX_VALUE, got " + amt + ".");
+      }
+      if (longValue != null) {
+        longValue.add((long) amt);
+      } else {
+        value.add(amt);
+      }
+      publish();
       updateExemplar(amt, exemplar);
+      changed();
     }
 
     /**
@@ -247,6 +331,16 @@ public class Counter extends SimpleCollector<Counter.Child> implements Collector
       incWithExemplar(amt, Exemplar.mapToArray(exemplarLabels));
     }
 
+    private void publish() {
+      if (slot != null) {
+        if (longValue != null) {
+          slot.publish(longValue);
+        } else {
+          slot.publish(value);
+        }
+      }
+    }
+
     private void updateExemplar(double amt, Exemplar userProvidedExemplar) {
       Exemplar prev, next;
       do {
@@ -282,7 +376,7 @@ public class Counter extends SimpleCollector<Counter.Child> implements Collector
      * Get the value of the counter.
      */
     public double get() {
-      return value.sum();
+      return longValue != null ? longValue.sum() : value.sum();
     }
 
     private Exemplar getExemplar() {
@@ -352,18 +446,42 @@ public class Counter extends SimpleCollector<Counter.Child> implements Collector
 
   @Override
   public List<MetricFamilySamples> collect() {
-    List<MetricFamilySamples.Sample> samples = new ArrayList<MetricFamilySamples.Sample>(children.size());
-    for(Map.Entry<List<String>, Child> c: children.entrySet()) {
-      samples.add(new MetricFamilySamples.Sample(fullname + "_total", labelNames, c.getKey(), c.getValue().get(), c.getValue().getExemplar()));
-      if (Environment.includeCreatedSeries()) {
-        samples.add(new MetricFamilySamples.Sample(fullname + "_created", labelNames, c.getKey(), c.getValue().created() / 1000.0));
+    return collect(null);
+  }
+
+  @Override
+  public List<MetricFamilySamples> collect(Predicate<String> sampleNameFilter) {
+    return collectToList(sampleNameFilter);
+  }
+
+  /**
+   * Only creates the {@code _total} and {@code _created} samples that match {@code sampleNameFilter}.
+   */
+  @Override
+  public void collect(SampleSink sink, Predicate<String> sampleNameFilter) throws IOException {
+    removeIdleChildren();
+    String totalName = fullname + "_total";
+    String createdName = fullname + "_created";
+    boolean includeTotal = sampleNameFilter == null || sampleNameFilter.test(totalName);
+    boolean includeCreated = Environment.includeCreatedSeries()
+        && (sampleNameFilter == null || sampleNameFilter.test(createdName));
+    if (includeTotal || includeCreated) {
+      sink.startFamily(fullname, unit, Type.COUNTER, help);
+      for(Map.Entry<List<String>, Child> c: children.entrySet()) {
+        if (includeTotal) {
+          sink.sample(totalName, labelNames, c.getKey(), null, null, c.getValue().get(), c.getValue().getExemplar(), null);
+        }
+        if (includeCreated) {
+          sink.sample(createdName, labelNames, c.getKey(), null, null, c.getValue().created() / 1000.0, null, null);
+        }
       }
+      sink.endFamily();
     }
-    return familySamplesList(Type.COUNTER, samples);
+    writeOverflowFamily(sink, sampleNameFilter);
   }
 
   @Override
   public List<MetricFamilySamples> describe() {
-    return Collections.<MetricFamilySamples>singletonList(new CounterMetricFamily(fullname, help, labelNames));
+    return familyDescriptionList(new CounterMetricFamily(fullname, help, labelNames));
   }
 }
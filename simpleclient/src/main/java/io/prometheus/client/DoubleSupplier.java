@@ -0,0 +1,8 @@
+package io.prometheus.client;
+
+/**
+ * Replacement for Java 8's {@code java.util.function.DoubleSupplier} for compatibility with Java versions &lt; 8.
+ */
+public interface DoubleSupplier {
+    double getAsDouble();
+}
@@ -137,7 +137,7 @@ public class Enumeration extends SimpleCollector<Enumeration.Child> implements C
    * <em>Warning:</em> References to a Child become invalid after using
    * {@link SimpleCollector#remove} or {@link SimpleCollector#clear}.
    */
-  public static class Child {
+  public static class Child extends TrackedChild {
 
     private String value;
     private final Set<String> states;
@@ -155,6 +155,7 @@ public class Enumeration extends SimpleCollector<Enumeration.Child> implements C
         throw new IllegalArgumentException("Unknown state " + s);
       }
       value = s;
+      changed();
     }
 
     /**
@@ -196,6 +197,15 @@ public class Enumeration extends SimpleCollector<Enumeration.Child> implements C
 
   @Override
   public List<MetricFamilySamples> collect() {
+    return collect(null);
+  }
+
+  @Override
+  public List<MetricFamilySamples> collect(Predicate<String> sampleNameFilter) {
+    removeIdleChildren();
+    if (sampleNameFilter != null && !sampleNameFilter.test(fullname)) {
+      return familySamplesList(Type.STATE_SET, Collections.<MetricFamilySamples.Sample>emptyList(), sampleNameFilter);
+    }
     List<MetricFamilySamples.Sample> samples = new ArrayList<MetricFamilySamples.Sample>();
     for(Map.Entry<List<String>, Child> c: children.entrySet()) {
       String v = c.getValue().get();
@@ -208,12 +218,12 @@ public class Enumeration extends SimpleCollector<Enumeration.Child> implements C
       }
     }
 
-    return familySamplesList(Type.STATE_SET, samples);
+    return familySamplesList(Type.STATE_SET, samples, sampleNameFilter);
   }
 
   @Override
   public List<MetricFamilySamples> describe() {
-    return Collections.singletonList(
+    return familyDescriptionList(
             new MetricFamilySamples(fullname, Type.STATE_SET, help, Collections.<MetricFamilySamples.Sample>emptyList()));
   }
 
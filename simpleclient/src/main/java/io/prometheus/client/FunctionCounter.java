@@ -0,0 +1,155 @@
+package io.prometheus.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counter whose value is read from a callback when it is collected.
+ * <p>
+ * This is useful for counts that are already maintained elsewhere, like the number of tasks completed by a
+ * thread pool. The code that increments them doesn't pay anything for the metric:
+ * <pre>
+ * {@code
+ *   FunctionCounter.build()
+ *       .name("pool_completed_tasks_total").help("Completed tasks.")
+ *       .callback(new DoubleSupplier() {
+ *         public double getAsDouble() {
+ *           return pool.getCompletedTaskCount();
+ *         }
+ *       })
+ *       .register();
+ * }
+ * </pre>
+ * With labels, set a callback for each set of label values:
+ * <pre>
+ * {@code
+ *   FunctionCounter completed = FunctionCounter.build()
+ *       .name("pool_completed_tasks_total").help("Completed tasks.")
+ *       .labelNames("pool")
+ *       .register();
+ *   completed.setCallback(ioPoolCompletedTasks, "io");
+ *   completed.setCallback(cpuPoolCompletedTasks, "cpu");
+ * }
+ * </pre>
+ * The callback must return a value that never decreases, except when the process restarts.
+ * There is no {@code _created} series, because the start of the count is not known.
+ */
+public class FunctionCounter extends SimpleCollector<FunctionCounter.Child> implements Collector.Describable {
+
+  private final DoubleSupplier callback; // only for the counter without labels
+
+  FunctionCounter(Builder b) {
+    super(b);
+    this.callback = b.callback;
+    initializeNoLabelsChild();
+  }
+
+  public static class Builder extends SimpleCollector.Builder<Builder, FunctionCounter> {
+
+    private DoubleSupplier callback = null;
+
+    @Override
+    public FunctionCounter create() {
+      // Gracefully handle pre-OpenMetrics counters.
+      if (name.endsWith("_total")) {
+        name = name.substring(0, name.length() - 6);
+      }
+      if (labelNames.length == 0 && callback == null) {
+        throw new IllegalStateException("FunctionCounter without labels requires a callback().");
+      }
+      if (labelNames.length > 0 && callback != null) {
+        throw new IllegalStateException("callback() is for counters without labels, "
+            + "use setCallback() for each set of label values.");
+      }
+      dontInitializeNoLabelsChild = true;
+      return new FunctionCounter(this);
+    }
+
+    /**
+     * The callback for the counter without labels.
+     */
+    public Builder callback(DoubleSupplier callback) {
+      if (callback == null) {
+        throw new NullPointerException();
+      }
+      this.callback = callback;
+      return this;
+    }
+  }
+
+  /**
+   * Return a Builder to allow configuration of a new FunctionCounter. Ensures required fields are provided.
+   *
+   * @param name The name of the metric
+   * @param help The help string of the metric
+   */
+  public static Builder build(String name, String help) {
+    return new Builder().name(name).help(help);
+  }
+
+  /**
+   * Return a Builder to allow configuration of a new FunctionCounter.
+   */
+  public static Builder build() {
+    return new Builder();
+  }
+
+  @Override
+  protected Child newChild() {
+    if (callback == null) {
+      throw new IllegalStateException("Use setCallback() to add label values to a FunctionCounter.");
+    }
+    return new Child(callback);
+  }
+
+  /**
+   * Read the value for the given labels from {@code callback} when the counter is collected.
+   */
+  public FunctionCounter setCallback(DoubleSupplier callback, String... labelValues) {
+    return setChild(new Child(callback), labelValues);
+  }
+
+  /**
+   * The child for one set of label values. It is never removed by {@link SimpleCollector.Builder#expireAfterIdle}.
+   */
+  public static class Child {
+
+    private final DoubleSupplier callback;
+
+    public Child(DoubleSupplier callback) {
+      if (callback == null) {
+        throw new NullPointerException();
+      }
+      this.callback = callback;
+    }
+
+    /**
+     * Get the value of the counter by calling the callback.
+     */
+    public double get() {
+      return callback.getAsDouble();
+    }
+  }
+
+  /**
+   * Get the value of the counter without labels.
+   */
+  public double get() {
+    return noLabelsChild.get();
+  }
+
+  @Override
+  public List<MetricFamilySamples> collect() {
+    List<MetricFamilySamples.Sample> samples = new ArrayList<MetricFamilySamples.Sample>(children.size());
+    for (Map.Entry<List<String>, Child> c : children.entrySet()) {
+      samples.add(new MetricFamilySamples.Sample(fullname + "_total", labelNames, c.getKey(), c.getValue().get()));
+    }
+    return familySamplesList(Type.COUNTER, samples);
+  }
+
+  @Override
+  public List<MetricFamilySamples> describe() {
+    return familyDescriptionList(new CounterMetricFamily(fullname, help, labelNames));
+  }
+}
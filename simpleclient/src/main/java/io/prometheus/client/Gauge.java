@@ -1,8 +1,7 @@
 package io.prometheus.client;
 
 import java.io.Closeable;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
@@ -62,18 +61,111 @@ import java.util.concurrent.Callable;
  * <p>
  * These can be aggregated and processed together much more easily in the Prometheus
  * server than individual metrics for each labelset.
+ * <p>
+ * If the value is readily available elsewhere, like the size of a queue, the gauge can instead read it when it
+ * is collected, so the code that changes the value doesn't need to update the gauge:
+ * <pre>
+ * {@code
+ *   Gauge.build()
+ *       .name("queue_size").help("Items in the queue.")
+ *       .callback(new DoubleSupplier() {
+ *         public double getAsDouble() {
+ *           return queue.size();
+ *         }
+ *       })
+ *       .register();
+ * }
+ * </pre>
+ * For gauges with labels, use {@link #setCallback(DoubleSupplier, String...)} for each set of label values.
  */
 public class Gauge extends SimpleCollector<Gauge.Child> implements Collector.Describable {
 
+  private final MultiprocessStore multiprocessStore;
+  private final MultiprocessMode multiprocessMode;
+  private final DoubleSupplier callback; // only for the gauge without labels
+
   Gauge(Builder b) {
     super(b);
+    this.multiprocessStore = b.multiprocessStore;
+    this.multiprocessMode = b.multiprocessMode;
+    this.callback = b.callback;
+    initializeNoLabelsChild();
+  }
+
+  /**
+   * How {@link MultiprocessCollector} combines the values of a gauge from different processes.
+   */
+  public enum MultiprocessMode {
+    /**
+     * Report the value of each process, with a {@code pid} label.
+     */
+    ALL,
+    /**
+     * Report the sum of the values.
+     */
+    SUM,
+    /**
+     * Report the minimum of the values.
+     */
+    MIN,
+    /**
+     * Report the maximum of the values.
+     */
+    MAX
   }
 
   public static class Builder extends SimpleCollector.Builder<Builder, Gauge> {
+
+    private MultiprocessStore multiprocessStore = null;
+    private MultiprocessMode multiprocessMode = MultiprocessMode.ALL;
+    private DoubleSupplier callback = null;
+
     @Override
     public Gauge create() {
+      if (callback != null && labelNames.length > 0) {
+        throw new IllegalStateException("callback() is for gauges without labels, "
+            + "use setCallback() for each set of label values.");
+      }
+      if (callback != null && multiprocessStore != null) {
+        throw new IllegalStateException("A callback gauge cannot be stored in a MultiprocessStore.");
+      }
+      dontInitializeNoLabelsChild = true;
       return new Gauge(this);
     }
+
+    /**
+     * Also store the values in {@code store}, so that they can be exposed by a {@link MultiprocessCollector}.
+     * The values of different processes are reported separately, see {@link MultiprocessMode#ALL}.
+     * Removing a child doesn't remove its value from the store, a child that is created again with the same labels
+     * continues from that value.
+     */
+    public Builder multiprocess(MultiprocessStore store) {
+      return multiprocess(store, MultiprocessMode.ALL);
+    }
+
+    /**
+     * Like {@link #multiprocess(MultiprocessStore)}, with the given way to combine values of different processes.
+     */
+    public Builder multiprocess(MultiprocessStore store, MultiprocessMode mode) {
+      if (store == null || mode == null) {
+        throw new NullPointerException();
+      }
+      this.multiprocessStore = store;
+      this.multiprocessMode = mode;
+      return this;
+    }
+
+    /**
+     * Read the value from {@code callback} when the gauge is collected, rather than setting it.
+     * The gauge must not have labels.
+     */
+    public Builder callback(DoubleSupplier callback) {
+      if (callback == null) {
+        throw new NullPointerException();
+      }
+      this.callback = callback;
+      return this;
+    }
   }
 
   /**
@@ -95,7 +187,16 @@ public class Gauge extends SimpleCollector<Gauge.Child> implements Collector.Des
 
   @Override
   protected Child newChild() {
-    return new Child();
+    return callback == null ? new Child() : new Child(callback);
+  }
+
+  @Override
+  protected Child newChild(List<String> labelValues) {
+    if (multiprocessStore == null) {
+      return newChild();
+    }
+    return new Child(multiprocessStore.slot(Type.GAUGE, multiprocessMode, fullname, unit, help, fullname,
+        labelNames, labelValues));
   }
 
    /**
@@ -133,12 +234,42 @@ public class Gauge extends SimpleCollector<Gauge.Child> implements Collector.Des
    * <em>Warning:</em> References to a Child become invalid after using
    * {@link SimpleCollector#remove} or {@link SimpleCollector#clear},
    */
-  public static class Child {
+  public static class Child extends TrackedChild {
 
-    private final DoubleAdder value = new DoubleAdder();
+    private final DoubleAdder value; // null for a callback child
+    private final DoubleSupplier callback;
+    private final MultiprocessStore.Slot slot; // null unless the gauge was built with multiprocess()
 
     static TimeProvider timeProvider = new TimeProvider();
 
+    public Child() {
+      this(null, null);
+    }
+
+    /**
+     * A child that reads its value from {@code callback} when collected. It cannot be updated.
+     */
+    public Child(DoubleSupplier callback) {
+      this(null, callback);
+      if (callback == null) {
+        throw new NullPointerException();
+      }
+    }
+
+    Child(MultiprocessStore.Slot slot) {
+      this(slot, null);
+    }
+
+    private Child(MultiprocessStore.Slot slot, DoubleSupplier callback) {
+      this.value = callback == null ? new DoubleAdder() : null;
+      this.callback = callback;
+      this.slot = slot;
+      if (slot != null) {
+        // The slot is not new if a child with the same labels was removed before.
+        value.add(slot.get());
+      }
+    }
+
     /**
      * Increment the gauge by 1.
      */
@@ -149,7 +280,10 @@ public class Gauge extends SimpleCollector<Gauge.Child> implements Collector.Des
      * Increment the gauge by the given amount.
      */
     public void inc(double amt) {
+      checkNotCallback();
       value.add(amt);
+      publish();
+      changed();
     }
     /**
      * Decrement the gauge by 1.
@@ -161,13 +295,31 @@ public class Gauge extends SimpleCollector<Gauge.Child> implements Collector.Des
      * Decrement the gauge by the given amount.
      */
     public void dec(double amt) {
+      checkNotCallback();
       value.add(-amt);
+      publish();
+      changed();
     }
     /**
      * Set the gauge to the given value.
      */
     public void set(double val) {
+      checkNotCallback();
       value.set(val);
+      publish();
+      changed();
+    }
+
+    private void checkNotCallback() {
+      if (callback != null) {
+        throw new IllegalStateException("A callback gauge cannot be updated.");
+      }
+    }
+
+    private void publish() {
+      if (slot != null) {
+        slot.publish(value);
+      }
     }
     /**
      * Set the gauge to the current unixtime.
@@ -229,7 +381,18 @@ public class Gauge extends SimpleCollector<Gauge.Child> implements Collector.Des
      * Get the value of the gauge.
      */
     public double get() {
-      return value.sum();
+      return callback != null ? callback.getAsDouble() : value.sum();
+    }
+
+    @Override
+    boolean isIdle(long nowMillis, long idleMillis) {
+      return callback == null && super.isIdle(nowMillis, idleMillis);
+    }
+
+    @Override
+    long sweepChanges(long generation) {
+      long changedGeneration = super.sweepChanges(generation);
+      return callback != null ? generation : changedGeneration;
     }
   }
 
@@ -310,26 +473,51 @@ public class Gauge extends SimpleCollector<Gauge.Child> implements Collector.Des
     return noLabelsChild.get();
   }
 
+  /**
+   * Read the value for the given labels from {@code callback} when the gauge is collected.
+   * Replaces the child with these labels, see {@link #setChild}.
+   */
+  public Gauge setCallback(DoubleSupplier callback, String... labelValues) {
+    return setChild(new Child(callback), labelValues);
+  }
+
   @Override
   public List<MetricFamilySamples> collect() {
-    List<MetricFamilySamples.Sample> samples = new ArrayList<MetricFamilySamples.Sample>(children.size());
-    for(Map.Entry<List<String>, Child> c: children.entrySet()) {
-      samples.add(new MetricFamilySamples.Sample(fullname, labelNames, c.getKey(), c.getValue().get()));
+    return collect(null);
+  }
+
+  @Override
+  public List<MetricFamilySamples> collect(Predicate<String> sampleNameFilter) {
+    return collectToList(sampleNameFilter);
+  }
+
+  /**
+   * Doesn't read the children, including callbacks, if the samples don't match {@code sampleNameFilter}.
+   */
+  @Override
+  public void collect(SampleSink sink, Predicate<String> sampleNameFilter) throws IOException {
+    removeIdleChildren();
+    if (sampleNameFilter == null || sampleNameFilter.test(fullname)) {
+      sink.startFamily(fullname, unit, Type.GAUGE, help);
+      for(Map.Entry<List<String>, Child> c: children.entrySet()) {
+        sink.sample(fullname, labelNames, c.getKey(), null, null, c.getValue().get(), null, null);
+      }
+      sink.endFamily();
     }
-    return familySamplesList(Type.GAUGE, samples);
+    writeOverflowFamily(sink, sampleNameFilter);
   }
 
   @Override
   public List<MetricFamilySamples> describe() {
-    return Collections.<MetricFamilySamples>singletonList(new GaugeMetricFamily(fullname, help, labelNames));
+    return familyDescriptionList(new GaugeMetricFamily(fullname, help, labelNames));
   }
 
   static class TimeProvider {
     long currentTimeMillis() {
-      return System.currentTimeMillis();
+      return Clock.getDefault().currentTimeMillis();
     }
     long nanoTime() {
-      return System.nanoTime();
+      return Clock.getDefault().nanoTime();
     }
   }
 }
@@ -5,13 +5,15 @@ import io.prometheus.client.exemplars.ExemplarConfig;
 import io.prometheus.client.exemplars.HistogramExemplarSampler;
 
 import java.io.Closeable;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import static java.lang.Boolean.FALSE;
 import static java.lang.Boolean.TRUE;
@@ -68,17 +70,45 @@ import static java.lang.Boolean.TRUE;
  * {@link Histogram.Builder#linearBuckets(double, double, int) linearBuckets} and
  * {@link Histogram.Builder#exponentialBuckets(double, double, int) exponentialBuckets}
  * offer easy ways to set common bucket patterns.
+ * <p>
+ * In addition to the classic buckets, a Histogram can track sparse exponential buckets, also known as
+ * native histogram. Native buckets have a high resolution, but only populated buckets use memory:
+ * <pre>
+ * {@code
+ *     static final Histogram requestLatency = Histogram.build()
+ *         .nativeSchema(5)           // bucket boundaries are powers of 2^(2^-5), about 2% apart
+ *         .nativeMaxBuckets(160)     // reduce the resolution if there are more populated buckets
+ *         .name("requests_latency_seconds").help("Request latency in seconds.").register();
+ * }
+ * </pre>
+ * The classic buckets are still exposed in the text formats, which cannot carry native buckets.
+ * The native buckets are available from {@link Child#get()}.
  */
 public class Histogram extends SimpleCollector<Histogram.Child> implements Collector.Describable {
   private final double[] buckets;
+  private final String[] bucketLabelValues; // the le label of each bucket
+  private final BucketIndex bucketIndex;
   private final Boolean exemplarsEnabled; // null means default from ExemplarConfig applies
   private final HistogramExemplarSampler exemplarSampler;
+  private final Integer nativeSchema; // null means native buckets are disabled
+  private final double nativeZeroThreshold;
+  private final int nativeMaxBuckets;
+  private final MultiprocessStore multiprocessStore;
 
   Histogram(Builder b) {
     super(b);
     this.exemplarsEnabled = b.exemplarsEnabled;
     this.exemplarSampler = b.exemplarSampler;
+    this.nativeSchema = b.nativeSchema;
+    this.nativeZeroThreshold = b.nativeZeroThreshold;
+    this.nativeMaxBuckets = b.nativeMaxBuckets;
+    this.multiprocessStore = b.multiprocessStore;
     buckets = b.buckets;
+    bucketLabelValues = new String[buckets.length];
+    for (int i = 0; i < buckets.length; i++) {
+      bucketLabelValues[i] = doubleToGoString(buckets[i]);
+    }
+    bucketIndex = BucketIndex.create(b.bucketLayout, b.bucketStart, b.bucketStep, buckets);
     initializeNoLabelsChild();
   }
 
@@ -87,6 +117,14 @@ public class Histogram extends SimpleCollector<Histogram.Child> implements Colle
     private Boolean exemplarsEnabled = null;
     private HistogramExemplarSampler exemplarSampler = null;
     private double[] buckets = new double[] { .005, .01, .025, .05, .075, .1, .25, .5, .75, 1, 2.5, 5, 7.5, 10 };
+    // How the buckets were defined, so that the bucket index of an observation can be computed directly.
+    private BucketIndex.Layout bucketLayout = BucketIndex.Layout.CUSTOM;
+    private double bucketStart;
+    private double bucketStep;
+    private Integer nativeSchema = null;
+    private double nativeZeroThreshold = Math.pow(2, -128);
+    private int nativeMaxBuckets = 160;
+    private MultiprocessStore multiprocessStore = null;
 
     @Override
     public Histogram create() {
@@ -121,11 +159,15 @@ public class Histogram extends SimpleCollector<Histogram.Child> implements Colle
      */
     public Builder buckets(double... buckets) {
       this.buckets = buckets;
+      this.bucketLayout = BucketIndex.Layout.CUSTOM;
       return this;
     }
 
     /**
      * Set the upper bounds of buckets for the histogram with a linear sequence.
+     * <p>
+     * The bucket of an observation is computed directly rather than searched, so this is cheaper than passing
+     * the same upper bounds to {@link #buckets(double...)}, especially for many buckets.
      */
     public Builder linearBuckets(double start, double width, int count) {
       buckets = new double[count];
@@ -147,17 +189,68 @@ public class Histogram extends SimpleCollector<Histogram.Child> implements Colle
       for (int i = 0; i < count; i++) {
         buckets[i] = s.add(w.multiply(new BigDecimal(i))).doubleValue();
       }
+      bucketLayout = BucketIndex.Layout.LINEAR;
+      bucketStart = start;
+      bucketStep = width;
       return this;
     }
 
     /**
      * Set the upper bounds of buckets for the histogram with an exponential sequence.
+     * <p>
+     * Like for {@link #linearBuckets(double, double, int)}, the bucket of an observation is computed directly.
+     * With {@code factor} 2 and {@code start} a power of two, e.g. for sizes in bytes, this doesn't even
+     * need a logarithm.
      */
     public Builder exponentialBuckets(double start, double factor, int count) {
       buckets = new double[count];
       for (int i = 0; i < count; i++) {
         buckets[i] = start * Math.pow(factor, i);
       }
+      bucketLayout = BucketIndex.Layout.EXPONENTIAL;
+      bucketStart = start;
+      bucketStep = factor;
+      return this;
+    }
+
+    /**
+     * Track native buckets in addition to the classic buckets, starting with the given schema.
+     * <p>
+     * The bucket boundaries are powers of {@code 2^(2^-schema)}, so schema 0 means a factor of 2 between
+     * neighbouring boundaries, schema 3 means about 9%, and schema 8 means about 0.3%.
+     *
+     * @param schema between -4 and 8.
+     */
+    public Builder nativeSchema(int schema) {
+      if (schema < NativeHistogram.MIN_SCHEMA || schema > NativeHistogram.MAX_SCHEMA) {
+        throw new IllegalArgumentException("Native schema " + schema + " invalid: Expected number between "
+            + NativeHistogram.MIN_SCHEMA + " and " + NativeHistogram.MAX_SCHEMA + ".");
+      }
+      this.nativeSchema = schema;
+      return this;
+    }
+
+    /**
+     * Observations with an absolute value up to {@code zeroThreshold} are counted in the native zero bucket.
+     * Default is {@code 2^-128}.
+     */
+    public Builder nativeZeroThreshold(double zeroThreshold) {
+      if (!(zeroThreshold >= 0)) {
+        throw new IllegalArgumentException("nativeZeroThreshold cannot be " + zeroThreshold);
+      }
+      this.nativeZeroThreshold = zeroThreshold;
+      return this;
+    }
+
+    /**
+     * Maximum number of populated native buckets, not including the zero bucket. When this is exceeded,
+     * the schema is decreased by one, which merges neighbouring buckets. Default is 160.
+     */
+    public Builder nativeMaxBuckets(int maxBuckets) {
+      if (maxBuckets <= 0) {
+        throw new IllegalArgumentException("nativeMaxBuckets cannot be " + maxBuckets);
+      }
+      this.nativeMaxBuckets = maxBuckets;
       return this;
     }
 
@@ -194,6 +287,20 @@ public class Histogram extends SimpleCollector<Histogram.Child> implements Colle
       this.exemplarsEnabled = FALSE;
       return this;
     }
+
+    /**
+     * Also store the classic buckets and the sum in {@code store}, so that they can be exposed by a
+     * {@link MultiprocessCollector}. The values of different processes are added up.
+     * Native buckets and exemplars are not stored. A child that is removed and created again continues from its
+     * values in the store, so that the buckets don't go backwards.
+     */
+    public Builder multiprocess(MultiprocessStore store) {
+      if (store == null) {
+        throw new NullPointerException();
+      }
+      this.multiprocessStore = store;
+      return this;
+    }
   }
 
   /**
@@ -215,7 +322,98 @@ public class Histogram extends SimpleCollector<Histogram.Child> implements Colle
 
   @Override
   protected Child newChild() {
-    return new Child(buckets, exemplarsEnabled, exemplarSampler);
+    NativeHistogram nativeHistogram = null;
+    if (nativeSchema != null) {
+      nativeHistogram = new NativeHistogram(nativeSchema, nativeZeroThreshold, nativeMaxBuckets);
+    }
+    return new Child(bucketIndex, exemplarsEnabled, exemplarSampler, nativeHistogram, null);
+  }
+
+  @Override
+  protected Child newChild(List<String> labelValues) {
+    if (multiprocessStore == null) {
+      return newChild();
+    }
+    NativeHistogram nativeHistogram = null;
+    if (nativeSchema != null) {
+      nativeHistogram = new NativeHistogram(nativeSchema, nativeZeroThreshold, nativeMaxBuckets);
+    }
+    List<String> bucketLabelNames = new ArrayList<String>(labelNames);
+    bucketLabelNames.add("le");
+    MultiprocessStore.Slot[] countSlots = new MultiprocessStore.Slot[buckets.length];
+    for (int i = 0; i < buckets.length; i++) {
+      List<String> labelValuesWithLe = new ArrayList<String>(labelValues);
+      labelValuesWithLe.add(bucketLabelValues[i]);
+      countSlots[i] = multiprocessStore.slot(Type.HISTOGRAM, null, fullname, unit, help, fullname + "_bucket",
+          bucketLabelNames, labelValuesWithLe);
+    }
+    MultiprocessStore.Slot sumSlot = multiprocessStore.slot(Type.HISTOGRAM, null, fullname, unit, help,
+        fullname + "_sum", labelNames, labelValues);
+    return new Child(bucketIndex, exemplarsEnabled, exemplarSampler, nativeHistogram,
+        new MultiprocessValues(countSlots, sumSlot));
+  }
+
+  /**
+   * The values of a child that are stored in a {@link MultiprocessStore}: the values in the child's
+   * {@link HistogramCells}, plus the values that were already in the slots when the child was created.
+   * The bucket counts are not cumulative, so that an observation updates a single bucket.
+   */
+  private static final class MultiprocessValues {
+
+    private final MultiprocessStore.Slot[] countSlots;
+    private final long[] initialCounts;
+    private final MultiprocessStore.Slot sumSlot;
+    private final double initialSum;
+
+    MultiprocessValues(MultiprocessStore.Slot[] countSlots, MultiprocessStore.Slot sumSlot) {
+      this.countSlots = countSlots;
+      // The slots are not new if a child with the same labels was removed before.
+      this.initialCounts = new long[countSlots.length];
+      for (int i = 0; i < countSlots.length; i++) {
+        initialCounts[i] = (long) countSlots[i].get();
+      }
+      this.sumSlot = sumSlot;
+      this.initialSum = sumSlot.get();
+    }
+
+    /**
+     * Write the count of {@code bucket} and the sum. A negative {@code bucket} only writes the sum.
+     */
+    void publish(HistogramCells cells, int bucket) {
+      if (bucket >= 0) {
+        publishCount(cells, bucket);
+      }
+      publishSum(cells);
+    }
+
+    /**
+     * Write the counts of the buckets where {@code bucketCounts} is not zero, and the sum.
+     */
+    void publishAll(HistogramCells cells, long[] bucketCounts) {
+      for (int i = 0; i < bucketCounts.length; i++) {
+        if (bucketCounts[i] > 0) {
+          publishCount(cells, i);
+        }
+      }
+      publishSum(cells);
+    }
+
+    // Like MultiprocessStore.Slot.publish(), write again if another thread changed the value in the meantime.
+    private void publishCount(HistogramCells cells, int bucket) {
+      long count;
+      do {
+        count = initialCounts[bucket] + cells.count(bucket);
+        countSlots[bucket].set(count);
+      } while (initialCounts[bucket] + cells.count(bucket) != count);
+    }
+
+    private void publishSum(HistogramCells cells) {
+      long bits;
+      do {
+        bits = Double.doubleToLongBits(initialSum + cells.sum());
+        sumSlot.set(Double.longBitsToDouble(bits));
+      } while (Double.doubleToLongBits(initialSum + cells.sum()) != bits);
+    }
   }
 
   /**
@@ -263,8 +461,15 @@ public class Histogram extends SimpleCollector<Histogram.Child> implements Colle
    * <p>
    * <em>Warning:</em> References to a Child become invalid after using
    * {@link SimpleCollector#remove} or {@link SimpleCollector#clear}.
+   * <p>
+   * The bucket counters are allocated on the first observation, and the exemplar slots when the first
+   * exemplar is stored, so they cost nothing if exemplars are disabled. With the default 15 buckets on a 64 bit
+   * JVM with compressed references, a child takes about 64 bytes before the first observation, plus about
+   * 500 bytes for the counters, plus about 100 bytes for the exemplar slots (not including the exemplars).
+   * Without compressed references, e.g. with heaps larger than 32 GB, it is about 96 bytes before the first
+   * observation and about 160 bytes for the exemplar slots. The counters grow if threads contend.
    */
-  public static class Child {
+  public static class Child extends TrackedChild {
 
     /**
      * Executes runnable code (e.g. a Java 8 Lambda) and observes a duration of how long it took to run.
@@ -345,34 +550,86 @@ public class Histogram extends SimpleCollector<Histogram.Child> implements Colle
       public final double[] buckets;
       public final Exemplar[] exemplars;
       public final long created;
+      /**
+       * {@code null} if native buckets are not enabled.
+       */
+      public final NativeBuckets nativeBuckets;
 
       public Value(double sum, double[] buckets, Exemplar[] exemplars, long created) {
+        this(sum, buckets, exemplars, created, null);
+      }
+
+      public Value(double sum, double[] buckets, Exemplar[] exemplars, long created, NativeBuckets nativeBuckets) {
         this.sum = sum;
         this.buckets = buckets;
         this.exemplars = exemplars;
         this.created = created;
+        this.nativeBuckets = nativeBuckets;
       }
     }
 
-    private Child(double[] buckets, Boolean exemplarsEnabled, HistogramExemplarSampler exemplarSampler) {
-      upperBounds = buckets;
+    /**
+     * Snapshot of the native buckets, see {@link Builder#nativeSchema(int)}.
+     * <p>
+     * The populated buckets are given as parallel arrays of bucket index and count, ordered by index.
+     * The counts are not cumulative.
+     */
+    public static class NativeBuckets {
+      public final int schema;
+      public final double zeroThreshold;
+      public final long zeroCount;
+      public final int[] positiveIndexes;
+      public final long[] positiveCounts;
+      public final int[] negativeIndexes;
+      public final long[] negativeCounts;
+
+      public NativeBuckets(int schema, double zeroThreshold, long zeroCount,
+                           int[] positiveIndexes, long[] positiveCounts,
+                           int[] negativeIndexes, long[] negativeCounts) {
+        this.schema = schema;
+        this.zeroThreshold = zeroThreshold;
+        this.zeroCount = zeroCount;
+        this.positiveIndexes = positiveIndexes;
+        this.positiveCounts = positiveCounts;
+        this.negativeIndexes = negativeIndexes;
+        this.negativeCounts = negativeCounts;
+      }
+
+      /**
+       * Upper bound of the bucket with the given index, i.e. {@code 2^(index * 2^-schema)}.
+       * For negative values this is the upper bound of the absolute value.
+       */
+      public double upperBound(int index) {
+        return Math.pow(2, Math.scalb((double) index, -schema));
+      }
+    }
+
+    private Child(BucketIndex bucketIndex, Boolean exemplarsEnabled, HistogramExemplarSampler exemplarSampler,
+                  NativeHistogram nativeHistogram, MultiprocessValues multiprocessValues) {
+      this.bucketIndex = bucketIndex;
+      this.multiprocessValues = multiprocessValues;
+      upperBounds = bucketIndex.upperBounds;
+      this.nativeHistogram = nativeHistogram;
       this.exemplarsEnabled = exemplarsEnabled;
       this.exemplarSampler = exemplarSampler;
-      exemplars = new ArrayList<AtomicReference<Exemplar>>(buckets.length);
-      cumulativeCounts = new DoubleAdder[buckets.length];
-      for (int i = 0; i < buckets.length; ++i) {
-        cumulativeCounts[i] = new DoubleAdder();
-        exemplars.add(new AtomicReference<Exemplar>());
-      }
     }
 
-    private final ArrayList<AtomicReference<Exemplar>> exemplars;
+    // Allocated on first use, see the footprint in the class comment.
+    private volatile HistogramCells cells;
+    private volatile AtomicReferenceArray<Exemplar> exemplars;
     private final Boolean exemplarsEnabled;
     private final HistogramExemplarSampler exemplarSampler;
     private final double[] upperBounds;
-    private final DoubleAdder[] cumulativeCounts;
-    private final DoubleAdder sum = new DoubleAdder();
-    private final long created = System.currentTimeMillis();
+    private final BucketIndex bucketIndex;
+    private final NativeHistogram nativeHistogram; // null if native buckets are disabled
+    private final MultiprocessValues multiprocessValues; // null unless the histogram was built with multiprocess()
+    private final long created = Clock.getDefault().currentTimeMillis();
+
+    private static final AtomicReferenceFieldUpdater<Child, HistogramCells> CELLS =
+        AtomicReferenceFieldUpdater.newUpdater(Child.class, HistogramCells.class, "cells");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Child, AtomicReferenceArray> EXEMPLARS =
+        AtomicReferenceFieldUpdater.newUpdater(Child.class, AtomicReferenceArray.class, "exemplars");
 
     /**
      * Observe the given amount.
@@ -403,16 +660,20 @@ public class Histogram extends SimpleCollector<Histogram.Child> implements Colle
      *                       to calling {@code observe(amt)}.
      */
     public void observeWithExemplar(double amt, String... exemplarLabels) {
-      Exemplar exemplar = exemplarLabels == null ? null : new Exemplar(amt, System.currentTimeMillis(), exemplarLabels);
-      for (int i = 0; i < upperBounds.length; ++i) {
-        // The last bucket is +Inf, so we always increment.
-        if (amt <= upperBounds[i]) {
-          cumulativeCounts[i].add(1);
-          updateExemplar(amt, i, exemplar);
-          break;
-        }
+      Exemplar exemplar = exemplarLabels == null ? null : new Exemplar(amt, Clock.getDefault().currentTimeMillis(), exemplarLabels);
+      int bucket = bucketIndex.index(amt); // -1 for NaN, which is only added to the sum
+      HistogramCells cells = cells();
+      cells.observe(bucket, amt);
+      if (multiprocessValues != null) {
+        multiprocessValues.publish(cells, bucket);
       }
-      sum.add(amt);
+      if (bucket >= 0) {
+        updateExemplar(amt, bucket, exemplar);
+      }
+      if (nativeHistogram != null) {
+        nativeHistogram.observe(amt);
+      }
+      changed();
     }
 
     /**
@@ -422,13 +683,94 @@ public class Histogram extends SimpleCollector<Histogram.Child> implements Colle
       observeWithExemplar(amt, Exemplar.mapToArray(exemplarLabels));
     }
 
+    /**
+     * Observe {@code values[from]} to {@code values[to - 1]}.
+     * <p>
+     * Same as calling {@link #observe(double)} for each value, but the values are counted locally and then
+     * added with one atomic update per bucket. {@link #get()} sees either all or none of the values.
+     * Exemplars are sampled at most once per bucket, for the last value in that bucket.
+     */
+    public void observeAll(double[] values, int from, int to) {
+      long[] counts = new long[upperBounds.length];
+      double[] exemplarValues = FALSE.equals(exemplarsEnabled) ? null : new double[upperBounds.length];
+      double sum = 0;
+      for (int i = from; i < to; i++) {
+        double value = values[i];
+        int bucket = bucketIndex.index(value);
+        if (bucket >= 0) {
+          counts[bucket]++;
+          if (exemplarValues != null) {
+            exemplarValues[bucket] = value;
+          }
+        }
+        sum += value;
+      }
+      observeCounts(counts, sum, exemplarValues, values, from, to);
+    }
+
+    /**
+     * Like {@link #observeAll(double[], int, int)}, for values that are sorted in ascending order,
+     * as by {@link java.util.Arrays#sort(double[])}. The buckets are found in a single pass.
+     * <p>
+     * If the values are not sorted, some of them are counted in the wrong bucket.
+     */
+    public void observeAllSorted(double[] values, int from, int to) {
+      long[] counts = new long[upperBounds.length];
+      double[] exemplarValues = FALSE.equals(exemplarsEnabled) ? null : new double[upperBounds.length];
+      double sum = 0;
+      int bucket = 0;
+      for (int i = from; i < to; i++) {
+        double value = values[i];
+        while (bucket < upperBounds.length && !(value <= upperBounds[bucket])) {
+          bucket++;
+        }
+        // Past the +Inf bucket means NaN, which is sorted last. NaN is not counted in any bucket.
+        if (bucket < upperBounds.length) {
+          counts[bucket]++;
+          if (exemplarValues != null) {
+            exemplarValues[bucket] = value;
+          }
+        }
+        sum += value;
+      }
+      observeCounts(counts, sum, exemplarValues, values, from, to);
+    }
+
+    private void observeCounts(long[] counts, double sum, double[] exemplarValues, double[] values, int from, int to) {
+      HistogramCells cells = cells();
+      cells.observeAll(counts, sum);
+      if (multiprocessValues != null) {
+        multiprocessValues.publishAll(cells, counts);
+      }
+      if (exemplarValues != null) {
+        for (int i = 0; i < counts.length; i++) {
+          if (counts[i] > 0) {
+            updateExemplar(exemplarValues[i], i, null);
+          }
+        }
+      }
+      if (nativeHistogram != null) {
+        nativeHistogram.observeAll(values, from, to);
+      }
+      changed();
+    }
+
+    private HistogramCells cells() {
+      HistogramCells result = cells;
+      if (result == null) {
+        CELLS.compareAndSet(this, null, new HistogramCells(upperBounds.length));
+        result = cells;
+      }
+      return result;
+    }
+
     private void updateExemplar(double amt, int i, Exemplar userProvidedExemplar) {
-      AtomicReference<Exemplar> exemplar = exemplars.get(i);
+      AtomicReferenceArray<Exemplar> exemplars = this.exemplars;
       double bucketFrom = i == 0 ? Double.NEGATIVE_INFINITY : upperBounds[i - 1];
       double bucketTo = upperBounds[i];
       Exemplar prev, next;
       do {
-        prev = exemplar.get();
+        prev = exemplars == null ? null : exemplars.get(i);
         if (userProvidedExemplar != null) {
           next = userProvidedExemplar;
         } else {
@@ -437,7 +779,20 @@ public class Histogram extends SimpleCollector<Histogram.Child> implements Colle
         if (next == null || next == prev) {
           return;
         }
-      } while (!exemplar.compareAndSet(prev, next));
+        if (exemplars == null) {
+          exemplars = exemplars();
+        }
+      } while (!exemplars.compareAndSet(i, prev, next));
+    }
+
+    @SuppressWarnings("unchecked")
+    private AtomicReferenceArray<Exemplar> exemplars() {
+      AtomicReferenceArray<Exemplar> result = exemplars;
+      if (result == null) {
+        EXEMPLARS.compareAndSet(this, null, new AtomicReferenceArray<Exemplar>(upperBounds.length));
+        result = exemplars;
+      }
+      return result;
     }
 
     private Exemplar sampleNextExemplar(double amt, double bucketFrom, double bucketTo, Exemplar prev) {
@@ -471,15 +826,27 @@ public class Histogram extends SimpleCollector<Histogram.Child> implements Colle
      * <em>Warning:</em> The definition of {@link Value} is subject to change.
      */
     public Value get() {
-      double[] buckets = new double[cumulativeCounts.length];
-      Exemplar[] exemplars = new Exemplar[cumulativeCounts.length];
-      double acc = 0;
-      for (int i = 0; i < cumulativeCounts.length; ++i) {
-        acc += cumulativeCounts[i].sum();
-        buckets[i] = acc;
-        exemplars[i] = this.exemplars.get(i).get();
+      HistogramCells cells = this.cells;
+      AtomicReferenceArray<Exemplar> exemplarSlots = this.exemplars;
+      double[] buckets = new double[upperBounds.length];
+      Exemplar[] exemplars = new Exemplar[upperBounds.length];
+      double sum = 0;
+      if (cells != null) {
+        HistogramCells.Snapshot snapshot = cells.snapshot();
+        double acc = 0;
+        for (int i = 0; i < buckets.length; ++i) {
+          acc += snapshot.counts[i];
+          buckets[i] = acc;
+        }
+        sum = snapshot.sum;
+      }
+      if (exemplarSlots != null) {
+        for (int i = 0; i < exemplars.length; ++i) {
+          exemplars[i] = exemplarSlots.get(i);
+        }
       }
-      return new Value(sum.sum(), buckets, exemplars, created);
+      NativeBuckets nativeBuckets = nativeHistogram == null ? null : nativeHistogram.get();
+      return new Value(sum, buckets, exemplars, created, nativeBuckets);
     }
   }
 
@@ -511,6 +878,20 @@ public class Histogram extends SimpleCollector<Histogram.Child> implements Colle
     noLabelsChild.observeWithExemplar(amt, exemplarLabels);
   }
 
+  /**
+   * Like {@link Child#observeAll(double[], int, int)}, but for the histogram with no labels.
+   */
+  public void observeAll(double[] values, int from, int to) {
+    noLabelsChild.observeAll(values, from, to);
+  }
+
+  /**
+   * Like {@link Child#observeAllSorted(double[], int, int)}, but for the histogram with no labels.
+   */
+  public void observeAllSorted(double[] values, int from, int to) {
+    noLabelsChild.observeAllSorted(values, from, to);
+  }
+
   /**
    * Start a timer to track a duration on the histogram with no labels.
    * <p>
@@ -578,29 +959,57 @@ public class Histogram extends SimpleCollector<Histogram.Child> implements Colle
 
   @Override
   public List<MetricFamilySamples> collect() {
-    List<MetricFamilySamples.Sample> samples = new ArrayList<MetricFamilySamples.Sample>();
-    for (Map.Entry<List<String>, Child> c : children.entrySet()) {
-      Child.Value v = c.getValue().get();
-      List<String> labelNamesWithLe = new ArrayList<String>(labelNames);
-      labelNamesWithLe.add("le");
-      for (int i = 0; i < v.buckets.length; ++i) {
-        List<String> labelValuesWithLe = new ArrayList<String>(c.getKey());
-        labelValuesWithLe.add(doubleToGoString(buckets[i]));
-        samples.add(new MetricFamilySamples.Sample(fullname + "_bucket", labelNamesWithLe, labelValuesWithLe, v.buckets[i], v.exemplars[i]));
-      }
-      samples.add(new MetricFamilySamples.Sample(fullname + "_count", labelNames, c.getKey(), v.buckets[buckets.length-1]));
-      samples.add(new MetricFamilySamples.Sample(fullname + "_sum", labelNames, c.getKey(), v.sum));
-      if (Environment.includeCreatedSeries()) {
-        samples.add(new MetricFamilySamples.Sample(fullname + "_created", labelNames, c.getKey(), v.created / 1000.0));
+    return collect(null);
+  }
+
+  @Override
+  public List<MetricFamilySamples> collect(Predicate<String> sampleNameFilter) {
+    return collectToList(sampleNameFilter);
+  }
+
+  /**
+   * Only creates the {@code _bucket}, {@code _count}, {@code _sum} and {@code _created} samples that match
+   * {@code sampleNameFilter}, so that e.g. scraping only {@code _count} doesn't create a sample per bucket.
+   */
+  @Override
+  public void collect(SampleSink sink, Predicate<String> sampleNameFilter) throws IOException {
+    removeIdleChildren();
+    String bucketName = fullname + "_bucket";
+    String countName = fullname + "_count";
+    String sumName = fullname + "_sum";
+    String createdName = fullname + "_created";
+    boolean includeBuckets = sampleNameFilter == null || sampleNameFilter.test(bucketName);
+    boolean includeCount = sampleNameFilter == null || sampleNameFilter.test(countName);
+    boolean includeSum = sampleNameFilter == null || sampleNameFilter.test(sumName);
+    boolean includeCreated = Environment.includeCreatedSeries()
+        && (sampleNameFilter == null || sampleNameFilter.test(createdName));
+    if (includeBuckets || includeCount || includeSum || includeCreated) {
+      sink.startFamily(fullname, unit, Type.HISTOGRAM, help);
+      for (Map.Entry<List<String>, Child> c : children.entrySet()) {
+        Child.Value v = c.getValue().get();
+        if (includeBuckets) {
+          for (int i = 0; i < v.buckets.length; ++i) {
+            sink.sample(bucketName, labelNames, c.getKey(), "le", bucketLabelValues[i], v.buckets[i], v.exemplars[i], null);
+          }
+        }
+        if (includeCount) {
+          sink.sample(countName, labelNames, c.getKey(), null, null, v.buckets[buckets.length-1], null, null);
+        }
+        if (includeSum) {
+          sink.sample(sumName, labelNames, c.getKey(), null, null, v.sum, null, null);
+        }
+        if (includeCreated) {
+          sink.sample(createdName, labelNames, c.getKey(), null, null, v.created / 1000.0, null, null);
+        }
       }
+      sink.endFamily();
     }
-
-    return familySamplesList(Type.HISTOGRAM, samples);
+    writeOverflowFamily(sink, sampleNameFilter);
   }
 
   @Override
   public List<MetricFamilySamples> describe() {
-    return Collections.singletonList(
+    return familyDescriptionList(
         new MetricFamilySamples(fullname, Type.HISTOGRAM, help, Collections.<MetricFamilySamples.Sample>emptyList()));
   }
 
@@ -0,0 +1,245 @@
+package io.prometheus.client;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bucket counts and sum of a {@link Histogram.Child}, striped to reduce contention.
+ * Also used for the count and sum of a {@link Summary.Child}, with a single bucket.
+ * <p>
+ * Each stripe is a single array holding the count of each bucket and the sum, so an observation updates one
+ * stripe, rather than one striped adder for the bucket and another one for the sum.
+ * Like {@link Striped64}, there is a single stripe until threads contend. On contention the number of stripes
+ * is doubled, up to the number of CPUs, and the contending thread moves to a different stripe.
+ * <p>
+ * {@link #snapshot()} returns counts and sum that include exactly the same observations, without blocking
+ * writers. Each stripe holds two copies of the counters, a hot one that writers update and a cold one.
+ * A control word counts the observations that were started, and its top bit selects the hot copy.
+ * A snapshot flips the top bit, waits until the observations started on the now cold copy are completed,
+ * reads it, and adds it to the new hot copy. This is the same scheme as the Go client library uses.
+ * <p>
+ * {@link #count(int)} and {@link #sum()} read single values without a snapshot, by adding up both copies.
+ * They retry if a snapshot moved values between the copies in the meantime.
+ */
+final class HistogramCells {
+
+  /**
+   * Unused longs before and after the data of each stripe, so that stripes don't share cache lines.
+   */
+  private static final int PADDING = 8;
+  private static final int MAX_STRIPES = maxStripes(Striped64.NCPU);
+  private static final int CONTROL = PADDING;
+
+  // Layout of a stripe: PADDING, CONTROL, copy 0, copy 1, PADDING.
+  // Layout of a copy: the bucket counts, the sum as raw double bits, the number of completed observations.
+  private final int numberOfBuckets;
+  private final int copySize;
+  private volatile AtomicLongArray[] stripes;
+  private volatile int busy;
+  private volatile int version; // odd while snapshot() moves values between the copies
+
+  private static final AtomicIntegerFieldUpdater<HistogramCells> CAS_BUSY =
+      AtomicIntegerFieldUpdater.newUpdater(HistogramCells.class, "busy");
+
+  HistogramCells(int numberOfBuckets) {
+    this.numberOfBuckets = numberOfBuckets;
+    this.copySize = numberOfBuckets + 2;
+    this.stripes = new AtomicLongArray[]{newStripe()};
+  }
+
+  /**
+   * Counts and sum from the same set of observations.
+   */
+  static final class Snapshot {
+
+    /**
+     * Count of each bucket. The counts are not cumulative.
+     */
+    final long[] counts;
+    final double sum;
+
+    private Snapshot(long[] counts, double sum) {
+      this.counts = counts;
+      this.sum = sum;
+    }
+  }
+
+  /**
+   * Increment the count of {@code bucket} and add {@code amt} to the sum.
+   * A negative {@code bucket} only adds to the sum.
+   */
+  void observe(int bucket, double amt) {
+    int[] hc = Striped64.threadHashCode.get();
+    AtomicLongArray[] as = stripes;
+    AtomicLongArray a = as[(hc == null ? 0 : hc[0]) & (as.length - 1)];
+    int hot = copyIndex(a.getAndIncrement(CONTROL) < 0 ? 1 : 0);
+    if (bucket >= 0) {
+      a.getAndIncrement(hot + bucket);
+    }
+    int sumIndex = hot + numberOfBuckets;
+    long prev = a.get(sumIndex);
+    if (!a.compareAndSet(sumIndex, prev, add(prev, amt))) {
+      contended(hc, as);
+      addToSum(a, sumIndex, amt);
+    }
+    a.getAndIncrement(sumIndex + 1);
+  }
+
+  /**
+   * Add {@code counts} to the bucket counts and {@code sum} to the sum, as a single update.
+   * Like for {@link #observe(int, double)}, a snapshot includes either all of it or nothing.
+   */
+  void observeAll(long[] counts, double sum) {
+    int[] hc = Striped64.threadHashCode.get();
+    AtomicLongArray[] as = stripes;
+    AtomicLongArray a = as[(hc == null ? 0 : hc[0]) & (as.length - 1)];
+    int hot = copyIndex(a.getAndIncrement(CONTROL) < 0 ? 1 : 0);
+    for (int i = 0; i < numberOfBuckets; i++) {
+      if (counts[i] != 0) {
+        a.getAndAdd(hot + i, counts[i]);
+      }
+    }
+    int sumIndex = hot + numberOfBuckets;
+    long prev = a.get(sumIndex);
+    if (!a.compareAndSet(sumIndex, prev, add(prev, sum))) {
+      contended(hc, as);
+      addToSum(a, sumIndex, sum);
+    }
+    a.getAndIncrement(sumIndex + 1);
+  }
+
+  /**
+   * Counts and sum, summed over all stripes.
+   * <p>
+   * Each observation is either fully included or not at all. Observations that are concurrent with the
+   * snapshot may or may not be included.
+   */
+  synchronized Snapshot snapshot() {
+    long[] counts = new long[numberOfBuckets];
+    double sum = 0;
+    version++; // only written while holding the lock
+    for (AtomicLongArray a : stripes) {
+      long control = a.getAndAdd(CONTROL, Long.MIN_VALUE); // flip the top bit
+      long count = control & Long.MAX_VALUE;
+      int cold = copyIndex(control < 0 ? 1 : 0);
+      int hot = copyIndex(control < 0 ? 0 : 1);
+      // Wait for writers that started on the cold copy.
+      while (a.get(cold + numberOfBuckets + 1) < count) {
+        Thread.yield();
+      }
+      for (int i = 0; i < numberOfBuckets; i++) {
+        long c = a.getAndSet(cold + i, 0);
+        counts[i] += c;
+        if (c != 0) {
+          a.getAndAdd(hot + i, c);
+        }
+      }
+      double s = Double.longBitsToDouble(a.getAndSet(cold + numberOfBuckets, 0));
+      sum += s;
+      addToSum(a, hot + numberOfBuckets, s);
+      a.getAndAdd(hot + numberOfBuckets + 1, a.getAndSet(cold + numberOfBuckets + 1, 0));
+    }
+    version++;
+    return new Snapshot(counts, sum);
+  }
+
+  /**
+   * Count of {@code bucket}, summed over all stripes. Observations that are concurrent with the call may or may not
+   * be included.
+   */
+  long count(int bucket) {
+    while (true) {
+      int v = version;
+      if ((v & 1) == 0) {
+        long count = 0;
+        for (AtomicLongArray a : stripes) {
+          count += a.get(copyIndex(0) + bucket) + a.get(copyIndex(1) + bucket);
+        }
+        if (v == version) {
+          return count;
+        }
+      }
+      Thread.yield();
+    }
+  }
+
+  /**
+   * Like {@link #count(int)}, for the sum.
+   */
+  double sum() {
+    while (true) {
+      int v = version;
+      if ((v & 1) == 0) {
+        double sum = 0;
+        for (AtomicLongArray a : stripes) {
+          sum += Double.longBitsToDouble(a.get(copyIndex(0) + numberOfBuckets))
+              + Double.longBitsToDouble(a.get(copyIndex(1) + numberOfBuckets));
+        }
+        if (v == version) {
+          return sum;
+        }
+      }
+      Thread.yield();
+    }
+  }
+
+  private int copyIndex(int copy) {
+    return CONTROL + 1 + copy * copySize;
+  }
+
+  private AtomicLongArray newStripe() {
+    return new AtomicLongArray(PADDING + 1 + 2 * copySize + PADDING);
+  }
+
+  private static void addToSum(AtomicLongArray a, int sumIndex, double amt) {
+    long prev;
+    do {
+      prev = a.get(sumIndex);
+    } while (!a.compareAndSet(sumIndex, prev, add(prev, amt)));
+  }
+
+  private static long add(long bits, double amt) {
+    return Double.doubleToRawLongBits(Double.longBitsToDouble(bits) + amt);
+  }
+
+  /**
+   * Called after a failed CAS. The first time, the thread gets a random hash code.
+   * If a thread contends again, the stripes are expanded, and the thread's hash code is changed.
+   */
+  private void contended(int[] hc, AtomicLongArray[] as) {
+    if (hc == null) {
+      hc = new int[1];
+      int r = Striped64.rng.nextInt(); // Avoid zero to allow xorShift rehash
+      hc[0] = (r == 0) ? 1 : r;
+      Striped64.threadHashCode.set(hc);
+      return;
+    }
+    int h = hc[0];
+    h ^= h << 13; // Rehash
+    h ^= h >>> 17;
+    h ^= h << 5;
+    hc[0] = h;
+    if (as.length < MAX_STRIPES && stripes == as && busy == 0 && CAS_BUSY.compareAndSet(this, 0, 1)) {
+      try {
+        if (stripes == as) { // Expand unless stale
+          AtomicLongArray[] rs = new AtomicLongArray[as.length << 1];
+          System.arraycopy(as, 0, rs, 0, as.length);
+          for (int i = as.length; i < rs.length; i++) {
+            rs[i] = newStripe();
+          }
+          stripes = rs;
+        }
+      } finally {
+        busy = 0;
+      }
+    }
+  }
+
+  private static int maxStripes(int ncpu) {
+    int n = 1;
+    while (n < ncpu) {
+      n <<= 1;
+    }
+    return n;
+  }
+}
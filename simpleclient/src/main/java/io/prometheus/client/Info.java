@@ -76,7 +76,7 @@ public class Info extends SimpleCollector<Info.Child> implements Counter.Describ
    * <em>Warning:</em> References to a Child become invalid after using
    * {@link SimpleCollector#remove} or {@link SimpleCollector#clear}.
    */
-  public static class Child {
+  public static class Child extends TrackedChild {
 
     private Map<String, String> value = Collections.emptyMap();
     private List<String> labelNames;
@@ -98,6 +98,7 @@ public class Info extends SimpleCollector<Info.Child> implements Counter.Describ
         }
       }
       this.value = v;
+      changed();
     }
     /**
      * Set the info.
@@ -149,6 +150,16 @@ public class Info extends SimpleCollector<Info.Child> implements Counter.Describ
 
   @Override
   public List<MetricFamilySamples> collect() {
+    return collect(null);
+  }
+
+  @Override
+  public List<MetricFamilySamples> collect(Predicate<String> sampleNameFilter) {
+    removeIdleChildren();
+    String infoName = fullname + "_info";
+    if (sampleNameFilter != null && !sampleNameFilter.test(infoName)) {
+      return familySamplesList(Type.INFO, Collections.<MetricFamilySamples.Sample>emptyList(), sampleNameFilter);
+    }
     List<MetricFamilySamples.Sample> samples = new ArrayList<MetricFamilySamples.Sample>();
     for(Map.Entry<List<String>, Child> c: children.entrySet()) {
       Map<String, String> v = c.getValue().get();
@@ -158,15 +169,15 @@ public class Info extends SimpleCollector<Info.Child> implements Counter.Describ
         names.add(l.getKey());
         values.add(l.getValue());
       }
-      samples.add(new MetricFamilySamples.Sample(fullname + "_info", names, values, 1.0));
+      samples.add(new MetricFamilySamples.Sample(infoName, names, values, 1.0));
     }
 
-    return familySamplesList(Type.INFO, samples);
+    return familySamplesList(Type.INFO, samples, sampleNameFilter);
   }
 
   @Override
   public List<MetricFamilySamples> describe() {
-    return Collections.singletonList(
+    return familyDescriptionList(
             new MetricFamilySamples(fullname, Type.INFO, help, Collections.<MetricFamilySamples.Sample>emptyList()));
   }
 
@@ -0,0 +1,166 @@
+package io.prometheus.client;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Immutable list of label values, used as key in {@link SimpleCollector#children}.
+ * <p>
+ * The hash code is computed once when the key is created. It follows the contract of {@link List#hashCode()},
+ * so a {@code LabelValues} is interchangeable with any other {@code List<String>} holding the same values.
+ */
+final class LabelValues extends AbstractList<String> implements RandomAccess {
+
+  private final String[] values;
+  private final int hash;
+
+  /**
+   * The array is not copied, the caller must not modify it after calling this constructor.
+   */
+  LabelValues(String[] values) {
+    this.values = values;
+    this.hash = hash(values, values.length);
+  }
+
+  @Override
+  public String get(int index) {
+    return values[index];
+  }
+
+  @Override
+  public int size() {
+    return values.length;
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o instanceof LabelValues) {
+      LabelValues other = (LabelValues) o;
+      return hash == other.hash && Arrays.equals(values, other.values);
+    }
+    return super.equals(o);
+  }
+
+  private static int hash(String[] values, int length) {
+    // Same as List.hashCode(). String caches its own hash code, so this doesn't rehash the characters.
+    int h = 1;
+    for (int i = 0; i < length; i++) {
+      h = 31 * h + (values[i] == null ? 0 : values[i].hashCode());
+    }
+    return h;
+  }
+
+  /**
+   * Mutable, thread-confined key for looking up children without allocating a {@link LabelValues}.
+   * <p>
+   * A Probe is only ever passed to {@code Map.get()}, it must never be stored in a Map.
+   * It is equal to any {@code List<String>} with the same values, and has the same hash code.
+   */
+  static final class Probe {
+
+    private static final ThreadLocal<Probe> probes = new ThreadLocal<Probe>() {
+      @Override
+      protected Probe initialValue() {
+        return new Probe();
+      }
+    };
+
+    /**
+     * Label values for the fixed-arity overloads of {@link SimpleCollector#labels(String)}.
+     */
+    final String[] buffer = new String[4];
+
+    private String[] values;
+    private int length;
+    private int hash;
+
+    private Probe() {
+    }
+
+    static Probe get() {
+      return probes.get();
+    }
+
+    /**
+     * Use the first {@code length} entries of {@link #buffer} as label values.
+     */
+    Probe init(int length) {
+      return init(buffer, length);
+    }
+
+    /**
+     * Use the first {@code length} entries of {@code values} as label values. The array is not copied.
+     */
+    Probe init(String[] values, int length) {
+      this.values = values;
+      this.length = length;
+      this.hash = LabelValues.hash(values, length);
+      return this;
+    }
+
+    /**
+     * Create an immutable copy of the current label values and reset this probe.
+     */
+    LabelValues toLabelValues() {
+      LabelValues result = new LabelValues(Arrays.copyOf(values, length));
+      reset();
+      return result;
+    }
+
+    /**
+     * Drop the references to the label values, so that they can be garbage collected.
+     */
+    void reset() {
+      if (values == buffer) {
+        for (int i = 0; i < length; i++) {
+          buffer[i] = null;
+        }
+      }
+      values = null;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (o instanceof LabelValues) {
+        LabelValues other = (LabelValues) o;
+        if (other.hash != hash || other.values.length != length) {
+          return false;
+        }
+        for (int i = 0; i < length; i++) {
+          if (!values[i].equals(other.values[i])) {
+            return false;
+          }
+        }
+        return true;
+      }
+      if (o instanceof List) {
+        List<?> other = (List<?>) o;
+        if (other.size() != length) {
+          return false;
+        }
+        for (int i = 0; i < length; i++) {
+          if (!values[i].equals(other.get(i))) {
+            return false;
+          }
+        }
+        return true;
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,91 @@
+package io.prometheus.client;
+
+import io.prometheus.client.exemplars.Exemplar;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds {@link Collector.MetricFamilySamples} from the families written to it.
+ * <p>
+ * The samples of a family are stored in {@link SampleColumns} as long as they have the label names of the first
+ * sample and no timestamp, otherwise in a list of {@link Collector.MetricFamilySamples.Sample}s.
+ */
+final class ListSink implements SampleSink {
+
+  final List<Collector.MetricFamilySamples> metricFamilySamples = new ArrayList<Collector.MetricFamilySamples>();
+  private final boolean copyLabelValues;
+  private String name;
+  private String unit;
+  private Collector.Type type;
+  private String help;
+  private SampleColumns columns; // null before the first sample, and after a sample that didn't fit
+  private List<Collector.MetricFamilySamples.Sample> samples; // null while the samples fit in columns
+
+  /**
+   * @param copyLabelValues {@code false} if the label lists passed to {@link #sample} stay valid after the call,
+   *                        like the label values of the children of a {@link SimpleCollector}.
+   */
+  ListSink(boolean copyLabelValues) {
+    this.copyLabelValues = copyLabelValues;
+  }
+
+  @Override
+  public void startFamily(String name, String unit, Collector.Type type, String help) {
+    this.name = name;
+    this.unit = unit;
+    this.type = type;
+    this.help = help;
+    this.columns = null;
+    this.samples = null;
+  }
+
+  @Override
+  public void sample(String name, List<String> labelNames, List<String> labelValues, String extraLabelName,
+                     String extraLabelValue, double value, Exemplar exemplar, Long timestampMs) {
+    if (samples == null && timestampMs == null) {
+      if (columns == null) {
+        columns = new SampleColumns(copy(labelNames), extraLabelName, 16);
+      }
+      if (fits(labelNames, extraLabelName, extraLabelValue)) {
+        columns.add(name, copy(labelValues), extraLabelValue, value, exemplar);
+        return;
+      }
+    }
+    if (samples == null) {
+      samples = new ArrayList<Collector.MetricFamilySamples.Sample>();
+      if (columns != null) {
+        samples.addAll(columns);
+        columns = null;
+      }
+    }
+    List<String> names = new ArrayList<String>(labelNames);
+    List<String> values = new ArrayList<String>(labelValues);
+    if (extraLabelValue != null) {
+      names.add(extraLabelName);
+      values.add(extraLabelValue);
+    }
+    samples.add(new Collector.MetricFamilySamples.Sample(name, names, values, value, exemplar, timestampMs));
+  }
+
+  private boolean fits(List<String> labelNames, String extraLabelName, String extraLabelValue) {
+    List<String> columnLabelNames = columns.getLabelNames();
+    if (labelNames != columnLabelNames && !labelNames.equals(columnLabelNames)) {
+      return false;
+    }
+    return extraLabelValue == null || extraLabelName.equals(columns.getExtraLabelName());
+  }
+
+  private List<String> copy(List<String> labels) {
+    return copyLabelValues ? new ArrayList<String>(labels) : labels;
+  }
+
+  @Override
+  public void endFamily() {
+    List<Collector.MetricFamilySamples.Sample> result = samples;
+    if (result == null) {
+      result = columns != null ? columns : new ArrayList<Collector.MetricFamilySamples.Sample>();
+    }
+    metricFamilySamples.add(new Collector.MetricFamilySamples(name, unit, type, help, result));
+  }
+}
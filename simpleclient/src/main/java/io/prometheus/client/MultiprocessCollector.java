@@ -0,0 +1,285 @@
+package io.prometheus.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Exposes the metrics of all {@link MultiprocessStore}s in a directory.
+ * <p>
+ * The files are read on each scrape, without coordinating with the processes writing them.
+ * A file is read up to the first entry that is not completely written yet, the remaining entries are
+ * read in a later scrape.
+ * Counters and histograms are added up. Gauges are combined as configured with
+ * {@link Gauge.Builder#multiprocess(MultiprocessStore, Gauge.MultiprocessMode)}.
+ * <pre>
+ * {@code
+ *   new MultiprocessCollector(new File("/var/run/metrics")).register(registry);
+ * }
+ * </pre>
+ */
+public class MultiprocessCollector extends Collector {
+
+  private final File directory;
+
+  public MultiprocessCollector(File directory) {
+    if (directory == null) {
+      throw new NullPointerException();
+    }
+    this.directory = directory;
+  }
+
+  @Override
+  public List<MetricFamilySamples> collect() {
+    Map<String, Family> families = new TreeMap<String, Family>();
+    File[] files = directory.listFiles();
+    if (files != null) {
+      Arrays.sort(files);
+      for (File file : files) {
+        String name = file.getName();
+        if (name.startsWith(MultiprocessStore.FILE_PREFIX) && name.endsWith(MultiprocessStore.FILE_SUFFIX)) {
+          read(file, families);
+        }
+      }
+    }
+    List<MetricFamilySamples> mfs = new ArrayList<MetricFamilySamples>(families.size());
+    for (Family family : families.values()) {
+      mfs.add(family.toMetricFamilySamples());
+    }
+    return mfs;
+  }
+
+  private static void read(File file, Map<String, Family> families) {
+    String pid = pid(file.getName());
+    ByteBuffer buffer;
+    try {
+      // Read into the heap rather than mapping the file, mappings are only released by the garbage collector.
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+        FileChannel channel = raf.getChannel();
+        ByteBuffer header = ByteBuffer.allocate(8);
+        if (readFully(channel, header) < 8) {
+          return; // the process is still creating the file
+        }
+        long used = Math.min(header.getLong(0), channel.size());
+        if (used <= 8) {
+          return;
+        }
+        buffer = ByteBuffer.allocate((int) used);
+        buffer.limit(readFully(channel, buffer));
+      } finally {
+        raf.close();
+      }
+    } catch (FileNotFoundException e) {
+      return; // deleted since listing the directory
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to read " + file, e);
+    }
+    int used = buffer.limit();
+    int offset = 8;
+    while (offset + 4 <= used) {
+      int keyLength = buffer.getInt(offset);
+      int valueOffset = MultiprocessStore.padTo8(offset + 4 + keyLength);
+      if (keyLength < 0 || valueOffset + 8 > used) {
+        return; // the used length was published before the entry became visible
+      }
+      byte[] key = new byte[keyLength];
+      for (int i = 0; i < keyLength; i++) {
+        key[i] = buffer.get(offset + 4 + i);
+      }
+      if (!add(key, buffer.getDouble(valueOffset), pid, families)) {
+        return; // same, but the key is not completely visible yet
+      }
+      offset = valueOffset + 8;
+    }
+  }
+
+  /**
+   * Read from the start of the file until {@code buffer} is full or the end of the file is reached.
+   *
+   * @return the number of bytes read.
+   */
+  private static int readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, buffer.position()) < 0) {
+        break;
+      }
+    }
+    return buffer.position();
+  }
+
+  /**
+   * Returns {@code false} if {@code key} can't be parsed.
+   */
+  private static boolean add(byte[] key, double value, String pid, Map<String, Family> families) {
+    try {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(key));
+      Type type = Type.valueOf(in.readUTF());
+      String modeName = in.readUTF();
+      Gauge.MultiprocessMode mode = modeName.length() == 0 ? null : Gauge.MultiprocessMode.valueOf(modeName);
+      String familyName = in.readUTF();
+      String unit = in.readUTF();
+      String help = in.readUTF();
+      String sampleName = in.readUTF();
+      int labelCount = in.readInt();
+      List<String> labelNames = new ArrayList<String>(labelCount + 1);
+      List<String> labelValues = new ArrayList<String>(labelCount + 1);
+      for (int i = 0; i < labelCount; i++) {
+        labelNames.add(in.readUTF());
+        labelValues.add(in.readUTF());
+      }
+      Family family = families.get(familyName);
+      if (family == null) {
+        family = new Family(familyName, unit, type, help, mode);
+        families.put(familyName, family);
+      }
+      if (family.mode == Gauge.MultiprocessMode.ALL) {
+        labelNames.add("pid");
+        labelValues.add(pid);
+      }
+      family.add(sampleName, labelNames, labelValues, value);
+      return true;
+    } catch (IOException e) {
+      return false;
+    } catch (IllegalArgumentException e) {
+      return false; // unknown type or mode
+    }
+  }
+
+  /**
+   * The process id from a file name like {@code pid-1234-5678.db}.
+   */
+  static String pid(String fileName) {
+    int end = fileName.indexOf('-', MultiprocessStore.FILE_PREFIX.length());
+    return fileName.substring(MultiprocessStore.FILE_PREFIX.length(),
+        end < 0 ? fileName.length() - MultiprocessStore.FILE_SUFFIX.length() : end);
+  }
+
+  private static final class Family {
+
+    private final String name;
+    private final String unit;
+    private final Type type;
+    private final String help;
+    private final Gauge.MultiprocessMode mode; // null unless this is a gauge
+    private final Map<List<String>, MetricFamilySamples.Sample> samples =
+        new LinkedHashMap<List<String>, MetricFamilySamples.Sample>();
+
+    Family(String name, String unit, Type type, String help, Gauge.MultiprocessMode mode) {
+      this.name = name;
+      this.unit = unit;
+      this.type = type;
+      this.help = help;
+      this.mode = mode;
+    }
+
+    void add(String sampleName, List<String> labelNames, List<String> labelValues, double value) {
+      List<String> key = new ArrayList<String>(2 * labelNames.size() + 1);
+      key.add(sampleName);
+      for (int i = 0; i < labelNames.size(); i++) {
+        key.add(labelNames.get(i));
+        key.add(labelValues.get(i));
+      }
+      MetricFamilySamples.Sample previous = samples.get(key);
+      if (previous != null) {
+        value = combine(previous.value, value);
+      }
+      samples.put(key, new MetricFamilySamples.Sample(sampleName, labelNames, labelValues, value));
+    }
+
+    private double combine(double a, double b) {
+      if (mode == Gauge.MultiprocessMode.MIN) {
+        return Math.min(a, b);
+      }
+      if (mode == Gauge.MultiprocessMode.MAX) {
+        return Math.max(a, b);
+      }
+      return a + b;
+    }
+
+    MetricFamilySamples toMetricFamilySamples() {
+      List<MetricFamilySamples.Sample> result = new ArrayList<MetricFamilySamples.Sample>(samples.values());
+      if (type == Type.HISTOGRAM) {
+        result = histogramSamples(result);
+      }
+      return new MetricFamilySamples(name, unit, type, help, result);
+    }
+
+    /**
+     * The stored buckets are not cumulative and there is no {@code _count}. Sort the buckets of each child,
+     * make them cumulative and add the {@code _count}.
+     */
+    private List<MetricFamilySamples.Sample> histogramSamples(List<MetricFamilySamples.Sample> stored) {
+      Map<List<String>, List<MetricFamilySamples.Sample>> buckets =
+          new LinkedHashMap<List<String>, List<MetricFamilySamples.Sample>>();
+      Map<List<String>, MetricFamilySamples.Sample> sums = new LinkedHashMap<List<String>, MetricFamilySamples.Sample>();
+      for (MetricFamilySamples.Sample sample : stored) {
+        if (sample.name.endsWith("_bucket")) {
+          List<String> childLabelValues = sample.labelValues.subList(0, sample.labelValues.size() - 1);
+          List<MetricFamilySamples.Sample> childBuckets = buckets.get(childLabelValues);
+          if (childBuckets == null) {
+            childBuckets = new ArrayList<MetricFamilySamples.Sample>();
+            buckets.put(childLabelValues, childBuckets);
+          }
+          childBuckets.add(sample);
+        } else {
+          sums.put(sample.labelValues, sample);
+        }
+      }
+      List<MetricFamilySamples.Sample> result = new ArrayList<MetricFamilySamples.Sample>();
+      for (Map.Entry<List<String>, List<MetricFamilySamples.Sample>> entry : buckets.entrySet()) {
+        List<MetricFamilySamples.Sample> childBuckets = entry.getValue();
+        Collections.sort(childBuckets, BY_UPPER_BOUND);
+        double count = 0;
+        for (MetricFamilySamples.Sample bucket : childBuckets) {
+          count += bucket.value;
+          result.add(new MetricFamilySamples.Sample(bucket.name, bucket.labelNames, bucket.labelValues, count));
+        }
+        List<String> labelNames = childBuckets.get(0).labelNames;
+        labelNames = labelNames.subList(0, labelNames.size() - 1);
+        result.add(new MetricFamilySamples.Sample(name + "_count", labelNames, entry.getKey(), count));
+        MetricFamilySamples.Sample sum = sums.remove(entry.getKey());
+        if (sum != null) {
+          result.add(sum);
+        }
+      }
+      result.addAll(sums.values());
+      return result;
+    }
+  }
+
+  private static final Comparator<MetricFamilySamples.Sample> BY_UPPER_BOUND =
+      new Comparator<MetricFamilySamples.Sample>() {
+        @Override
+        public int compare(MetricFamilySamples.Sample a, MetricFamilySamples.Sample b) {
+          return Double.compare(upperBound(a), upperBound(b));
+        }
+
+        private double upperBound(MetricFamilySamples.Sample bucket) {
+          return parseDouble(bucket.labelValues.get(bucket.labelValues.size() - 1));
+        }
+      };
+
+  private static double parseDouble(String goString) {
+    if (goString.equals("+Inf")) {
+      return Double.POSITIVE_INFINITY;
+    }
+    if (goString.equals("-Inf")) {
+      return Double.NEGATIVE_INFINITY;
+    }
+    return Double.parseDouble(goString);
+  }
+}
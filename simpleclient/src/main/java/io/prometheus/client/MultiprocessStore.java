@@ -0,0 +1,236 @@
+package io.prometheus.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Stores the values of {@link Counter}, {@link Gauge} and {@link Histogram} children in a memory-mapped file,
+ * so that several processes can be exposed by one {@link MultiprocessCollector}.
+ * <p>
+ * Each process opens its own store in a shared directory:
+ * <pre>
+ * {@code
+ *   MultiprocessStore store = MultiprocessStore.open(new File("/var/run/metrics"));
+ *   Counter requests = Counter.build()
+ *       .name("requests_total").help("Total requests.")
+ *       .multiprocess(store)
+ *       .register();
+ * }
+ * </pre>
+ * and the process serving the scrapes registers a {@link MultiprocessCollector} for the same directory in the
+ * registry it exposes. That registry should not also contain the metrics themselves, otherwise they are
+ * reported twice. Like in the Python client's multiprocess mode, the directory should be emptied when the group
+ * of processes is restarted. Counter and histogram values of processes that exited keep contributing until then.
+ * <p>
+ * The children keep their values in memory as usual, an update is lock-free. After the update, the new value is
+ * written to the child's slot in the file, and written again if another thread changed the value in the
+ * meantime, so the file always ends up with the latest value. Readers don't need to coordinate with writers,
+ * because each value is a single aligned 8 byte write. {@code _created} series are not stored.
+ * <p>
+ * File format: an 8 byte length of the used part of the file, followed by entries. An entry is a 4 byte key
+ * length, the key, padding to a multiple of 8 bytes and the 8 byte value. The length is updated after a new
+ * entry was written. Readers in other processes may still see the new length before the entry on CPUs with
+ * weak memory ordering, so they stop reading a file at an entry that is not completely visible.
+ */
+public final class MultiprocessStore implements Closeable {
+
+  static final String FILE_PREFIX = "pid-";
+  static final String FILE_SUFFIX = ".db";
+  private static final int INITIAL_SIZE = 64 * 1024;
+
+  private final File file;
+  private final RandomAccessFile raf;
+  private final ConcurrentMap<String, Slot> slots = new ConcurrentHashMap<String, Slot>();
+  private MappedByteBuffer buffer; // guarded by this
+  private int used = 8; // guarded by this
+
+  private MultiprocessStore(File file) throws IOException {
+    this.file = file;
+    this.raf = new RandomAccessFile(file, "rw");
+    map(INITIAL_SIZE);
+    buffer.putLong(0, used);
+  }
+
+  /**
+   * Create the file for this process in {@code directory}.
+   * The file name contains the process id, e.g. {@code pid-1234-5678.db}.
+   */
+  public static MultiprocessStore open(File directory) throws IOException {
+    if (!directory.isDirectory()) {
+      throw new IOException(directory + " is not a directory");
+    }
+    return new MultiprocessStore(File.createTempFile(FILE_PREFIX + pid() + "-", FILE_SUFFIX, directory));
+  }
+
+  /**
+   * The file of this process.
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Close the file. The memory mapping stays valid until it is garbage collected, so children may still write
+   * their values to the file after closing. To remove the values of this process, delete the file.
+   */
+  @Override
+  public void close() throws IOException {
+    raf.close();
+  }
+
+  /**
+   * The slot for a sample, created with value 0 if it doesn't exist yet.
+   * Children with the same labels share the slot, e.g. if a child is removed and created again. The new child
+   * must continue from {@link Slot#get()}, a counter would go backwards otherwise.
+   *
+   * @param mode only for gauges, how values of different processes are aggregated.
+   */
+  Slot slot(Collector.Type type, Gauge.MultiprocessMode mode, String familyName, String unit, String help,
+            String sampleName, List<String> labelNames, List<String> labelValues) {
+    String key = key(type, mode, familyName, unit, help, sampleName, labelNames, labelValues);
+    Slot slot = slots.get(key);
+    if (slot == null) {
+      slot = addEntry(key);
+    }
+    return slot;
+  }
+
+  private synchronized Slot addEntry(String key) {
+    Slot slot = slots.get(key);
+    if (slot != null) {
+      return slot;
+    }
+    byte[] keyBytes;
+    try {
+      keyBytes = key.getBytes("ISO-8859-1");
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    int valueOffset = padTo8(used + 4 + keyBytes.length);
+    int end = valueOffset + 8;
+    if (end > buffer.capacity()) {
+      int size = buffer.capacity();
+      while (end > size) {
+        size *= 2;
+      }
+      try {
+        map(size);
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to grow " + file, e);
+      }
+    }
+    buffer.putInt(used, keyBytes.length);
+    for (int i = 0; i < keyBytes.length; i++) {
+      buffer.put(used + 4 + i, keyBytes[i]);
+    }
+    buffer.putDouble(valueOffset, 0);
+    used = end;
+    buffer.putLong(0, used);
+    // Slots keep the mapping that was current when they were created. Older mappings stay valid after growing.
+    slot = new Slot(buffer, valueOffset);
+    slots.put(key, slot);
+    return slot;
+  }
+
+  private void map(int size) throws IOException {
+    raf.setLength(size);
+    buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+  }
+
+  static int padTo8(int n) {
+    return (n + 7) & ~7;
+  }
+
+  private static String key(Collector.Type type, Gauge.MultiprocessMode mode, String familyName, String unit,
+                            String help, String sampleName, List<String> labelNames, List<String> labelValues) {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeUTF(type.name());
+      out.writeUTF(mode == null ? "" : mode.name());
+      out.writeUTF(familyName);
+      out.writeUTF(unit);
+      out.writeUTF(help);
+      out.writeUTF(sampleName);
+      out.writeInt(labelNames.size());
+      for (int i = 0; i < labelNames.size(); i++) {
+        out.writeUTF(labelNames.get(i));
+        out.writeUTF(labelValues.get(i));
+      }
+      out.close();
+      // ISO-8859-1 maps each byte to one char, so the key survives the round trip to bytes unchanged.
+      return bytes.toString("ISO-8859-1");
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String pid() {
+    // "pid@hostname" on common JVMs.
+    String name = ManagementFactory.getRuntimeMXBean().getName();
+    int at = name.indexOf('@');
+    return at > 0 ? name.substring(0, at) : "0";
+  }
+
+  /**
+   * The value of one sample in the file.
+   */
+  static final class Slot {
+
+    private final MappedByteBuffer buffer;
+    private final int offset;
+
+    private Slot(MappedByteBuffer buffer, int offset) {
+      this.buffer = buffer;
+      this.offset = offset;
+    }
+
+    /**
+     * Write the current value of {@code source}. If the value changed while writing, because another thread
+     * updated it, write again, so that the last write is never an outdated value.
+     */
+    void publish(DoubleAdder source) {
+      long bits;
+      do {
+        bits = Double.doubleToLongBits(source.sum());
+        buffer.putLong(offset, bits);
+      } while (Double.doubleToLongBits(source.sum()) != bits);
+    }
+
+    /**
+     * Write {@code value}. Callers that write values that other threads update must write again if the value
+     * changed, like {@link #publish(DoubleAdder)}.
+     */
+    void set(double value) {
+      buffer.putDouble(offset, value);
+    }
+
+    /**
+     * Like {@link #publish(DoubleAdder)}.
+     */
+    void publish(LongAdder source) {
+      long value;
+      do {
+        value = source.sum();
+        buffer.putDouble(offset, value);
+      } while (source.sum() != value);
+    }
+
+    /**
+     * The last value written to the slot.
+     */
+    double get() {
+      return buffer.getDouble(offset);
+    }
+  }
+}
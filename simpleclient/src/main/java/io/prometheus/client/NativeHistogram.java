@@ -0,0 +1,170 @@
+package io.prometheus.client;
+
+import java.util.Arrays;
+
+/**
+ * Sparse exponential buckets of a {@link Histogram}, also known as native histogram.
+ * <p>
+ * The bucket boundaries are powers of {@code base = 2^(2^-schema)}. Bucket {@code i} holds the observations
+ * in {@code (base^(i-1), base^i]} for positive values, and the same range of absolute values for negative values.
+ * Observations with an absolute value up to the zero threshold are counted in the zero bucket.
+ * <p>
+ * Only populated buckets are stored. If there are more than {@code maxBuckets} populated buckets, the schema is
+ * decreased, which merges each pair of neighbouring buckets. This halves the resolution, down to schema -4.
+ * <p>
+ * {@link #observe(double)} doesn't take a lock. Like {@link TimeWindowQuantiles}, observations are collected in a
+ * {@link StripedBuffer} and added to the buckets in batches.
+ */
+final class NativeHistogram {
+
+  static final int MIN_SCHEMA = -4;
+  static final int MAX_SCHEMA = 8;
+
+  /**
+   * BOUNDS[schema - 1][j] = 2^(j / 2^schema - 1), the bucket boundaries for fractions in [0.5, 1).
+   */
+  private static final double[][] BOUNDS = new double[MAX_SCHEMA][];
+
+  static {
+    for (int schema = 1; schema <= MAX_SCHEMA; schema++) {
+      int n = 1 << schema;
+      BOUNDS[schema - 1] = new double[n];
+      for (int j = 0; j < n; j++) {
+        BOUNDS[schema - 1][j] = Math.pow(2, (double) j / n - 1);
+      }
+    }
+  }
+
+  private final double zeroThreshold;
+  private final int maxBuckets;
+  private int schema;
+  private long zeroCount;
+  private final Buckets positive = new Buckets();
+  private final Buckets negative = new Buckets();
+  private final StripedBuffer buffer = new StripedBuffer() {
+    @Override
+    void flush(double[] values, int count) {
+      insertBatch(values, 0, count);
+    }
+  };
+
+  NativeHistogram(int schema, double zeroThreshold, int maxBuckets) {
+    this.schema = schema;
+    this.zeroThreshold = zeroThreshold;
+    this.maxBuckets = maxBuckets;
+  }
+
+  void observe(double value) {
+    buffer.add(value);
+  }
+
+  /**
+   * Observe {@code values[from]} to {@code values[to - 1]}.
+   * Batches that are at least as large as a buffer are inserted directly.
+   */
+  void observeAll(double[] values, int from, int to) {
+    if (to - from >= StripedBuffer.BUFFER_SIZE) {
+      insertBatch(values, from, to);
+    } else {
+      for (int i = from; i < to; i++) {
+        buffer.add(values[i]);
+      }
+    }
+  }
+
+  synchronized Histogram.Child.NativeBuckets get() {
+    buffer.flushAll();
+    return new Histogram.Child.NativeBuckets(schema, zeroThreshold, zeroCount,
+        Arrays.copyOf(positive.indexes, positive.size), Arrays.copyOf(positive.counts, positive.size),
+        Arrays.copyOf(negative.indexes, negative.size), Arrays.copyOf(negative.counts, negative.size));
+  }
+
+  private synchronized void insertBatch(double[] values, int from, int to) {
+    for (int i = from; i < to; i++) {
+      double value = values[i];
+      if (Double.isNaN(value)) {
+        continue;
+      }
+      double abs = Math.abs(value);
+      if (abs <= zeroThreshold || abs < Double.MIN_NORMAL) {
+        zeroCount++;
+        continue;
+      }
+      (value > 0 ? positive : negative).add(index(abs, schema), 1);
+      while (positive.size + negative.size > maxBuckets && schema > MIN_SCHEMA) {
+        positive.halveResolution();
+        negative.halveResolution();
+        schema--;
+      }
+    }
+  }
+
+  /**
+   * Index of the bucket for a positive, normal value.
+   * Like frexp() in C, value = frac * 2^exp with frac in [0.5, 1).
+   */
+  static int index(double value, int schema) {
+    int exp = Math.getExponent(value) + 1;
+    double frac = Math.scalb(value, -exp);
+    if (schema > 0) {
+      double[] bounds = BOUNDS[schema - 1];
+      int j = Arrays.binarySearch(bounds, frac);
+      if (j < 0) {
+        j = -j - 1;
+      }
+      return (exp - 1) * bounds.length + j;
+    }
+    if (frac == 0.5) {
+      // value is a power of two, i.e. exactly on a bucket boundary
+      exp--;
+    }
+    int offset = (1 << -schema) - 1;
+    return (exp + offset) >> -schema;
+  }
+
+  /**
+   * Populated buckets ordered by index.
+   */
+  private static final class Buckets {
+
+    int[] indexes = new int[8];
+    long[] counts = new long[8];
+    int size = 0;
+
+    void add(int index, long count) {
+      int pos = Arrays.binarySearch(indexes, 0, size, index);
+      if (pos >= 0) {
+        counts[pos] += count;
+        return;
+      }
+      pos = -pos - 1;
+      if (size == indexes.length) {
+        indexes = Arrays.copyOf(indexes, 2 * size);
+        counts = Arrays.copyOf(counts, 2 * size);
+      }
+      System.arraycopy(indexes, pos, indexes, pos + 1, size - pos);
+      System.arraycopy(counts, pos, counts, pos + 1, size - pos);
+      indexes[pos] = index;
+      counts[pos] = count;
+      size++;
+    }
+
+    /**
+     * Bucket i at schema s is part of bucket ceil(i/2) at schema s-1.
+     */
+    void halveResolution() {
+      int out = -1;
+      for (int i = 0; i < size; i++) {
+        int index = (indexes[i] + 1) >> 1;
+        if (out >= 0 && indexes[out] == index) {
+          counts[out] += counts[i];
+        } else {
+          out++;
+          indexes[out] = index;
+          counts[out] = counts[i];
+        }
+      }
+      size = out + 1;
+    }
+  }
+}
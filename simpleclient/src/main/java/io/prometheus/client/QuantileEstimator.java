@@ -0,0 +1,56 @@
+package io.prometheus.client;
+
+/**
+ * Algorithm for estimating quantiles of the observations of a {@link Summary}.
+ * <p>
+ * By default, a {@link Summary} uses the CKMS algorithm, which provides the allowed error configured with
+ * {@link Summary.Builder#quantile(double, double)} for each quantile. Other estimators can be selected with
+ * {@link Summary.Builder#quantileEstimator(Factory)}:
+ *
+ * <pre>
+ * Summary requestLatency = Summary.build()
+ *     .name("requests_latency_seconds")
+ *     .help("Request latency in seconds.")
+ *     .quantile(0.5, 0.01)
+ *     .quantile(0.99, 0.001)
+ *     .quantileEstimator(RelativeErrorSketch.factory(0.01))
+ *     .register();
+ * </pre>
+ *
+ * The built-in alternatives are {@link RelativeErrorSketch}, with an error relative to the value of the quantile,
+ * and {@link TDigest}, with an error that is smallest for quantiles close to 0 and 1.
+ * Both have constant-time inserts and bounded memory, independent of the configured quantiles, and can be merged.
+ * <p>
+ * The time window configured with {@link Summary.Builder#maxAgeSeconds(long)} and
+ * {@link Summary.Builder#ageBuckets(int)} applies to all estimators.
+ * A {@link Summary} creates one estimator per age bucket and calls {@link #reset()} when the bucket is rotated.
+ * <p>
+ * Implementations do not need to be thread-safe. The {@link Summary} synchronizes access.
+ */
+public interface QuantileEstimator {
+
+  /**
+   * Add an observed value.
+   */
+  void insert(double value);
+
+  /**
+   * Get the estimated value at the specified quantile, or {@link Double#NaN} if nothing was observed.
+   *
+   * @param quantile number between 0.0 and 1.0.
+   */
+  double get(double quantile);
+
+  /**
+   * Drop all observed values.
+   */
+  void reset();
+
+  /**
+   * Creates the {@link QuantileEstimator}s of a {@link Summary}.
+   */
+  interface Factory {
+
+    QuantileEstimator create();
+  }
+}
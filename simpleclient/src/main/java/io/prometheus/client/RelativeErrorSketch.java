@@ -0,0 +1,254 @@
+package io.prometheus.client;
+
+import java.util.Arrays;
+
+/**
+ * {@link QuantileEstimator} with a relative error guarantee, as described in
+ * "DDSketch: A Fast and Fully-Mergeable Quantile Sketch with Relative-Error Guarantees"
+ * by Masson, Rim, and Lee.
+ * <p>
+ * Observations are counted in exponential buckets. With a relative accuracy of 0.01, the estimated value
+ * of any quantile is within 1% of the exact value. Inserting is a logarithm and an array increment,
+ * and the sketch uses at most {@code maxBuckets} counters for positive and for negative values. If the
+ * observed values span more buckets than that, the buckets of the smallest absolute values are collapsed,
+ * so that low quantiles become less accurate but high quantiles keep their guarantee.
+ * <p>
+ * Sketches with the same relative accuracy can be combined with {@link #merge(RelativeErrorSketch)}.
+ * <p>
+ * This class is not thread-safe.
+ */
+public final class RelativeErrorSketch implements QuantileEstimator {
+
+  private static final int DEFAULT_MAX_BUCKETS = 2048;
+
+  private final double relativeAccuracy;
+  private final double gamma;
+  private final double multiplier; // 1 / ln(gamma)
+  private final Store positive;
+  private final Store negative;
+  private long zeroCount;
+  private double min = Double.POSITIVE_INFINITY;
+  private double max = Double.NEGATIVE_INFINITY;
+
+  /**
+   * @param relativeAccuracy must be greater than 0.0 and less than 1.0, for example 0.01 for an error of 1%.
+   */
+  public RelativeErrorSketch(double relativeAccuracy) {
+    this(relativeAccuracy, DEFAULT_MAX_BUCKETS);
+  }
+
+  /**
+   * @param relativeAccuracy must be greater than 0.0 and less than 1.0, for example 0.01 for an error of 1%.
+   * @param maxBuckets maximum number of buckets for positive and for negative values.
+   */
+  public RelativeErrorSketch(double relativeAccuracy, int maxBuckets) {
+    if (!(relativeAccuracy > 0.0 && relativeAccuracy < 1.0)) {
+      throw new IllegalArgumentException("relativeAccuracy " + relativeAccuracy + " invalid: Expected number between 0.0 and 1.0.");
+    }
+    if (maxBuckets < 2) {
+      throw new IllegalArgumentException("maxBuckets cannot be " + maxBuckets);
+    }
+    this.relativeAccuracy = relativeAccuracy;
+    this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+    this.multiplier = 1 / Math.log(gamma);
+    this.positive = new Store(maxBuckets);
+    this.negative = new Store(maxBuckets);
+  }
+
+  /**
+   * Factory for {@link Summary.Builder#quantileEstimator(QuantileEstimator.Factory)}.
+   */
+  public static QuantileEstimator.Factory factory(final double relativeAccuracy) {
+    new RelativeErrorSketch(relativeAccuracy); // validate
+    return new QuantileEstimator.Factory() {
+      @Override
+      public QuantileEstimator create() {
+        return new RelativeErrorSketch(relativeAccuracy);
+      }
+    };
+  }
+
+  @Override
+  public void insert(double value) {
+    if (Double.isNaN(value)) {
+      return;
+    }
+    if (value > Double.MIN_NORMAL) {
+      positive.add(index(value), 1);
+    } else if (value < -Double.MIN_NORMAL) {
+      negative.add(index(-value), 1);
+    } else {
+      zeroCount++;
+    }
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+  }
+
+  /**
+   * Add all observations of {@code other} to this sketch. {@code other} is not modified.
+   *
+   * @throws IllegalArgumentException if {@code other} was created with a different relative accuracy.
+   */
+  public void merge(RelativeErrorSketch other) {
+    if (other.relativeAccuracy != relativeAccuracy) {
+      throw new IllegalArgumentException("Cannot merge sketches with different relative accuracy.");
+    }
+    positive.addAll(other.positive);
+    negative.addAll(other.negative);
+    zeroCount += other.zeroCount;
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+  }
+
+  @Override
+  public double get(double q) {
+    long count = negative.total + zeroCount + positive.total;
+    if (count == 0) {
+      return Double.NaN;
+    }
+    if (q == 0.0) {
+      return min;
+    }
+    if (q == 1.0) {
+      return max;
+    }
+    long rank = (long) (q * (count - 1));
+    double result;
+    if (rank < negative.total) {
+      // Negative values in ascending order means descending absolute values.
+      result = -value(negative.indexAtRank(negative.total - 1 - rank));
+    } else if (rank < negative.total + zeroCount) {
+      result = 0;
+    } else {
+      result = value(positive.indexAtRank(rank - negative.total - zeroCount));
+    }
+    return Math.max(min, Math.min(max, result));
+  }
+
+  @Override
+  public void reset() {
+    positive.reset();
+    negative.reset();
+    zeroCount = 0;
+    min = Double.POSITIVE_INFINITY;
+    max = Double.NEGATIVE_INFINITY;
+  }
+
+  /**
+   * Bucket i holds the values in (gamma^(i-1), gamma^i].
+   */
+  private int index(double absValue) {
+    // Double.MAX_VALUE bounds the index, so that infinity doesn't overflow the index range.
+    return (int) Math.ceil(Math.log(Math.min(absValue, Double.MAX_VALUE)) * multiplier);
+  }
+
+  /**
+   * The value in bucket i with the smallest relative distance to both bucket boundaries.
+   */
+  private double value(int index) {
+    return 2 * Math.pow(gamma, index) / (gamma + 1);
+  }
+
+  /**
+   * Bucket counters, stored in an array that covers the range of used indexes.
+   */
+  private static final class Store {
+
+    private static final int INITIAL_CAPACITY = 32;
+
+    private final int maxBuckets;
+    private long[] counts;
+    private int offset; // bucket index of counts[0]
+    private int minIndex;
+    private int maxIndex;
+    long total;
+
+    Store(int maxBuckets) {
+      this.maxBuckets = maxBuckets;
+    }
+
+    void add(int index, long count) {
+      if (total == 0) {
+        if (counts == null) {
+          counts = new long[Math.min(INITIAL_CAPACITY, maxBuckets)];
+        }
+        offset = index - counts.length / 2;
+        minIndex = index;
+        maxIndex = index;
+      } else if (index < minIndex || index > maxIndex) {
+        index = extendRange(index);
+      }
+      counts[index - offset] += count;
+      total += count;
+    }
+
+    void addAll(Store other) {
+      for (int i = other.minIndex; other.total > 0 && i <= other.maxIndex; i++) {
+        long count = other.counts[i - other.offset];
+        if (count > 0) {
+          add(i, count);
+        }
+      }
+    }
+
+    /**
+     * Returns the index of the bucket holding the observation with the given 0-based rank.
+     */
+    int indexAtRank(long rank) {
+      long n = 0;
+      for (int i = minIndex; i < maxIndex; i++) {
+        n += counts[i - offset];
+        if (n > rank) {
+          return i;
+        }
+      }
+      return maxIndex;
+    }
+
+    void reset() {
+      if (counts != null) {
+        Arrays.fill(counts, 0);
+      }
+      total = 0;
+    }
+
+    /**
+     * Make sure the counts cover {@code index}, and return the index to use, which differs from
+     * {@code index} if it falls into the collapsed range.
+     */
+    private int extendRange(int index) {
+      int newMin = Math.min(minIndex, index);
+      int newMax = Math.max(maxIndex, index);
+      if (newMax - newMin >= maxBuckets) {
+        // Collapse the lowest buckets.
+        newMin = newMax - maxBuckets + 1;
+      }
+      if (newMin >= offset && newMax < offset + counts.length) {
+        // Fits into the current array.
+        long collapsed = 0;
+        for (int i = minIndex; i < newMin; i++) {
+          collapsed += counts[i - offset];
+          counts[i - offset] = 0;
+        }
+        counts[newMin - offset] += collapsed;
+      } else {
+        int range = newMax - newMin + 1;
+        int length = counts.length;
+        while (length < range) {
+          length *= 2;
+        }
+        length = Math.min(length, maxBuckets);
+        long[] newCounts = new long[length];
+        int newOffset = newMin - (length - range) / 2;
+        for (int i = minIndex; i <= maxIndex; i++) {
+          newCounts[Math.max(i, newMin) - newOffset] += counts[i - offset];
+        }
+        counts = newCounts;
+        offset = newOffset;
+      }
+      minIndex = newMin;
+      maxIndex = newMax;
+      return Math.max(index, newMin);
+    }
+  }
+}
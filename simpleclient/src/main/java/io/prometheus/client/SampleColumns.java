@@ -0,0 +1,197 @@
+package io.prometheus.client;
+
+import io.prometheus.client.exemplars.Exemplar;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The samples of a metric family, stored in columns instead of one {@link Collector.MetricFamilySamples.Sample}
+ * object with its own label lists per sample.
+ * <p>
+ * All rows share the family's label names. A row references the label values of its child as they are, and may
+ * have one additional label, like {@code le} for histogram buckets or {@code quantile} for summaries. Values are
+ * stored in a {@code double[]}.
+ * <p>
+ * This is a read-only {@code List<Sample>}, so it can be used as {@link Collector.MetricFamilySamples#samples}.
+ * {@link #get(int)} creates the {@code Sample} on each call. Writers that know this class, like the exposition
+ * formats in {@code simpleclient_common}, read the columns with the accessors instead and don't create
+ * {@code Sample}s at all.
+ * <pre>
+ * {@code
+ *   SampleColumns samples = new SampleColumns(labelNames, "le", expectedRows);
+ *   samples.add("my_histogram_bucket", childLabelValues, "0.5", 3.0, null);
+ * }
+ * </pre>
+ */
+public final class SampleColumns extends AbstractList<Collector.MetricFamilySamples.Sample> {
+
+  private final List<String> labelNames;
+  private final String extraLabelName;
+  private final List<String> labelNamesWithExtra;
+
+  private int size;
+  private String[] names;
+  private List<String>[] labelValues;
+  private String[] extraLabelValues;
+  private double[] values;
+  private Exemplar[] exemplars; // null until the first exemplar is added
+
+  /**
+   * @param labelNames     label names of all rows.
+   * @param extraLabelName name of the additional label that rows may have, or {@code null}.
+   * @param expectedSize   initial capacity.
+   */
+  public SampleColumns(List<String> labelNames, String extraLabelName, int expectedSize) {
+    if (labelNames == null) {
+      throw new NullPointerException();
+    }
+    if (expectedSize < 0) {
+      throw new IllegalArgumentException("expectedSize must not be negative, got " + expectedSize + ".");
+    }
+    this.labelNames = labelNames;
+    this.extraLabelName = extraLabelName;
+    if (extraLabelName == null) {
+      this.labelNamesWithExtra = labelNames;
+    } else {
+      List<String> withExtra = new ArrayList<String>(labelNames.size() + 1);
+      withExtra.addAll(labelNames);
+      withExtra.add(extraLabelName);
+      this.labelNamesWithExtra = Collections.unmodifiableList(withExtra);
+    }
+    allocate(Math.max(expectedSize, 4));
+  }
+
+  /**
+   * Add a row.
+   *
+   * @param name            sample name.
+   * @param labelValues     values of the label names passed to the constructor. The list is referenced, not copied.
+   * @param extraLabelValue value of the additional label, or {@code null} if the row doesn't have it.
+   * @param exemplar        may be {@code null}.
+   */
+  public void add(String name, List<String> labelValues, String extraLabelValue, double value, Exemplar exemplar) {
+    if (name == null || labelValues == null) {
+      throw new NullPointerException();
+    }
+    if (labelValues.size() != labelNames.size()) {
+      throw new IllegalArgumentException("Expected " + labelNames.size() + " label values, got " + labelValues.size() + ".");
+    }
+    if (extraLabelValue != null && extraLabelName == null) {
+      throw new IllegalArgumentException("No name for the additional label value " + extraLabelValue + ".");
+    }
+    if (size == values.length) {
+      allocate(2 * size);
+    }
+    names[size] = name;
+    this.labelValues[size] = labelValues;
+    extraLabelValues[size] = extraLabelValue;
+    values[size] = value;
+    if (exemplar != null) {
+      if (exemplars == null) {
+        exemplars = new Exemplar[values.length];
+      }
+      exemplars[size] = exemplar;
+    }
+    size++;
+    modCount++;
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private void allocate(int capacity) {
+    names = names == null ? new String[capacity] : Arrays.copyOf(names, capacity);
+    labelValues = labelValues == null ? new List[capacity] : Arrays.copyOf(labelValues, capacity);
+    extraLabelValues = extraLabelValues == null ? new String[capacity] : Arrays.copyOf(extraLabelValues, capacity);
+    values = values == null ? new double[capacity] : Arrays.copyOf(values, capacity);
+    if (exemplars != null) {
+      exemplars = Arrays.copyOf(exemplars, capacity);
+    }
+  }
+
+  /**
+   * A copy with only the rows whose name matches {@code sampleNameFilter}.
+   */
+  SampleColumns filter(Predicate<String> sampleNameFilter) {
+    SampleColumns result = new SampleColumns(labelNames, extraLabelName, size);
+    for (int i = 0; i < size; i++) {
+      if (sampleNameFilter.test(names[i])) {
+        result.add(names[i], labelValues[i], extraLabelValues[i], values[i], getExemplar(i));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Label names of all rows, without the additional label.
+   */
+  public List<String> getLabelNames() {
+    return labelNames;
+  }
+
+  /**
+   * Name of the additional label, or {@code null}.
+   */
+  public String getExtraLabelName() {
+    return extraLabelName;
+  }
+
+  public String getName(int row) {
+    checkRow(row);
+    return names[row];
+  }
+
+  /**
+   * Values of {@link #getLabelNames()}.
+   */
+  public List<String> getLabelValues(int row) {
+    checkRow(row);
+    return labelValues[row];
+  }
+
+  /**
+   * Value of {@link #getExtraLabelName()}, or {@code null} if the row doesn't have the additional label.
+   */
+  public String getExtraLabelValue(int row) {
+    checkRow(row);
+    return extraLabelValues[row];
+  }
+
+  public double getValue(int row) {
+    checkRow(row);
+    return values[row];
+  }
+
+  public Exemplar getExemplar(int row) {
+    checkRow(row);
+    return exemplars == null ? null : exemplars[row];
+  }
+
+  @Override
+  public Collector.MetricFamilySamples.Sample get(int row) {
+    checkRow(row);
+    String extraLabelValue = extraLabelValues[row];
+    if (extraLabelValue == null) {
+      return new Collector.MetricFamilySamples.Sample(names[row], labelNames, labelValues[row], values[row],
+          getExemplar(row));
+    }
+    List<String> labelValuesWithExtra = new ArrayList<String>(labelNamesWithExtra.size());
+    labelValuesWithExtra.addAll(labelValues[row]);
+    labelValuesWithExtra.add(extraLabelValue);
+    return new Collector.MetricFamilySamples.Sample(names[row], labelNamesWithExtra, labelValuesWithExtra,
+        values[row], getExemplar(row));
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  private void checkRow(int row) {
+    if (row < 0 || row >= size) {
+      throw new IndexOutOfBoundsException("Row " + row + ", size " + size);
+    }
+  }
+}
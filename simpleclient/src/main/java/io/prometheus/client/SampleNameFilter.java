@@ -38,12 +38,29 @@ public class SampleNameFilter implements Predicate<String> {
         if (other == null) {
             throw new NullPointerException();
         }
-        return new Predicate<String>() {
-            @Override
-            public boolean test(String s) {
-                return SampleNameFilter.this.test(s) && other.test(s);
-            }
-        };
+        return new And(this, other);
+    }
+
+    /**
+     * The {@code SampleNameFilter} that {@code filter} is or starts with, so that the {@link CollectorRegistry}
+     * can look up matching names in its index instead of testing all names. Returns {@code null} if there is none.
+     */
+    static SampleNameFilter indexablePart(Predicate<String> filter) {
+        if (filter instanceof SampleNameFilter) {
+            return (SampleNameFilter) filter;
+        }
+        if (filter instanceof And) {
+            return ((And) filter).first;
+        }
+        return null;
+    }
+
+    Collection<String> getNameIsEqualTo() {
+        return nameIsEqualTo;
+    }
+
+    Collection<String> getNameStartsWith() {
+        return nameStartsWith;
     }
 
     private boolean matchesNameEqualTo(String metricName) {
@@ -179,6 +196,22 @@ public class SampleNameFilter implements Predicate<String> {
         this.nameDoesNotStartWith = unmodifiableCollection(nameDoesNotStartWith);
     }
 
+    private static class And implements Predicate<String> {
+
+        private final SampleNameFilter first;
+        private final Predicate<? super String> second;
+
+        private And(SampleNameFilter first, Predicate<? super String> second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public boolean test(String s) {
+            return first.test(s) && second.test(s);
+        }
+    }
+
     private static class AllowAll implements Predicate<String> {
 
         private AllowAll() {
@@ -0,0 +1,38 @@
+package io.prometheus.client;
+
+import io.prometheus.client.exemplars.Exemplar;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Receives metric families one sample at a time, so that they can be written out without building
+ * {@link Collector.MetricFamilySamples} first. See {@link Collector#collect(SampleSink, Predicate)} and
+ * {@link CollectorRegistry#collect(SampleSink, Predicate)}.
+ * <p>
+ * For each family, {@link #startFamily} is called once, then {@link #sample} for each sample, then
+ * {@link #endFamily()}.
+ */
+public interface SampleSink {
+
+  /**
+   * @param name like {@link Collector.MetricFamilySamples#name}, i.e. without {@code _total} for counters.
+   * @param unit may be empty, but not {@code null}.
+   */
+  void startFamily(String name, String unit, Collector.Type type, String help) throws IOException;
+
+  /**
+   * The arguments are only valid during the call, implementations that keep them must copy the label lists.
+   *
+   * @param labelValues     must have the same length as {@code labelNames}.
+   * @param extraLabelName  name of a label following {@code labelNames}, or {@code null}. Used for labels like
+   *                        {@code le} so that the label lists of the child can be passed as they are.
+   * @param extraLabelValue value of {@code extraLabelName}, or {@code null} if the sample doesn't have it.
+   * @param exemplar        may be {@code null}.
+   * @param timestampMs     may be {@code null}.
+   */
+  void sample(String name, List<String> labelNames, List<String> labelValues, String extraLabelName,
+              String extraLabelValue, double value, Exemplar exemplar, Long timestampMs) throws IOException;
+
+  void endFamily() throws IOException;
+}
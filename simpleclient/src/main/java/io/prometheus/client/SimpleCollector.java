@@ -1,10 +1,16 @@
 package io.prometheus.client;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Common functionality for {@link Gauge}, {@link Counter}, {@link Summary} and {@link Histogram}.
@@ -45,6 +51,9 @@ import java.util.List;
  * by customer and endpoint in one metric, you might have two metrics with one breaking out
  * by each. If the cardinality is in the hundreds, you may wish to consider removing the breakout
  * by one of the dimensions altogether.
+ * <p>
+ * If label values come from an unbounded source, {@link SimpleCollector.Builder#maxChildren(int) maxChildren}
+ * caps the number of children so that a bad label can't exhaust the heap.
  */
 public abstract class SimpleCollector<Child> extends Collector {
   protected final String fullname;
@@ -55,10 +64,39 @@ public abstract class SimpleCollector<Child> extends Collector {
   protected final ConcurrentMap<List<String>, Child> children = new ConcurrentHashMap<List<String>, Child>();
   protected Child noLabelsChild;
 
+  /**
+   * Label value of the child that collects all observations exceeding {@link Builder#maxChildren(int)}.
+   */
+  public static final String OVERFLOW_LABEL_VALUE = "__overflow__";
+
+  /**
+   * What to do with new label sets once {@link Builder#maxChildren(int)} is reached.
+   */
+  public enum OverflowPolicy {
+    /**
+     * Record the observations in a child where all label values are {@link #OVERFLOW_LABEL_VALUE}.
+     */
+    OVERFLOW_CHILD,
+    /**
+     * Discard the observations. {@link #labels} returns a Child that isn't exported.
+     */
+    DROP
+  }
+
+  private final int maxChildren; // 0 means no limit
+  private final OverflowPolicy overflowPolicy;
+  private final LabelValues overflowLabelValues;
+  private final DoubleAdder overflowCount = new DoubleAdder();
+  private volatile Child droppedChild;
+  private final long expireAfterIdleMillis; // 0 means children never expire
+
   /**
    * Return the Child with the given labels, creating it if needed.
    * <p>
    * Must be passed the same number of labels are were passed to {@link #labelNames}.
+   * <p>
+   * For metrics with up to four labels, the fixed-arity overloads like {@link #labels(String, String)}
+   * avoid allocating the varargs array.
    */
   public Child labels(String... labelValues) {
     if (labelValues.length != labelNames.size()) {
@@ -69,23 +107,129 @@ public abstract class SimpleCollector<Child> extends Collector {
         throw new IllegalArgumentException("Label cannot be null.");
       }
     }
-    List<String> key = Arrays.asList(labelValues);
-    Child c = children.get(key);
+    return lookup(LabelValues.Probe.get().init(labelValues, labelValues.length));
+  }
+
+  /**
+   * Like {@link #labels(String...)}, for metrics with exactly one label.
+   */
+  public Child labels(String v1) {
+    if (labelNames.size() != 1) {
+      throw new IllegalArgumentException("Incorrect number of labels.");
+    }
+    if (v1 == null) {
+      throw new IllegalArgumentException("Label cannot be null.");
+    }
+    LabelValues.Probe probe = LabelValues.Probe.get();
+    probe.buffer[0] = v1;
+    return lookup(probe.init(1));
+  }
+
+  /**
+   * Like {@link #labels(String...)}, for metrics with exactly two labels.
+   */
+  public Child labels(String v1, String v2) {
+    if (labelNames.size() != 2) {
+      throw new IllegalArgumentException("Incorrect number of labels.");
+    }
+    if (v1 == null || v2 == null) {
+      throw new IllegalArgumentException("Label cannot be null.");
+    }
+    LabelValues.Probe probe = LabelValues.Probe.get();
+    probe.buffer[0] = v1;
+    probe.buffer[1] = v2;
+    return lookup(probe.init(2));
+  }
+
+  /**
+   * Like {@link #labels(String...)}, for metrics with exactly three labels.
+   */
+  public Child labels(String v1, String v2, String v3) {
+    if (labelNames.size() != 3) {
+      throw new IllegalArgumentException("Incorrect number of labels.");
+    }
+    if (v1 == null || v2 == null || v3 == null) {
+      throw new IllegalArgumentException("Label cannot be null.");
+    }
+    LabelValues.Probe probe = LabelValues.Probe.get();
+    probe.buffer[0] = v1;
+    probe.buffer[1] = v2;
+    probe.buffer[2] = v3;
+    return lookup(probe.init(3));
+  }
+
+  /**
+   * Like {@link #labels(String...)}, for metrics with exactly four labels.
+   */
+  public Child labels(String v1, String v2, String v3, String v4) {
+    if (labelNames.size() != 4) {
+      throw new IllegalArgumentException("Incorrect number of labels.");
+    }
+    if (v1 == null || v2 == null || v3 == null || v4 == null) {
+      throw new IllegalArgumentException("Label cannot be null.");
+    }
+    LabelValues.Probe probe = LabelValues.Probe.get();
+    probe.buffer[0] = v1;
+    probe.buffer[1] = v2;
+    probe.buffer[2] = v3;
+    probe.buffer[3] = v4;
+    return lookup(probe.init(4));
+  }
+
+  private Child lookup(LabelValues.Probe probe) {
+    Child c = children.get(probe);
     if (c != null) {
+      probe.reset();
+      if (expireAfterIdleMillis > 0 && c instanceof TrackedChild) {
+        ((TrackedChild) c).touch();
+      }
       return c;
     }
-    Child c2 = newChild();
+    if (maxChildren > 0 && isFull()) {
+      probe.reset();
+      return overflowChild();
+    }
+    // Copy the key before calling newChild(), which might use the probe of the current thread as well.
+    LabelValues key = probe.toLabelValues();
+    Child c2 = newChild(key);
     Child tmp = children.putIfAbsent(key, c2);
     return tmp == null ? c2 : tmp;
   }
 
+  private boolean isFull() {
+    int size = children.size();
+    if (size >= maxChildren && overflowLabelValues != null && children.containsKey(overflowLabelValues)) {
+      size--; // The overflow child doesn't count towards the limit.
+    }
+    return size >= maxChildren;
+  }
+
+  private Child overflowChild() {
+    overflowCount.add(1);
+    if (overflowPolicy == OverflowPolicy.DROP) {
+      Child c = droppedChild;
+      if (c == null) {
+        // Benign race: concurrent callers may see different children, all of them are discarded anyway.
+        c = droppedChild = newChild();
+      }
+      return c;
+    }
+    Child c = children.get(overflowLabelValues);
+    if (c != null) {
+      return c;
+    }
+    Child c2 = newChild(overflowLabelValues);
+    Child tmp = children.putIfAbsent(overflowLabelValues, c2);
+    return tmp == null ? c2 : tmp;
+  }
+
   /**
    * Remove the Child with the given labels.
    * <p>
    * Any references to the Child are invalidated.
    */
   public void remove(String... labelValues) {
-    children.remove(Arrays.asList(labelValues));
+    children.remove(new LabelValues(labelValues));
     initializeNoLabelsChild();
   }
   
@@ -99,6 +243,45 @@ public abstract class SimpleCollector<Child> extends Collector {
     initializeNoLabelsChild();
   }
   
+  /**
+   * Remove children that weren't used for the duration configured with {@link Builder#expireAfterIdle}.
+   * <p>
+   * This is called at the beginning of {@link #collect()}, so it doesn't need to be called explicitly.
+   */
+  protected void removeIdleChildren() {
+    if (expireAfterIdleMillis > 0 && !labelNames.isEmpty()) {
+      removeIdleChildren(Clock.getDefault().currentTimeMillis());
+    }
+  }
+
+  // Visible for testing.
+  void removeIdleChildren(long nowMillis) {
+    for (Map.Entry<List<String>, Child> entry : children.entrySet()) {
+      Child child = entry.getValue();
+      if (child instanceof TrackedChild && ((TrackedChild) child).isIdle(nowMillis, expireAfterIdleMillis)) {
+        children.remove(entry.getKey(), child);
+      }
+    }
+  }
+
+  /**
+   * Label values of the children that didn't change since the sweep that returned {@code token}, see
+   * {@link CollectorRegistry#metricFamilySamplesChangedSince(long)}. Children that don't track changes are
+   * always considered changed.
+   *
+   * @param generation of the current sweep.
+   */
+  Set<List<String>> sweepUnchangedChildren(long token, long generation) {
+    Set<List<String>> unchanged = new HashSet<List<String>>();
+    for (Map.Entry<List<String>, Child> entry : children.entrySet()) {
+      Child child = entry.getValue();
+      if (child instanceof TrackedChild && ((TrackedChild) child).sweepChanges(generation) <= token) {
+        unchanged.add(entry.getKey());
+      }
+    }
+    return unchanged;
+  }
+
   /**
    * Initialize the child with no labels.
    */
@@ -136,7 +319,7 @@ public abstract class SimpleCollector<Child> extends Collector {
     if (labelValues.length != labelNames.size()) {
       throw new IllegalArgumentException("Incorrect number of labels.");
     }
-    children.put(Arrays.asList(labelValues), child);
+    children.put(new LabelValues(labelValues.clone()), child);
     return (T)this;
   }
 
@@ -145,13 +328,112 @@ public abstract class SimpleCollector<Child> extends Collector {
    */
   protected abstract Child newChild();
 
+  /**
+   * Return a new child for the given label values.
+   * <p>
+   * The default calls {@link #newChild()}. Override this if the child depends on its labels, e.g. to store its
+   * value in a {@link MultiprocessStore}.
+   */
+  protected Child newChild(List<String> labelValues) {
+    return newChild();
+  }
+
   protected List<MetricFamilySamples> familySamplesList(Collector.Type type, List<MetricFamilySamples.Sample> samples) {
     MetricFamilySamples mfs = new MetricFamilySamples(fullname, unit, type, help, samples);
-    List<MetricFamilySamples> mfsList = new ArrayList<MetricFamilySamples>(1);
+    List<MetricFamilySamples> mfsList = new ArrayList<MetricFamilySamples>(2);
     mfsList.add(mfs);
+    if (maxChildren > 0) {
+      mfsList.add(new CounterMetricFamily(overflowName(), overflowHelp(), overflowCount.sum()));
+    }
+    return mfsList;
+  }
+
+  /**
+   * Like {@link #familySamplesList(Collector.Type, List)}, but for {@link #collect(Predicate)}.
+   * If {@code sampleNameFilter} is not {@code null}, families without matching samples are left out.
+   *
+   * @param samples only the samples matching {@code sampleNameFilter}.
+   */
+  protected List<MetricFamilySamples> familySamplesList(Collector.Type type, List<MetricFamilySamples.Sample> samples,
+                                                        Predicate<String> sampleNameFilter) {
+    if (sampleNameFilter == null) {
+      return familySamplesList(type, samples);
+    }
+    List<MetricFamilySamples> mfsList = new ArrayList<MetricFamilySamples>(2);
+    if (!samples.isEmpty()) {
+      mfsList.add(new MetricFamilySamples(fullname, unit, type, help, samples));
+    }
+    if (maxChildren > 0 && sampleNameFilter.test(overflowName() + "_total")) {
+      mfsList.add(new CounterMetricFamily(overflowName(), overflowHelp(), overflowCount.sum()));
+    }
     return mfsList;
   }
 
+  /**
+   * Like {@link #familySamplesList}, but for {@link #collect(SampleSink, Predicate)}.
+   * Call this after writing the family itself, it writes the family counting rejected label sets if
+   * {@link Builder#maxChildren(int)} is set and it matches {@code sampleNameFilter}.
+   *
+   * @param sampleNameFilter may be {@code null}, indicating that all metrics should be collected.
+   */
+  protected void writeOverflowFamily(SampleSink sink, Predicate<String> sampleNameFilter) throws IOException {
+    if (maxChildren > 0 && (sampleNameFilter == null || sampleNameFilter.test(overflowName() + "_total"))) {
+      sink.startFamily(overflowName(), "", Type.COUNTER, overflowHelp());
+      sink.sample(overflowName() + "_total", Collections.<String>emptyList(), Collections.<String>emptyList(),
+          null, null, overflowCount.sum(), null, null);
+      sink.endFamily();
+    }
+  }
+
+  /**
+   * Implements {@link #collect(Predicate)} on top of {@link #collect(SampleSink, Predicate)}, so that the samples
+   * are only created in one place. If {@code sampleNameFilter} is not {@code null}, families without samples are
+   * left out.
+   * <p>
+   * The label lists passed to the sink are referenced, not copied, so they must not change after the call.
+   */
+  List<MetricFamilySamples> collectToList(Predicate<String> sampleNameFilter) {
+    ListSink sink = new ListSink(false);
+    try {
+      collect(sink, sampleNameFilter);
+    } catch (IOException e) {
+      throw new IllegalStateException(e); // ListSink doesn't throw
+    }
+    if (sampleNameFilter == null) {
+      return sink.metricFamilySamples;
+    }
+    List<MetricFamilySamples> mfsList = new ArrayList<MetricFamilySamples>(sink.metricFamilySamples.size());
+    for (MetricFamilySamples mfs : sink.metricFamilySamples) {
+      if (!mfs.samples.isEmpty()) {
+        mfsList.add(mfs);
+      }
+    }
+    return mfsList;
+  }
+
+  /**
+   * Like {@link #familySamplesList}, but for {@link Describable#describe()}.
+   * <p>
+   * The result includes the family counting rejected label sets if {@link Builder#maxChildren(int)} is set.
+   */
+  protected List<MetricFamilySamples> familyDescriptionList(MetricFamilySamples mfs) {
+    if (maxChildren == 0) {
+      return Collections.singletonList(mfs);
+    }
+    List<MetricFamilySamples> mfsList = new ArrayList<MetricFamilySamples>(2);
+    mfsList.add(mfs);
+    mfsList.add(new CounterMetricFamily(overflowName(), overflowHelp(), Collections.<String>emptyList()));
+    return mfsList;
+  }
+
+  private String overflowName() {
+    return fullname + "_cardinality_overflow";
+  }
+
+  private String overflowHelp() {
+    return "Number of times a new label set for " + fullname + " was rejected because maxChildren was reached.";
+  }
+
   protected SimpleCollector(Builder b) {
     if (b.name.isEmpty()) throw new IllegalStateException("Name hasn't been set.");
     String name = b.name;
@@ -175,6 +457,17 @@ public abstract class SimpleCollector<Child> extends Collector {
       checkMetricLabelName(n);
     }
 
+    expireAfterIdleMillis = b.expireAfterIdleMillis;
+    maxChildren = b.maxChildren;
+    overflowPolicy = b.overflowPolicy;
+    if (maxChildren > 0 && overflowPolicy == OverflowPolicy.OVERFLOW_CHILD && !labelNames.isEmpty()) {
+      String[] overflowValues = new String[labelNames.size()];
+      Arrays.fill(overflowValues, OVERFLOW_LABEL_VALUE);
+      overflowLabelValues = new LabelValues(overflowValues);
+    } else {
+      overflowLabelValues = null;
+    }
+
     if (!b.dontInitializeNoLabelsChild) {
       initializeNoLabelsChild();
     }
@@ -191,6 +484,9 @@ public abstract class SimpleCollector<Child> extends Collector {
     String unit = "";
     String help = "";
     String[] labelNames = new String[]{};
+    int maxChildren = 0;
+    OverflowPolicy overflowPolicy = OverflowPolicy.OVERFLOW_CHILD;
+    long expireAfterIdleMillis = 0;
     // Some metrics require additional setup before the initialization can be done.
     boolean dontInitializeNoLabelsChild;
 
@@ -238,6 +534,53 @@ public abstract class SimpleCollector<Child> extends Collector {
       this.labelNames = labelNames;
       return (B)this;
     }
+    /**
+     * Set the maximum number of children, i.e. of distinct label sets. Optional, defaults to no limit.
+     * <p>
+     * Once the limit is reached, observations for new label sets are recorded in a single child
+     * where all label values are {@link SimpleCollector#OVERFLOW_LABEL_VALUE}.
+     * The number of rejected lookups of new label sets is exported as {@code <name>_cardinality_overflow_total}.
+     * A label set that is looked up repeatedly is counted each time, rejected label sets are not remembered.
+     * <p>
+     * The limit is not strict, concurrent calls to {@link SimpleCollector#labels} may exceed it by a few children.
+     */
+    public B maxChildren(int maxChildren) {
+      return maxChildren(maxChildren, OverflowPolicy.OVERFLOW_CHILD);
+    }
+    /**
+     * Remove children that weren't used for the given duration. Optional, by default children are kept until
+     * {@link SimpleCollector#remove} or {@link SimpleCollector#clear} is called.
+     * <p>
+     * This is useful for labels referring to short-lived entities, like tenants or upstream hosts.
+     * A child is in use if it is updated or returned by {@link SimpleCollector#labels}.
+     * Idle children are removed when the metric is collected, so the actual expiry time depends on the
+     * scrape interval. The child without labels never expires.
+     * <p>
+     * Callbacks installed with {@link Gauge#setCallback} never expire.
+     * <em>Warning:</em> Other children that are only read, like custom children installed with
+     * {@link SimpleCollector#setChild}, are considered idle. References to a Child become invalid when it expires.
+     */
+    public B expireAfterIdle(long duration, TimeUnit unit) {
+      if (duration <= 0) {
+        throw new IllegalArgumentException("expireAfterIdle cannot be " + duration);
+      }
+      this.expireAfterIdleMillis = Math.max(1, unit.toMillis(duration));
+      return (B)this;
+    }
+    /**
+     * Like {@link #maxChildren(int)}, but with a custom {@link OverflowPolicy}.
+     */
+    public B maxChildren(int maxChildren, OverflowPolicy overflowPolicy) {
+      if (maxChildren <= 0) {
+        throw new IllegalArgumentException("maxChildren cannot be " + maxChildren);
+      }
+      if (overflowPolicy == null) {
+        throw new NullPointerException();
+      }
+      this.maxChildren = maxChildren;
+      this.overflowPolicy = overflowPolicy;
+      return (B)this;
+    }
 
     /**
      * Return the constructed collector.
@@ -0,0 +1,101 @@
+package io.prometheus.client;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free buffer for observations, striped by thread to reduce contention.
+ * <p>
+ * Each stripe holds a small buffer. A writer reserves a slot in the buffer of its stripe with a single
+ * atomic increment. When a buffer is full, the writer that notices replaces it with an empty buffer and passes
+ * the full one to {@link #flush(double[], int)}, so expensive processing happens once per buffer rather than
+ * once per observation. {@link #flushAll()} passes on everything that is buffered, it is intended to be called
+ * before reading the results.
+ * <p>
+ * Stripes are created lazily, a buffer used by a single thread costs one stripe.
+ */
+abstract class StripedBuffer {
+
+  static final int BUFFER_SIZE = 64;
+  private static final int MAX_STRIPES = 32;
+  private static final int NUMBER_OF_STRIPES = numberOfStripes(Runtime.getRuntime().availableProcessors());
+
+  private final AtomicReferenceArray<Buffer> stripes = new AtomicReferenceArray<Buffer>(NUMBER_OF_STRIPES);
+
+  private static final class Buffer {
+    final double[] values = new double[BUFFER_SIZE];
+    final AtomicInteger reserved = new AtomicInteger();
+    final AtomicInteger written = new AtomicInteger();
+  }
+
+  /**
+   * Called with the content of a buffer. {@code values} must not be used after this method returns.
+   * <p>
+   * This is called by the threads calling {@link #add(double)} and {@link #flushAll()}, possibly concurrently.
+   */
+  abstract void flush(double[] values, int count);
+
+  void add(double value) {
+    int i = stripeIndex();
+    while (true) {
+      Buffer buffer = stripes.get(i);
+      if (buffer == null) {
+        stripes.compareAndSet(i, null, new Buffer());
+        continue;
+      }
+      int pos = buffer.reserved.getAndIncrement();
+      if (pos < BUFFER_SIZE) {
+        buffer.values[pos] = value;
+        buffer.written.incrementAndGet();
+        if (pos == BUFFER_SIZE - 1) {
+          replace(i, buffer);
+        }
+        return;
+      }
+      // The buffer is full. Make sure it gets replaced, and try again.
+      replace(i, buffer);
+    }
+  }
+
+  /**
+   * Pass all observations that are currently buffered to {@link #flush(double[], int)}.
+   * <p>
+   * Observations that are added concurrently may or may not be included.
+   */
+  void flushAll() {
+    for (int i = 0; i < stripes.length(); i++) {
+      Buffer buffer = stripes.get(i);
+      if (buffer != null && buffer.reserved.get() > 0) {
+        replace(i, buffer);
+      }
+    }
+  }
+
+  private void replace(int i, Buffer buffer) {
+    // Only the thread that removes the buffer from the stripe flushes it.
+    if (stripes.compareAndSet(i, buffer, new Buffer())) {
+      // Close the buffer, so that late writers will retry with the new buffer.
+      int count = Math.min(buffer.reserved.getAndAdd(BUFFER_SIZE), BUFFER_SIZE);
+      // Wait for writers that reserved a slot but didn't write it yet.
+      while (buffer.written.get() < count) {
+        Thread.yield();
+      }
+      flush(buffer.values, count);
+    }
+  }
+
+  private static int stripeIndex() {
+    // Fibonacci hashing spreads the sequential thread ids over the stripes.
+    long id = Thread.currentThread().getId();
+    int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+    return (h >>> 16) & (NUMBER_OF_STRIPES - 1);
+  }
+
+  private static int numberOfStripes(int ncpu) {
+    int n = 1;
+    while (n < ncpu && n < MAX_STRIPES) {
+      n <<= 1;
+    }
+    return n;
+  }
+}
@@ -3,8 +3,10 @@ package io.prometheus.client;
 import io.prometheus.client.CKMSQuantiles.Quantile;
 
 import java.io.Closeable;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
@@ -98,18 +100,37 @@ import java.util.concurrent.TimeUnit;
  *
  * The default is a time window of 10 minutes and 5 age buckets, i.e. the time window is 10 minutes wide, and
  * we slide it forward every 2 minutes.
+ * <p>
+ * By default quantiles are estimated with the CKMS algorithm described above. A different {@link QuantileEstimator}
+ * can be selected with {@link Builder#quantileEstimator(QuantileEstimator.Factory)}, for example
+ * {@link RelativeErrorSketch} or {@link TDigest}.
+ * <p>
+ * Observations are inserted into the quantile estimators of a child while holding a lock. If many threads observe
+ * the same child, {@link Builder#bufferObservations()} avoids the lock on most observations.
  */
 public class Summary extends SimpleCollector<Summary.Child> implements Counter.Describable {
 
   final List<Quantile> quantiles; // Can be empty, but can never be null.
+  private final Map<Double, String> quantileLabelValues = new HashMap<Double, String>();
   final long maxAgeSeconds;
   final int ageBuckets;
+  final QuantileEstimator.Factory quantileEstimator;
+  final boolean bufferObservations;
 
   Summary(Builder b) {
     super(b);
     quantiles = Collections.unmodifiableList(new ArrayList<Quantile>(b.quantiles));
+    for (Quantile q : quantiles) {
+      quantileLabelValues.put(q.quantile, doubleToGoString(q.quantile));
+    }
     this.maxAgeSeconds = b.maxAgeSeconds;
     this.ageBuckets = b.ageBuckets;
+    if (b.quantileEstimator != null) {
+      this.quantileEstimator = b.quantileEstimator;
+    } else {
+      this.quantileEstimator = CKMSQuantiles.factory(quantiles.toArray(new Quantile[]{}));
+    }
+    this.bufferObservations = b.bufferObservations;
     initializeNoLabelsChild();
   }
 
@@ -118,6 +139,8 @@ public class Summary extends SimpleCollector<Summary.Child> implements Counter.D
     private final List<Quantile> quantiles = new ArrayList<Quantile>();
     private long maxAgeSeconds = TimeUnit.MINUTES.toSeconds(10);
     private int ageBuckets = 5;
+    private QuantileEstimator.Factory quantileEstimator;
+    private boolean bufferObservations = false;
 
     /**
      * The class JavaDoc for {@link Summary} has more information on {@link #quantile(double, double)}.
@@ -158,6 +181,33 @@ public class Summary extends SimpleCollector<Summary.Child> implements Counter.D
       return this;
     }
 
+    /**
+     * Use a different algorithm for estimating the quantiles configured with {@link #quantile(double, double)}.
+     * The allowed error passed to {@link #quantile(double, double)} only applies to the default CKMS algorithm,
+     * other estimators have their own accuracy parameters.
+     * @see QuantileEstimator
+     */
+    public Builder quantileEstimator(QuantileEstimator.Factory quantileEstimator) {
+      if (quantileEstimator == null) {
+        throw new NullPointerException();
+      }
+      this.quantileEstimator = quantileEstimator;
+      return this;
+    }
+
+    /**
+     * Collect observations for the quantile estimators in per-thread buffers, and insert them in batches when a
+     * buffer is full or when the summary is collected. Optional, by default each observation is inserted
+     * while holding a lock.
+     * <p>
+     * This reduces lock contention when many threads observe the same child. Observations still expire with the
+     * time window they were made in.
+     */
+    public Builder bufferObservations() {
+      this.bufferObservations = true;
+      return this;
+    }
+
     @Override
     public Summary create() {
       for (String label : labelNames) {
@@ -189,7 +239,7 @@ public class Summary extends SimpleCollector<Summary.Child> implements Counter.D
 
   @Override
   protected Child newChild() {
-    return new Child(quantiles, maxAgeSeconds, ageBuckets);
+    return new Child(quantiles, quantileEstimator, maxAgeSeconds, ageBuckets, bufferObservations);
   }
 
 
@@ -228,7 +278,7 @@ public class Summary extends SimpleCollector<Summary.Child> implements Counter.D
    * <em>Warning:</em> References to a Child become invalid after using
    * {@link SimpleCollector#remove} or {@link SimpleCollector#clear}.
    */
-  public static class Child {
+  public static class Child extends TrackedChild {
 
     /**
      * Executes runnable code (e.g. a Java 8 Lambda) and observes a duration of how long it took to run.
@@ -290,20 +340,17 @@ public class Summary extends SimpleCollector<Summary.Child> implements Counter.D
       }
     }
 
-    // Having these separate leaves us open to races,
-    // however Prometheus as whole has other races
-    // that mean adding atomicity here wouldn't be useful.
-    // This should be reevaluated in the future.
-    private final DoubleAdder count = new DoubleAdder();
-    private final DoubleAdder sum = new DoubleAdder();
+    // A single bucket holds the count, so that count and sum are always read from the same observations.
+    private final HistogramCells countAndSum = new HistogramCells(1);
     private final List<Quantile> quantiles;
     private final TimeWindowQuantiles quantileValues;
-    private final long created = System.currentTimeMillis();
+    private final long created = Clock.getDefault().currentTimeMillis();
 
-    private Child(List<Quantile> quantiles, long maxAgeSeconds, int ageBuckets) {
+    private Child(List<Quantile> quantiles, QuantileEstimator.Factory quantileEstimator, long maxAgeSeconds,
+                  int ageBuckets, boolean bufferObservations) {
       this.quantiles = quantiles;
       if (quantiles.size() > 0) {
-        quantileValues = new TimeWindowQuantiles(quantiles.toArray(new Quantile[]{}), maxAgeSeconds, ageBuckets);
+        quantileValues = new TimeWindowQuantiles(quantileEstimator, maxAgeSeconds, ageBuckets, bufferObservations);
       } else {
         quantileValues = null;
       }
@@ -317,11 +364,33 @@ public class Summary extends SimpleCollector<Summary.Child> implements Counter.D
      *            implications and alternatives.
      */
     public void observe(double amt) {
-      count.add(1);
-      sum.add(amt);
+      countAndSum.observe(0, amt);
       if (quantileValues != null) {
         quantileValues.insert(amt);
       }
+      changed();
+    }
+
+    /**
+     * Observe {@code values[from]} to {@code values[to - 1]}.
+     * <p>
+     * Same as calling {@link #observe(double)} for each value, but the count and sum are updated once for all
+     * values, and large batches are inserted into the quantile estimators directly.
+     * {@link #get()} sees the count and sum of either all or none of the values.
+     */
+    public void observeAll(double[] values, int from, int to) {
+      if (from >= to) {
+        return;
+      }
+      double sum = 0;
+      for (int i = from; i < to; i++) {
+        sum += values[i];
+      }
+      countAndSum.observeAll(new long[]{to - from}, sum);
+      if (quantileValues != null) {
+        quantileValues.insertAll(values, from, to);
+      }
+      changed();
     }
     /**
      * Start a timer to track a duration.
@@ -337,7 +406,17 @@ public class Summary extends SimpleCollector<Summary.Child> implements Counter.D
      * <em>Warning:</em> The definition of {@link Value} is subject to change.
      */
     public Value get() {
-      return new Value(count.sum(), sum.sum(), quantiles, quantileValues, created);
+      return get(true);
+    }
+
+    /**
+     * Like {@link #get()}, but with empty {@link Value#quantiles} if {@code withQuantiles} is {@code false},
+     * which saves computing them.
+     */
+    Value get(boolean withQuantiles) {
+      HistogramCells.Snapshot snapshot = countAndSum.snapshot();
+      return new Value(snapshot.counts[0], snapshot.sum,
+          withQuantiles ? quantiles : Collections.<Quantile>emptyList(), quantileValues, created);
     }
   }
 
@@ -352,6 +431,13 @@ public class Summary extends SimpleCollector<Summary.Child> implements Counter.D
   public void observe(double amt) {
     noLabelsChild.observe(amt);
   }
+
+  /**
+   * Like {@link Child#observeAll(double[], int, int)}, but for the summary with no labels.
+   */
+  public void observeAll(double[] values, int from, int to) {
+    noLabelsChild.observeAll(values, from, to);
+  }
   /**
    * Start a timer to track a duration on the summary with no labels.
    * <p>
@@ -392,29 +478,59 @@ public class Summary extends SimpleCollector<Summary.Child> implements Counter.D
 
   @Override
   public List<MetricFamilySamples> collect() {
-    List<MetricFamilySamples.Sample> samples = new ArrayList<MetricFamilySamples.Sample>();
-    for(Map.Entry<List<String>, Child> c: children.entrySet()) {
-      Child.Value v = c.getValue().get();
-      List<String> labelNamesWithQuantile = new ArrayList<String>(labelNames);
-      labelNamesWithQuantile.add("quantile");
-      for(Map.Entry<Double, Double> q : v.quantiles.entrySet()) {
-        List<String> labelValuesWithQuantile = new ArrayList<String>(c.getKey());
-        labelValuesWithQuantile.add(doubleToGoString(q.getKey()));
-        samples.add(new MetricFamilySamples.Sample(fullname, labelNamesWithQuantile, labelValuesWithQuantile, q.getValue()));
-      }
-      samples.add(new MetricFamilySamples.Sample(fullname + "_count", labelNames, c.getKey(), v.count));
-      samples.add(new MetricFamilySamples.Sample(fullname + "_sum", labelNames, c.getKey(), v.sum));
-      if (Environment.includeCreatedSeries()) {
-        samples.add(new MetricFamilySamples.Sample(fullname + "_created", labelNames, c.getKey(), v.created / 1000.0));
+    return collect(null);
+  }
+
+  @Override
+  public List<MetricFamilySamples> collect(Predicate<String> sampleNameFilter) {
+    return collectToList(sampleNameFilter);
+  }
+
+  /**
+   * Only creates the quantile, {@code _count}, {@code _sum} and {@code _created} samples that match
+   * {@code sampleNameFilter}. Quantiles are not computed if they don't match.
+   */
+  @Override
+  public void collect(SampleSink sink, Predicate<String> sampleNameFilter) throws IOException {
+    removeIdleChildren();
+    String countName = fullname + "_count";
+    String sumName = fullname + "_sum";
+    String createdName = fullname + "_created";
+    boolean includeQuantiles = sampleNameFilter == null || sampleNameFilter.test(fullname);
+    boolean includeCount = sampleNameFilter == null || sampleNameFilter.test(countName);
+    boolean includeSum = sampleNameFilter == null || sampleNameFilter.test(sumName);
+    boolean includeCreated = Environment.includeCreatedSeries()
+        && (sampleNameFilter == null || sampleNameFilter.test(createdName));
+    if (includeQuantiles || includeCount || includeSum || includeCreated) {
+      sink.startFamily(fullname, unit, Type.SUMMARY, help);
+      for(Map.Entry<List<String>, Child> c: children.entrySet()) {
+        Child.Value v = c.getValue().get(includeQuantiles);
+        for(Map.Entry<Double, Double> q : v.quantiles.entrySet()) {
+          sink.sample(fullname, labelNames, c.getKey(), "quantile", quantileLabelValue(q.getKey()), q.getValue(), null, null);
+        }
+        if (includeCount) {
+          sink.sample(countName, labelNames, c.getKey(), null, null, v.count, null, null);
+        }
+        if (includeSum) {
+          sink.sample(sumName, labelNames, c.getKey(), null, null, v.sum, null, null);
+        }
+        if (includeCreated) {
+          sink.sample(createdName, labelNames, c.getKey(), null, null, v.created / 1000.0, null, null);
+        }
       }
+      sink.endFamily();
     }
+    writeOverflowFamily(sink, sampleNameFilter);
+  }
 
-    return familySamplesList(Type.SUMMARY, samples);
+  private String quantileLabelValue(double quantile) {
+    String result = quantileLabelValues.get(quantile);
+    return result != null ? result : doubleToGoString(quantile);
   }
 
   @Override
   public List<MetricFamilySamples> describe() {
-    return Collections.<MetricFamilySamples>singletonList(new SummaryMetricFamily(fullname, help, labelNames));
+    return familyDescriptionList(new SummaryMetricFamily(fullname, help, labelNames));
   }
 
 }
@@ -0,0 +1,212 @@
+package io.prometheus.client;
+
+import java.util.Arrays;
+
+/**
+ * {@link QuantileEstimator} based on the merging t-digest, as described in
+ * "Computing Extremely Accurate Quantiles Using t-Digests" by Dunning and Ertl.
+ * <p>
+ * Observations are summarized as centroids (mean and weight). The centroids near the minimum and maximum
+ * hold few observations, so the error is smallest for quantiles close to 0 and 1.
+ * The {@code compression} parameter limits the number of centroids to about {@code compression + 2}.
+ * Observations are buffered and merged into the centroids when the buffer is full, so inserting is
+ * constant-time amortized.
+ * <p>
+ * Digests with any compression can be combined with {@link #merge(TDigest)}.
+ * <p>
+ * This class is not thread-safe.
+ */
+public final class TDigest implements QuantileEstimator {
+
+  private static final double DEFAULT_COMPRESSION = 100;
+
+  private final double compression;
+
+  // Centroids, ordered by mean. Merging appends to the end of these arrays, so they have room for the buffer.
+  private double[] mean;
+  private double[] weight;
+  private int centroidCount = 0;
+  private double totalWeight = 0; // not including the buffer
+
+  private final double[] buffer;
+  private int bufferPos = 0;
+
+  private double min = Double.POSITIVE_INFINITY;
+  private double max = Double.NEGATIVE_INFINITY;
+
+  public TDigest() {
+    this(DEFAULT_COMPRESSION);
+  }
+
+  /**
+   * @param compression must be at least 10. Higher values give better accuracy and use more memory.
+   */
+  public TDigest(double compression) {
+    if (!(compression >= 10)) {
+      throw new IllegalArgumentException("compression cannot be " + compression);
+    }
+    this.compression = compression;
+    int maxCentroids = (int) Math.ceil(compression) + 2;
+    this.buffer = new double[maxCentroids];
+    this.mean = new double[maxCentroids + buffer.length];
+    this.weight = new double[maxCentroids + buffer.length];
+  }
+
+  /**
+   * Factory for {@link Summary.Builder#quantileEstimator(QuantileEstimator.Factory)}.
+   */
+  public static QuantileEstimator.Factory factory(final double compression) {
+    new TDigest(compression); // validate
+    return new QuantileEstimator.Factory() {
+      @Override
+      public QuantileEstimator create() {
+        return new TDigest(compression);
+      }
+    };
+  }
+
+  @Override
+  public void insert(double value) {
+    if (Double.isNaN(value)) {
+      return;
+    }
+    buffer[bufferPos++] = value;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+    if (bufferPos == buffer.length) {
+      flush();
+    }
+  }
+
+  /**
+   * Add all observations of {@code other} to this digest. {@code other} may be compacted, but it keeps its
+   * observations.
+   */
+  public void merge(TDigest other) {
+    other.flush();
+    flush();
+    if (other.centroidCount == 0) {
+      return;
+    }
+    mergeSorted(other.mean, other.weight, other.centroidCount);
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+  }
+
+  @Override
+  public double get(double q) {
+    flush();
+    if (centroidCount == 0) {
+      return Double.NaN;
+    }
+    if (q == 0.0) {
+      return min;
+    }
+    if (q == 1.0) {
+      return max;
+    }
+    double index = q * totalWeight;
+    // The first and last centroid are interpolated with the exact min and max.
+    if (index < weight[0] / 2) {
+      return min + (mean[0] - min) * index / (weight[0] / 2);
+    }
+    double weightSoFar = weight[0] / 2;
+    for (int i = 0; i < centroidCount - 1; i++) {
+      double dw = (weight[i] + weight[i + 1]) / 2;
+      if (weightSoFar + dw > index) {
+        return mean[i] + (mean[i + 1] - mean[i]) * (index - weightSoFar) / dw;
+      }
+      weightSoFar += dw;
+    }
+    int last = centroidCount - 1;
+    double z = Math.min(index - weightSoFar, weight[last] / 2);
+    return mean[last] + (max - mean[last]) * z / (weight[last] / 2);
+  }
+
+  @Override
+  public void reset() {
+    centroidCount = 0;
+    totalWeight = 0;
+    bufferPos = 0;
+    min = Double.POSITIVE_INFINITY;
+    max = Double.NEGATIVE_INFINITY;
+  }
+
+  private void flush() {
+    if (bufferPos == 0) {
+      return;
+    }
+    Arrays.sort(buffer, 0, bufferPos);
+    mergeSorted(buffer, null, bufferPos);
+    bufferPos = 0;
+  }
+
+  /**
+   * Merge the sorted centroids into the current centroids and compress the result.
+   * A {@code null} srcWeight means that every centroid has weight 1.
+   */
+  private void mergeSorted(double[] srcMean, double[] srcWeight, int n) {
+    if (centroidCount + n > mean.length) {
+      mean = Arrays.copyOf(mean, centroidCount + n);
+      weight = Arrays.copyOf(weight, centroidCount + n);
+    }
+    // Merge from right to left, so that no temporary arrays are needed.
+    int j = centroidCount - 1;
+    int out = centroidCount + n - 1;
+    for (int i = n - 1; i >= 0; i--) {
+      while (j >= 0 && mean[j] > srcMean[i]) {
+        mean[out] = mean[j];
+        weight[out] = weight[j];
+        out--;
+        j--;
+      }
+      mean[out] = srcMean[i];
+      weight[out] = srcWeight == null ? 1 : srcWeight[i];
+      totalWeight += weight[out];
+      out--;
+    }
+    centroidCount += n;
+    compress();
+  }
+
+  /**
+   * Merge neighbouring centroids as long as each centroid spans at most one unit of the scale function.
+   */
+  private void compress() {
+    int out = 0;
+    double weightSoFar = 0;
+    double weightLimit = totalWeight * q(k(0) + 1);
+    for (int i = 1; i < centroidCount; i++) {
+      double proposed = weight[out] + weight[i];
+      if (weightSoFar + proposed <= weightLimit) {
+        mean[out] += (mean[i] - mean[out]) * weight[i] / proposed;
+        weight[out] = proposed;
+      } else {
+        weightSoFar += weight[out];
+        weightLimit = totalWeight * q(k(weightSoFar / totalWeight) + 1);
+        out++;
+        mean[out] = mean[i];
+        weight[out] = weight[i];
+      }
+    }
+    centroidCount = out + 1;
+  }
+
+  /**
+   * Scale function k1 from the paper: k(q) = compression / (2 pi) * asin(2q - 1).
+   */
+  private double k(double q) {
+    return compression / (2 * Math.PI) * Math.asin(Math.max(-1.0, Math.min(1.0, 2 * q - 1)));
+  }
+
+  /**
+   * Inverse of {@link #k(double)}.
+   */
+  private double q(double k) {
+    double x = k * 2 * Math.PI / compression;
+    if (x >= Math.PI / 2) {
+      return 1.0;
+    }
+    return (Math.sin(x) + 1) / 2;
+  }
+}
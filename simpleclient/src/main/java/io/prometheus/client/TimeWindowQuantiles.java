@@ -1,54 +1,125 @@
 package io.prometheus.client;
 
-import io.prometheus.client.CKMSQuantiles.Quantile;
 import java.util.concurrent.TimeUnit;
 
 /**
- * Wrapper around CKMSQuantiles.
+ * Wrapper around {@link QuantileEstimator}.
  *
- * Maintains a ring buffer of CKMSQuantiles to provide quantiles over a sliding windows of time.
+ * Maintains a ring buffer of QuantileEstimators to provide quantiles over a sliding windows of time.
+ * <p>
+ * By default observations are inserted into the QuantileEstimators while holding the lock.
+ * If observations are buffered, {@link #insert(double)} doesn't take a lock unless the ring buffer needs to be
+ * rotated. Observations are collected in a {@link StripedBuffer}, and inserted into the QuantileEstimators in
+ * batches when a buffer is full or when {@link #get(double)} is called. All buffered observations are inserted
+ * before rotating, so they expire with the time window they were made in. An observation made concurrently with
+ * a rotation may end up in the next time window.
  */
 class TimeWindowQuantiles {
 
-  private final Quantile[] quantiles;
-  private final CKMSQuantiles[] ringBuffer;
+  private final QuantileEstimator[] ringBuffer;
   private int currentBucket;
   private long lastRotateTimestampMillis;
+  private volatile long nextRotateTimestampMillis; // written while holding the lock
   private final long durationBetweenRotatesMillis;
+  private final StripedBuffer buffer; // null if observations are not buffered
 
-  public TimeWindowQuantiles(Quantile[] quantiles, long maxAgeSeconds, int ageBuckets) {
-    this.quantiles = quantiles;
-    this.ringBuffer = new CKMSQuantiles[ageBuckets];
+  public TimeWindowQuantiles(QuantileEstimator.Factory estimatorFactory, long maxAgeSeconds, int ageBuckets,
+                             boolean bufferObservations) {
+    this.ringBuffer = new QuantileEstimator[ageBuckets];
     for (int i = 0; i < ageBuckets; i++) {
-      this.ringBuffer[i] = new CKMSQuantiles(quantiles);
+      this.ringBuffer[i] = estimatorFactory.create();
     }
     this.currentBucket = 0;
     this.lastRotateTimestampMillis = System.currentTimeMillis();
     this.durationBetweenRotatesMillis = TimeUnit.SECONDS.toMillis(maxAgeSeconds) / ageBuckets;
+    this.nextRotateTimestampMillis = lastRotateTimestampMillis + durationBetweenRotatesMillis;
+    if (bufferObservations) {
+      buffer = new StripedBuffer() {
+        @Override
+        void flush(double[] values, int count) {
+          insertBatch(values, 0, count);
+        }
+      };
+    } else {
+      buffer = null;
+    }
   }
 
   public synchronized double get(double q) {
-    CKMSQuantiles currentBucket = rotate();
+    QuantileEstimator currentBucket = rotate();
+    if (buffer != null) {
+      buffer.flushAll();
+    }
     return currentBucket.get(q);
   }
 
-  public synchronized void insert(double value) {
-    rotate();
-    for (CKMSQuantiles ckmsQuantiles : ringBuffer) {
-      ckmsQuantiles.insert(value);
+  public void insert(double value) {
+    if (buffer == null) {
+      synchronized (this) {
+        rotate();
+        for (QuantileEstimator estimator : ringBuffer) {
+          estimator.insert(value);
+        }
+      }
+    } else {
+      rotateIfDue();
+      buffer.add(value);
     }
   }
 
-  private CKMSQuantiles rotate() {
+  /**
+   * Insert {@code values[from]} to {@code values[to - 1]}.
+   * If observations are buffered, batches that are at least as large as a buffer are inserted directly,
+   * without going through the buffer.
+   */
+  public void insertAll(double[] values, int from, int to) {
+    if (buffer == null || to - from >= StripedBuffer.BUFFER_SIZE) {
+      synchronized (this) {
+        rotate();
+        insertBatch(values, from, to);
+      }
+    } else {
+      rotateIfDue();
+      for (int i = from; i < to; i++) {
+        buffer.add(values[i]);
+      }
+    }
+  }
+
+  /**
+   * Make sure that observations made after this call are not inserted before the next rotation.
+   */
+  private void rotateIfDue() {
+    if (System.currentTimeMillis() > nextRotateTimestampMillis) {
+      synchronized (this) {
+        rotate();
+      }
+    }
+  }
+
+  private synchronized void insertBatch(double[] values, int from, int to) {
+    for (QuantileEstimator estimator : ringBuffer) {
+      for (int i = from; i < to; i++) {
+        estimator.insert(values[i]);
+      }
+    }
+  }
+
+  private QuantileEstimator rotate() {
     long timeSinceLastRotateMillis = System.currentTimeMillis() - lastRotateTimestampMillis;
+    if (timeSinceLastRotateMillis > durationBetweenRotatesMillis && buffer != null) {
+      // Observations are only buffered if no rotation was due, so they belong to the current time windows.
+      buffer.flushAll();
+    }
     while (timeSinceLastRotateMillis > durationBetweenRotatesMillis) {
-      ringBuffer[currentBucket] = new CKMSQuantiles(quantiles);
+      ringBuffer[currentBucket].reset();
       if (++currentBucket >= ringBuffer.length) {
         currentBucket = 0;
       }
       timeSinceLastRotateMillis -= durationBetweenRotatesMillis;
       lastRotateTimestampMillis += durationBetweenRotatesMillis;
     }
+    nextRotateTimestampMillis = lastRotateTimestampMillis + durationBetweenRotatesMillis;
     return ringBuffer[currentBucket];
   }
 }
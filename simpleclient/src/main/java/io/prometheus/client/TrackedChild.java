@@ -0,0 +1,104 @@
+package io.prometheus.client;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Common base class of the Child classes of {@link Counter}, {@link Gauge}, {@link Histogram},
+ * {@link Summary}, {@link Info} and {@link Enumeration}.
+ * <p>
+ * Tracks whether a child is in use, so that {@link SimpleCollector} can remove idle children,
+ * see {@link SimpleCollector.Builder#expireAfterIdle}.
+ * Updating a child only sets a flag, the clock is read once per sweep rather than once per update.
+ * <p>
+ * Also tracks whether a child changed, for {@link CollectorRegistry#metricFamilySamplesChangedSince(long)}.
+ * Updates set the changed flag after changing the value, and a sweep clears the flag before the value is read,
+ * so an update is either seen by the read or leaves the flag set for the next sweep. The sweep records the
+ * generation in which it found the flag set in the remaining bits of the flags, to keep children small.
+ */
+abstract class TrackedChild {
+
+  private static final int TOUCHED = 1;
+  private static final int CHANGED = 2;
+  private static final int ALL = TOUCHED | CHANGED;
+  private static final int GENERATION_SHIFT = 2;
+
+  private static final AtomicIntegerFieldUpdater<TrackedChild> FLAGS =
+      AtomicIntegerFieldUpdater.newUpdater(TrackedChild.class, "flags");
+
+  // Only written if the flags aren't set already, so the hot path is a plain read.
+  // Setting flags never loses a concurrent change, clearing them uses compare-and-set.
+  // changed() overwrites the generation bits, which is fine as the next sweep sets them again.
+  private volatile int flags = ALL;
+  private volatile long lastActiveMillis;
+
+  TrackedChild() {
+  }
+
+  /**
+   * Mark this child as active.
+   */
+  final void touch() {
+    int f = flags;
+    while ((f & TOUCHED) == 0 && !FLAGS.compareAndSet(this, f, f | TOUCHED)) {
+      f = flags;
+    }
+  }
+
+  /**
+   * Mark this child as active and changed. Must be called after the value was updated.
+   */
+  final void changed() {
+    if (flags != ALL) {
+      flags = ALL;
+    }
+  }
+
+  /**
+   * Returns {@code true} if this child wasn't touched for at least {@code idleMillis}.
+   * <p>
+   * Intended to be called periodically. Touches are observed at the time of the call,
+   * so a child is never considered idle earlier than {@code idleMillis} after its last use.
+   * <p>
+   * Children whose value is computed when collecting, like callback gauges, are never idle.
+   */
+  boolean isIdle(long nowMillis, long idleMillis) {
+    if (clear(TOUCHED)) {
+      lastActiveMillis = nowMillis;
+      return false;
+    }
+    return nowMillis - lastActiveMillis >= idleMillis;
+  }
+
+  /**
+   * Clear the changed flag and return the generation of the last sweep that found it set.
+   * Must be called before the value is read.
+   * <p>
+   * Children whose value is computed when collecting, like callback gauges, change in every generation.
+   *
+   * @param generation of the current sweep, greater than that of all previous sweeps.
+   */
+  long sweepChanges(long generation) {
+    int generationBits = (int) generation << GENERATION_SHIFT;
+    int f = flags;
+    while ((f & CHANGED) != 0) {
+      if (FLAGS.compareAndSet(this, f, f & TOUCHED | generationBits)) {
+        return generation;
+      }
+      f = flags;
+    }
+    // The latest generation with the stored low bits. If the child changed more than 2^30 sweeps ago, this is
+    // later than the actual generation, which can only make the child count as changed when it didn't.
+    return generation - ((generationBits - (f & ~ALL)) >>> GENERATION_SHIFT);
+  }
+
+  private boolean clear(int flag) {
+    int f = flags;
+    while ((f & flag) != 0) {
+      if (FLAGS.compareAndSet(this, f, f & ~flag)) {
+        return true;
+      }
+      f = flags;
+    }
+    return false;
+  }
+}
@@ -60,7 +60,7 @@ public class DefaultExemplarSampler implements ExemplarSampler {
   static class SystemClock implements Clock {
     @Override
     public long currentTimeMillis() {
-      return System.currentTimeMillis();
+      return io.prometheus.client.Clock.getDefault().currentTimeMillis();
     }
   }
 }
\ No newline at end of file
@@ -0,0 +1,98 @@
+package io.prometheus.client;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class BucketIndexTest {
+
+  @Test
+  public void testLinear() {
+    check(BucketIndex.Layout.LINEAR, 0.1, 0.1, 10);
+    check(BucketIndex.Layout.LINEAR, -5, 0.25, 60);
+    check(BucketIndex.Layout.LINEAR, 0, 1, 1);
+  }
+
+  @Test
+  public void testExponential() {
+    check(BucketIndex.Layout.EXPONENTIAL, 0.001, 1.5, 40);
+    check(BucketIndex.Layout.EXPONENTIAL, 1, 10, 12);
+    check(BucketIndex.Layout.EXPONENTIAL, 3, 2, 30);
+    // Decreasing magnitude, falls back to binary search.
+    check(BucketIndex.Layout.EXPONENTIAL, -1024, 0.5, 10);
+  }
+
+  @Test
+  public void testPowersOfTwo() {
+    check(BucketIndex.Layout.EXPONENTIAL, 1, 2, 40);
+    check(BucketIndex.Layout.EXPONENTIAL, 1024, 2, 20);
+    check(BucketIndex.Layout.EXPONENTIAL, 1.0 / 64, 2, 16);
+    check(BucketIndex.Layout.EXPONENTIAL, 1, 2, 1024); // up to 2^1023
+  }
+
+  @Test
+  public void testBinarySearch() {
+    check(new double[]{.005, .01, .025, .05, .075, .1, .25, .5, .75, 1, 2.5, 5, 7.5, 10, Double.POSITIVE_INFINITY});
+    check(new double[]{-10, -5, -0.0, 5, 10, Double.POSITIVE_INFINITY});
+    check(new double[]{0.0, Double.POSITIVE_INFINITY});
+    check(new double[]{Double.POSITIVE_INFINITY});
+  }
+
+  private void check(BucketIndex.Layout layout, double start, double step, int count) {
+    Histogram.Builder builder = Histogram.build().name("test").help("help");
+    if (layout == BucketIndex.Layout.LINEAR) {
+      builder.linearBuckets(start, step, count);
+    } else {
+      builder.exponentialBuckets(start, step, count);
+    }
+    double[] upperBounds = builder.create().getBuckets();
+    check(BucketIndex.create(layout, start, step, upperBounds));
+  }
+
+  private void check(double[] upperBounds) {
+    check(BucketIndex.create(BucketIndex.Layout.CUSTOM, 0, 0, upperBounds));
+  }
+
+  /**
+   * Compare with scanning the upper bounds, at and next to each upper bound and for random values.
+   */
+  private void check(BucketIndex bucketIndex) {
+    double[] upperBounds = bucketIndex.upperBounds;
+    List<Double> values = new ArrayList<Double>();
+    for (double bound : upperBounds) {
+      values.add(bound);
+      values.add(Math.nextUp(bound));
+      values.add(-Math.nextUp(-bound));
+    }
+    double min = upperBounds[0];
+    double max = upperBounds.length > 1 ? upperBounds[upperBounds.length - 2] : 1;
+    Random random = new Random(0);
+    for (int i = 0; i < 1000; i++) {
+      values.add(min - 1 + random.nextDouble() * (max - min + 2));
+    }
+    values.add(0.0);
+    values.add(-0.0);
+    values.add(Double.MIN_VALUE);
+    values.add(Double.MAX_VALUE);
+    values.add(-Double.MAX_VALUE);
+    values.add(Double.POSITIVE_INFINITY);
+    values.add(Double.NEGATIVE_INFINITY);
+    values.add(Double.NaN);
+    for (double value : values) {
+      assertEquals("value " + value, scan(upperBounds, value), bucketIndex.index(value));
+    }
+  }
+
+  private static int scan(double[] upperBounds, double value) {
+    for (int i = 0; i < upperBounds.length; i++) {
+      if (value <= upperBounds[i]) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
@@ -84,7 +84,7 @@ public class CKMSQuantilesTest {
             ckms.insert(v);
         }
         validateResults(ckms);
-        assertTrue("sample size should be way below 1_000_000", ckms.samples.size() < 1000);
+        assertTrue("sample size should be way below 1_000_000", ckms.size < 1000);
     }
 
     @Test
@@ -97,7 +97,7 @@ public class CKMSQuantilesTest {
         }
         validateResults(ckms);
         ckms.compress();
-        assertEquals(2, ckms.samples.size());
+        assertEquals(2, ckms.size);
     }
 
     @Test
@@ -110,7 +110,7 @@ public class CKMSQuantilesTest {
         }
         validateResults(ckms);
         ckms.compress();
-        assertEquals(2, ckms.samples.size());
+        assertEquals(2, ckms.size);
     }
 
     @Test
@@ -123,7 +123,7 @@ public class CKMSQuantilesTest {
         }
         validateResults(ckms);
         ckms.compress();
-        assertEquals(2, ckms.samples.size());
+        assertEquals(2, ckms.size);
     }
 
     @Test
@@ -135,7 +135,7 @@ public class CKMSQuantilesTest {
             ckms.insert(v);
         }
         validateResults(ckms);
-        assertTrue(ckms.samples.size() < 200); // should be a lot less than input.size()
+        assertTrue(ckms.size < 200); // should be a lot less than input.size()
     }
 
     @Test
@@ -147,7 +147,7 @@ public class CKMSQuantilesTest {
             ckms.insert(v);
         }
         validateResults(ckms);
-        assertTrue(ckms.samples.size() < 200); // should be a lot less than input.size()
+        assertTrue(ckms.size < 200); // should be a lot less than input.size()
     }
 
     @Test
@@ -159,7 +159,7 @@ public class CKMSQuantilesTest {
             ckms.insert(v);
         }
         validateResults(ckms);
-        assertTrue(ckms.samples.size() < 200); // should be a lot less than input.size()
+        assertTrue(ckms.size < 200); // should be a lot less than input.size()
     }
 
     @Test
@@ -172,7 +172,7 @@ public class CKMSQuantilesTest {
         }
         validateResults(ckms);
         // With epsilon == 0 we need to keep all inputs in samples.
-        assertEquals(input.size(), ckms.samples.size());
+        assertEquals(input.size(), ckms.size);
     }
 
     @Test
@@ -185,7 +185,7 @@ public class CKMSQuantilesTest {
         }
         validateResults(ckms);
         // With epsilon == 0 we need to keep all inputs in samples.
-        assertEquals(input.size(), ckms.samples.size());
+        assertEquals(input.size(), ckms.size);
     }
 
     @Test
@@ -198,7 +198,7 @@ public class CKMSQuantilesTest {
         }
         validateResults(ckms);
         // With epsilon == 0 we need to keep all inputs in samples.
-        assertEquals(input.size(), ckms.samples.size());
+        assertEquals(input.size(), ckms.size);
     }
 
     @Test
@@ -253,7 +253,7 @@ public class CKMSQuantilesTest {
         assertEquals(p95, ckms.get(0.95), errorBoundsNormalDistribution(0.95, 0.001, normalDistribution));
         assertEquals(p99, ckms.get(0.99), errorBoundsNormalDistribution(0.99, 0.001, normalDistribution));
 
-        assertTrue("sample size should be below 1000", ckms.samples.size() < 1000);
+        assertTrue("sample size should be below 1000", ckms.size < 1000);
     }
 
     double errorBoundsNormalDistribution(double p, double epsilon, NormalDistribution nd) {
@@ -298,7 +298,7 @@ public class CKMSQuantilesTest {
     private void validateSamples(CKMSQuantiles ckms) {
         double prev = -1.0;
         int r = 0; // sum of all g's left of the current sample
-        for (CKMSQuantiles.Sample sample : ckms.samples) {
+        for (CKMSQuantiles.Sample sample : ckms.samples()) {
             String msg = "invalid sample " + sample + ": count=" + ckms.n + " r=" + r + " f(r)=" + ckms.f(r);
             assertTrue(msg, sample.g + sample.delta <= ckms.f(r));
             assertTrue("Samples not ordered. Keep in mind that insertBatch() takes a sorted array as parameter.", prev <= sample.value);
@@ -329,7 +329,7 @@ public class CKMSQuantilesTest {
             }
             boolean ok = actual >= lowerBound && actual <= upperBound;
             if (!ok) {
-                for (CKMSQuantiles.Sample sample : ckms.samples) {
+                for (CKMSQuantiles.Sample sample : ckms.samples()) {
                     System.err.println(sample);
                 }
             }
@@ -0,0 +1,61 @@
+package io.prometheus.client;
+
+import io.prometheus.client.exemplars.Exemplar;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ClockTest {
+
+  @After
+  public void tearDown() {
+    Clock.setDefault(Clock.system());
+  }
+
+  @Test
+  public void testCoarseClockTicks() throws InterruptedException {
+    Clock.Coarse clock = Clock.coarse(1);
+    try {
+      long start = clock.currentTimeMillis();
+      assertTrue(Math.abs(System.currentTimeMillis() - start) < 1000);
+      long deadline = System.currentTimeMillis() + 10000;
+      while (clock.currentTimeMillis() == start && System.currentTimeMillis() < deadline) {
+        Thread.sleep(5);
+      }
+      assertTrue(clock.currentTimeMillis() > start);
+    } finally {
+      clock.close();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCoarseClockInvalidTick() {
+    Clock.coarse(0);
+  }
+
+  @Test
+  public void testDefaultClockIsUsed() {
+    Clock.setDefault(new Clock() {
+      @Override
+      public long currentTimeMillis() {
+        return 42000;
+      }
+    });
+    Counter counter = Counter.build().name("c").help("help").create();
+    counter.incWithExemplar(1);
+    Histogram histogram = Histogram.build().name("h").help("help").create();
+    histogram.observeWithExemplar(1);
+    Exemplar[] exemplars = histogram.labels().get().exemplars;
+    assertEquals(Long.valueOf(42000), exemplars[9].getTimestampMs());
+    for (Collector.MetricFamilySamples.Sample sample : counter.collect().get(0).samples) {
+      if (sample.name.equals("c_total")) {
+        assertEquals(Long.valueOf(42000), sample.exemplar.getTimestampMs());
+      } else {
+        assertEquals("c_created", sample.name);
+        assertEquals(42.0, sample.value, .001);
+      }
+    }
+  }
+}
@@ -1,16 +1,26 @@
 package io.prometheus.client;
 
+import io.prometheus.client.exemplars.Exemplar;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 
 public class CollectorRegistryTest {
@@ -143,4 +153,433 @@ public class CollectorRegistryTest {
     new MyCollector().register(r);
     new MyCollector().register(r);
   }
+
+  static class ExpensiveCollector extends Collector implements Collector.Describable {
+    int collections;
+
+    public List<MetricFamilySamples> collect() {
+      collections++;
+      List<MetricFamilySamples> mfs = new ArrayList<MetricFamilySamples>();
+      mfs.add(new GaugeMetricFamily("expensive", "help", collections));
+      return mfs;
+    }
+
+    public List<MetricFamilySamples> describe() {
+      List<MetricFamilySamples> mfs = new ArrayList<MetricFamilySamples>();
+      mfs.add(new GaugeMetricFamily("expensive", "help", Collections.<String>emptyList()));
+      return mfs;
+    }
+  }
+
+  @Test
+  public void testCachePolicy() {
+    final long[] nanos = {0};
+    Clock.setDefault(new Clock() {
+      @Override
+      public long currentTimeMillis() {
+        return 0;
+      }
+
+      @Override
+      public long nanoTime() {
+        return nanos[0];
+      }
+    });
+    try {
+      ExpensiveCollector collector = new ExpensiveCollector();
+      registry.register(collector, CachePolicy.ttl(10, TimeUnit.SECONDS));
+      assertEquals(1.0, registry.getSampleValue("expensive"), .001);
+      nanos[0] = TimeUnit.SECONDS.toNanos(9);
+      assertEquals(1.0, registry.getSampleValue("expensive"), .001);
+      nanos[0] = TimeUnit.SECONDS.toNanos(10);
+      assertEquals(2.0, registry.getSampleValue("expensive"), .001);
+
+      // Filtered, so that the cached collector isn't collected again.
+      Predicate<String> filter = new SampleNameFilter.Builder().nameMustStartWith("collector_cache").build();
+      String[] labelNames = {"collector", "result"};
+      assertEquals(1.0, registry.getSampleValue("collector_cache_requests_total", labelNames,
+          new String[]{"expensive", "hit"}, filter), .001);
+      assertEquals(2.0, registry.getSampleValue("collector_cache_requests_total", labelNames,
+          new String[]{"expensive", "miss"}, filter), .001);
+
+      registry.unregister(collector);
+      assertFalse(registry.metricFamilySamples().hasMoreElements());
+    } finally {
+      Clock.setDefault(Clock.system());
+    }
+  }
+
+  @Test
+  public void testCachedCollectorWithFilter() {
+    registry.register(Gauge.build().name("g").help("h").create(), CachePolicy.ttl(1, TimeUnit.HOURS));
+    Counter.build().name("c").help("h").register(registry);
+    Set<String> names = new HashSet<String>();
+    for (Collector.MetricFamilySamples mfs : Collections.list(registry.filteredMetricFamilySamples(
+        Collections.singleton("g")))) {
+      names.add(mfs.name);
+    }
+    assertEquals(Collections.singleton("g"), names);
+  }
+
+  @Test
+  public void testParallelCollection() throws InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      registry.enableParallelCollection(executor, 10, TimeUnit.SECONDS);
+      for (int i = 0; i < 5; i++) {
+        Gauge.build().name("g" + i).help("h").register(registry).set(i);
+      }
+      List<String> names = new ArrayList<String>();
+      for (Collector.MetricFamilySamples mfs : Collections.list(registry.metricFamilySamples())) {
+        names.add(mfs.name);
+      }
+      // Registration order, independent of which collector finished first.
+      assertEquals(Arrays.asList("g0", "g1", "g2", "g3", "g4"), names);
+      assertEquals(3.0, registry.getSampleValue("g3"), .001);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testParallelCollectionTimeout() throws InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    final CountDownLatch interrupted = new CountDownLatch(1);
+    try {
+      registry.enableParallelCollection(executor, 100, TimeUnit.MILLISECONDS);
+      Gauge.build().name("fast").help("h").register(registry).set(1);
+      new Collector() {
+        @Override
+        public List<MetricFamilySamples> collect() {
+          try {
+            Thread.sleep(60000);
+          } catch (InterruptedException e) {
+            interrupted.countDown();
+          }
+          return new ArrayList<MetricFamilySamples>();
+        }
+      }.register(registry);
+      List<Collector.MetricFamilySamples> mfs = Collections.list(registry.metricFamilySamples());
+      assertEquals(1, mfs.size());
+      assertEquals("fast", mfs.get(0).name);
+      assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testParallelCollectionPropagatesExceptions() {
+    registry.enableParallelCollection(new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        new Thread(command).start();
+      }
+    }, 10, TimeUnit.SECONDS);
+    new Collector() {
+      @Override
+      public List<MetricFamilySamples> collect() {
+        throw new IllegalStateException("collect failed");
+      }
+    }.register(registry);
+    registry.metricFamilySamples();
+  }
+
+  static class SlowCollector extends Collector {
+    public List<MetricFamilySamples> collect() {
+      try {
+        Thread.sleep(200);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      List<MetricFamilySamples> mfs = new ArrayList<MetricFamilySamples>();
+      mfs.add(new GaugeMetricFamily("slow", "help", 1));
+      return mfs;
+    }
+  }
+
+  @Test
+  public void testScrapeTimeoutSkipsRemainingCollectors() {
+    new SlowCollector().register(registry);
+    Gauge.build().name("late").help("h").register(registry);
+    List<String> names = new ArrayList<String>();
+    for (Collector.MetricFamilySamples mfs : Collections.list(
+        registry.filteredMetricFamilySamples(null, 100, TimeUnit.MILLISECONDS))) {
+      names.add(mfs.name);
+    }
+    // The slow collector was already started, the one after it is skipped.
+    assertEquals(Arrays.asList("slow"), names);
+    assertEquals(1.0, registry.getSampleValue("scrape_collector_timeouts_total",
+        new String[]{"collector"}, new String[]{"late"}), .001);
+  }
+
+  static class FailingCollector extends Collector {
+    public List<MetricFamilySamples> collect() {
+      throw new IllegalStateException("collect failed");
+    }
+  }
+
+  @Test
+  public void testCollectorStats() {
+    registry.enableCollectorStats();
+    Gauge.build().name("g").help("h").labelNames("l").register(registry).labels("a").set(1);
+    Collections.list(registry.metricFamilySamples());
+    Collections.list(registry.metricFamilySamples());
+    Collector failingCollector = new FailingCollector().register(registry);
+    try {
+      Collections.list(registry.metricFamilySamples());
+    } catch (IllegalStateException e) {
+      // expected
+    }
+
+    CollectorRegistry.CollectorStats gauge = registry.getCollectorStats().get("g");
+    assertEquals(3, gauge.collections);
+    assertEquals(1, gauge.samples);
+    assertEquals(0, gauge.failures);
+    assertTrue(gauge.durationSeconds >= 0);
+    CollectorRegistry.CollectorStats failing = registry.getCollectorStats().get(FailingCollector.class.getName());
+    assertEquals(1, failing.collections);
+    assertEquals(1, failing.failures);
+
+    registry.unregister(failingCollector);
+    String[] labelNames = {"collector"};
+    assertEquals(1.0, registry.getSampleValue("collector_samples", labelNames,
+        new String[]{"g"}), .001);
+    assertEquals(null, registry.getSampleValue("collector_failures_total", labelNames,
+        new String[]{FailingCollector.class.getName()}));
+    assertFalse(registry.getCollectorStats().containsKey(FailingCollector.class.getName()));
+  }
+
+  @Test
+  public void testUnregisterRemovesStats() {
+    registry.enableCollectorStats();
+    Collector slow = new SlowCollector().register(registry);
+    Collector late = Gauge.build().name("late").help("h").register(registry);
+    Collector otherSlow = new SlowCollector().register(registry);
+    Collections.list(registry.filteredMetricFamilySamples(null, 100, TimeUnit.MILLISECONDS));
+    String[] labelNames = {"collector"};
+    String[] lateLabel = {"late"};
+    assertEquals(1.0, registry.getSampleValue("scrape_collector_timeouts_total", labelNames, lateLabel), .001);
+
+    registry.unregister(late);
+    assertEquals(null, registry.getSampleValue("scrape_collector_timeouts_total", labelNames, lateLabel));
+    assertFalse(registry.getCollectorStats().containsKey("late"));
+
+    // Both slow collectors are counted under their class name, which is still in use.
+    registry.unregister(slow);
+    assertTrue(registry.getCollectorStats().containsKey(SlowCollector.class.getName()));
+    registry.unregister(otherSlow);
+    assertEquals(null, registry.getSampleValue("collector_samples", labelNames,
+        new String[]{SlowCollector.class.getName()}));
+    assertFalse(registry.getCollectorStats().containsKey(SlowCollector.class.getName()));
+  }
+
+  @Test
+  public void testFilteredScrapeKeepsRegistrationOrder() {
+    Gauge.build().name("requests_in_flight").help("h").register(registry);
+    Gauge.build().name("a").help("h").register(registry);
+    Counter.build().name("requests").help("h").register(registry);
+    Gauge.build().name("requests_size").help("h").register(registry);
+
+    assertEquals(Arrays.asList("requests"), familyNames(
+        new SampleNameFilter.Builder().nameMustBeEqualTo("requests_total", "unknown").build()));
+    assertEquals(Arrays.asList("requests_in_flight", "requests", "requests_size"), familyNames(
+        new SampleNameFilter.Builder().nameMustStartWith("requests").build()));
+    assertEquals(Arrays.asList("requests_in_flight", "requests"), familyNames(
+        new SampleNameFilter.Builder().nameMustStartWith("requests").nameMustNotBeEqualTo("requests_size").build()
+            .and(new Predicate<String>() {
+              @Override
+              public boolean test(String name) {
+                return !name.equals("requests_created");
+              }
+            })));
+    assertEquals(Arrays.asList("requests_in_flight", "a", "requests", "requests_size"), familyNames(
+        SampleNameFilter.ALLOW_ALL));
+  }
+
+  @Test
+  public void testFilteredScrapeIncludesCollectorsWithoutNames() {
+    registry.register(new Collector() {
+      @Override
+      public List<MetricFamilySamples> collect() {
+        return Collections.emptyList(); // no names at registration time
+      }
+    });
+    Gauge.build().name("g").help("h").register(registry);
+    assertEquals(Arrays.asList("g"), familyNames(new SampleNameFilter.Builder().nameMustBeEqualTo("g").build()));
+  }
+
+  @Test
+  public void testEnumerationUsesSnapshotAtCreation() {
+    Gauge g1 = Gauge.build().name("g1").help("h").register(registry);
+    Enumeration<Collector.MetricFamilySamples> mfs = registry.metricFamilySamples();
+    Gauge.build().name("g2").help("h").register(registry);
+    registry.unregister(g1);
+    List<String> names = new ArrayList<String>();
+    for (Collector.MetricFamilySamples family : Collections.list(mfs)) {
+      names.add(family.name);
+    }
+    assertEquals(Arrays.asList("g1"), names);
+  }
+
+  @Test
+  public void testCollectToSink() throws IOException {
+    registry.enableCollectorStats();
+    Counter.build().name("requests").help("h").labelNames("l").register(registry).labels("a").inc();
+    Gauge.build().name("temperature").help("h").register(registry).set(3);
+    final List<String> written = new ArrayList<String>();
+    SampleSink sink = new SampleSink() {
+      @Override
+      public void startFamily(String name, String unit, Collector.Type type, String help) {
+        written.add("start " + name);
+      }
+
+      @Override
+      public void sample(String name, List<String> labelNames, List<String> labelValues, String extraLabelName,
+                         String extraLabelValue, double value, Exemplar exemplar, Long timestampMs) {
+        written.add(name + labelValues + "=" + value);
+      }
+
+      @Override
+      public void endFamily() {
+        written.add("end");
+      }
+    };
+    registry.collect(sink, new SampleNameFilter.Builder().nameMustBeEqualTo("requests_total", "temperature").build());
+    assertEquals(Arrays.asList("start requests", "requests_total[a]=1.0", "end",
+        "start temperature", "temperature[]=3.0", "end"), written);
+    // The counter doesn't create requests_created at all, as it doesn't match the filter.
+    assertEquals(1, registry.getCollectorStats().get("requests_total").samples);
+
+    written.clear();
+    registry.collect(sink, new SampleNameFilter.Builder().nameMustBeEqualTo("requests_created").build());
+    assertEquals("start requests", written.get(0));
+    assertEquals(3, written.size());
+  }
+
+  @Test
+  public void testMetricFamilySamplesChangedSince() {
+    Counter counter = Counter.build().name("requests").help("h").labelNames("l").register(registry);
+    counter.labels("a").inc();
+    counter.labels("b").inc();
+    Histogram histogram = Histogram.build().name("latency").help("h").labelNames("l").buckets(1).register(registry);
+    histogram.labels("a").observe(0.5);
+
+    CollectorRegistry.Changes changes = registry.metricFamilySamplesChangedSince(0);
+    assertEquals(Arrays.asList("requests_total[a]", "requests_created[a]", "requests_total[b]", "requests_created[b]",
+        "latency_bucket[a, 1.0]", "latency_bucket[a, +Inf]", "latency_count[a]", "latency_sum[a]", "latency_created[a]"),
+        sampleKeys(changes.metricFamilySamples));
+
+    // Looking a child up is not a change.
+    counter.labels("a");
+    changes = registry.metricFamilySamplesChangedSince(changes.token);
+    assertEquals(Collections.<String>emptyList(), sampleKeys(changes.metricFamilySamples));
+
+    counter.labels("b").inc();
+    counter.labels("c");
+    CollectorRegistry.Changes next = registry.metricFamilySamplesChangedSince(changes.token);
+    assertEquals(Arrays.asList("requests_total[b]", "requests_created[b]", "requests_total[c]", "requests_created[c]"),
+        sampleKeys(next.metricFamilySamples));
+    assertEquals(2.0, next.metricFamilySamples.get(0).samples.get(0).value, .001);
+    assertTrue(next.token > changes.token);
+
+    // Older tokens still see the changes since then.
+    assertEquals(sampleKeys(next.metricFamilySamples),
+        sampleKeys(registry.metricFamilySamplesChangedSince(changes.token).metricFamilySamples));
+  }
+
+  @Test
+  public void testMetricFamilySamplesChangedSinceIncludesUntrackedCollectors() {
+    Gauge.build().name("temperature").help("h").callback(new DoubleSupplier() {
+      @Override
+      public double getAsDouble() {
+        return 3;
+      }
+    }).register(registry);
+    new Collector() {
+      @Override
+      public List<MetricFamilySamples> collect() {
+        return Collections.singletonList(new MetricFamilySamples("custom", Type.GAUGE, "h",
+            Collections.singletonList(new MetricFamilySamples.Sample("custom", Collections.<String>emptyList(),
+                Collections.<String>emptyList(), 1))));
+      }
+    }.register(registry);
+    Gauge.build().name("idle").help("h").register(registry);
+
+    long token = registry.metricFamilySamplesChangedSince(0).token;
+    assertEquals(Arrays.asList("temperature[]", "custom[]"),
+        sampleKeys(registry.metricFamilySamplesChangedSince(token).metricFamilySamples));
+  }
+
+  @Test
+  public void testMetricFamilySamplesChangedSinceBypassesCache() {
+    Counter counter = Counter.build().name("requests").help("h").create();
+    registry.register(counter, CachePolicy.ttl(1, TimeUnit.HOURS));
+    counter.inc();
+    assertEquals(1.0, registry.getSampleValue("requests_total"), .001);
+    long token = registry.metricFamilySamplesChangedSince(0).token;
+
+    counter.inc();
+    CollectorRegistry.Changes changes = registry.metricFamilySamplesChangedSince(token);
+    Collector.MetricFamilySamples requests = changes.metricFamilySamples.get(0);
+    assertEquals(Arrays.asList("requests_total[]", "requests_created[]"),
+        sampleKeys(Collections.singletonList(requests)));
+    assertEquals(2.0, requests.samples.get(0).value, .001);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMetricFamilySamplesChangedSinceNegativeToken() {
+    registry.metricFamilySamplesChangedSince(-1);
+  }
+
+  private static List<String> sampleKeys(List<Collector.MetricFamilySamples> families) {
+    List<String> keys = new ArrayList<String>();
+    for (Collector.MetricFamilySamples family : families) {
+      for (Collector.MetricFamilySamples.Sample sample : family.samples) {
+        keys.add(sample.name + sample.labelValues);
+      }
+    }
+    return keys;
+  }
+
+  private List<String> familyNames(Predicate<String> filter) {
+    List<String> names = new ArrayList<String>();
+    for (Collector.MetricFamilySamples family : Collections.list(registry.filteredMetricFamilySamples(filter))) {
+      names.add(family.name);
+    }
+    return names;
+  }
+
+  @Test
+  public void testCollectorStatsDisabledByDefault() {
+    Gauge.build().name("g").help("h").register(registry);
+    Collections.list(registry.metricFamilySamples());
+    assertTrue(registry.getCollectorStats().isEmpty());
+    assertEquals(null, registry.getSampleValue("collector_samples", new String[]{"collector"},
+        new String[]{"g"}));
+  }
+
+  @Test
+  public void testCollectorStatsByRegisteredName() {
+    registry.enableCollectorStats();
+    Gauge.build().name("a").help("h").register(registry).set(1);
+    Gauge.build().name("b").help("h").labelNames("l").register(registry).labels("x").set(1);
+    Collections.list(registry.metricFamilySamples());
+    assertEquals(1, registry.getCollectorStats().get("a").samples);
+    assertEquals(1, registry.getCollectorStats().get("b").samples);
+    assertFalse(registry.getCollectorStats().containsKey(Gauge.class.getName()));
+  }
+
+  @Test
+  public void testCollectorStatsSurviveClear() {
+    registry.enableCollectorStats();
+    Gauge.build().name("g").help("h").register(registry);
+    Collections.list(registry.metricFamilySamples());
+    registry.clear();
+    Gauge.build().name("g2").help("h").register(registry);
+    Collections.list(registry.metricFamilySamples());
+    assertEquals(1, registry.getCollectorStats().get("g2").collections);
+    assertEquals(1.0, registry.getSampleValue("collector_samples", new String[]{"collector"},
+        new String[]{"g2"}), .001);
+  }
 }
@@ -42,6 +42,20 @@ public class CollectorTest {
       assertEquals(":baz::", Collector.sanitizeMetricName(":baz::"));
   }
 
+  @Test
+  public void doubleToGoString() throws Exception {
+      assertEquals("0.0", Collector.doubleToGoString(0));
+      assertEquals("-0.0", Collector.doubleToGoString(-0.0));
+      assertEquals("42.0", Collector.doubleToGoString(42));
+      assertEquals("-42.0", Collector.doubleToGoString(-42));
+      assertEquals("9999999.0", Collector.doubleToGoString(9999999));
+      assertEquals("1.0E7", Collector.doubleToGoString(1e7));
+      assertEquals("0.5", Collector.doubleToGoString(0.5));
+      assertEquals("+Inf", Collector.doubleToGoString(Double.POSITIVE_INFINITY));
+      assertEquals("-Inf", Collector.doubleToGoString(Double.NEGATIVE_INFINITY));
+      assertEquals("NaN", Collector.doubleToGoString(Double.NaN));
+  }
+
   @Test
   public void testTotalHandling() throws Exception {
     class YourCustomCollector extends Collector {
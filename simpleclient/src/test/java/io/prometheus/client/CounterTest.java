@@ -1,6 +1,8 @@
 package io.prometheus.client;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.junit.rules.ExpectedException.none;
 
 import java.util.ArrayList;
@@ -56,6 +58,40 @@ public class CounterTest {
     noLabels.inc(-1);
   }
   
+  @Test
+  public void testIntegerCounter() {
+    Counter integer = Counter.build().name("integer").help("help").labelNames("l").integer().register(registry);
+    integer.labels("a").inc();
+    integer.labels("a").inc(2);
+    integer.labels("a").incWithExemplar(3, "trace_id", "123");
+    assertEquals(6.0, integer.labels("a").get(), .001);
+    assertEquals(6.0, registry.getSampleValue("integer_total", new String[]{"l"}, new String[]{"a"}), .001);
+  }
+
+  @Test
+  public void testIntegerCounterFractionalIncrementFails() {
+    Counter integer = Counter.build().name("integer").help("help").integer().register(registry);
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("Amount to increment must be a whole number");
+    integer.inc(0.5);
+  }
+
+  @Test
+  public void testIntegerCounterTooLargeIncrementFails() {
+    Counter integer = Counter.build().name("integer").help("help").integer().register(registry);
+    integer.inc();
+    for (double amt : new double[]{Double.POSITIVE_INFINITY, Long.MAX_VALUE, 0x1p64}) {
+      try {
+        integer.inc(amt);
+        fail("Expected IllegalArgumentException for " + amt);
+      } catch (IllegalArgumentException e) {
+        assertTrue(e.getMessage(), e.getMessage().contains("less than Long.MAX_VALUE"));
+      }
+    }
+    integer.inc();
+    assertEquals(2.0, integer.get(), .001);
+  }
+
   @Test
   public void noLabelsDefaultZeroValue() {
     assertEquals(0.0, getValue(), .001);
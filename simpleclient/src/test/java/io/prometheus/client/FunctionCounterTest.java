@@ -0,0 +1,67 @@
+package io.prometheus.client;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class FunctionCounterTest {
+
+  private CollectorRegistry registry;
+  private long count;
+  private final DoubleSupplier callback = new DoubleSupplier() {
+    @Override
+    public double getAsDouble() {
+      return count;
+    }
+  };
+
+  @Before
+  public void setUp() {
+    registry = new CollectorRegistry();
+    count = 0;
+  }
+
+  @Test
+  public void testNoLabels() {
+    FunctionCounter counter = FunctionCounter.build().name("tasks_total").help("help").callback(callback)
+        .register(registry);
+    count = 3;
+    assertEquals(3.0, registry.getSampleValue("tasks_total"), .001);
+    assertEquals(3.0, counter.get(), .001);
+    assertNull(registry.getSampleValue("tasks_created"));
+  }
+
+  @Test
+  public void testLabels() {
+    FunctionCounter counter = FunctionCounter.build().name("tasks").help("help").labelNames("pool")
+        .register(registry);
+    counter.setCallback(callback, "a");
+    counter.setCallback(new DoubleSupplier() {
+      @Override
+      public double getAsDouble() {
+        return 7;
+      }
+    }, "b");
+    count = 2;
+    assertEquals(2.0, registry.getSampleValue("tasks_total", new String[]{"pool"}, new String[]{"a"}), .001);
+    assertEquals(7.0, registry.getSampleValue("tasks_total", new String[]{"pool"}, new String[]{"b"}), .001);
+
+    List<Collector.MetricFamilySamples> mfs = counter.collect();
+    assertEquals(Collector.Type.COUNTER, mfs.get(0).type);
+    assertEquals("tasks", mfs.get(0).name);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testLabelsWithoutCallbackFails() {
+    FunctionCounter.build().name("tasks").help("help").labelNames("pool").create().labels("a");
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testNoLabelsWithoutCallbackFails() {
+    FunctionCounter.build().name("tasks").help("help").create();
+  }
+}
@@ -5,6 +5,7 @@ import static org.junit.Assert.assertEquals;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -149,4 +150,60 @@ public class GaugeTest {
     assertEquals(1, mfs.size());
     assertEquals(mfsFixture, mfs.get(0));
   }
+
+  @Test
+  public void testCallback() {
+    final double[] value = {1};
+    DoubleSupplier callback = new DoubleSupplier() {
+      @Override
+      public double getAsDouble() {
+        return value[0];
+      }
+    };
+    Gauge.build().name("callback").help("help").callback(callback).register(registry);
+    labels.setCallback(callback, "a");
+    assertEquals(1.0, registry.getSampleValue("callback"), .001);
+    value[0] = 5;
+    assertEquals(5.0, registry.getSampleValue("callback"), .001);
+    assertEquals(5.0, getLabelsValue("a"), .001);
+  }
+
+  @Test
+  public void testCallbackNeverExpires() {
+    Gauge g = Gauge.build().name("expiring").help("help").labelNames("l")
+        .expireAfterIdle(1, TimeUnit.MINUTES).create();
+    g.setCallback(new DoubleSupplier() {
+      @Override
+      public double getAsDouble() {
+        return 1;
+      }
+    }, "a");
+    g.labels("b");
+    long now = System.currentTimeMillis();
+    g.removeIdleChildren(now);
+    g.removeIdleChildren(now + 61 * 1000);
+    assertEquals(1, g.children.size());
+    assertEquals(1.0, g.labels("a").get(), .001);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testCallbackCannotBeUpdated() {
+    labels.setCallback(new DoubleSupplier() {
+      @Override
+      public double getAsDouble() {
+        return 1;
+      }
+    }, "a");
+    labels.labels("a").inc();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testCallbackWithLabelsFails() {
+    Gauge.build().name("callback").help("help").labelNames("l").callback(new DoubleSupplier() {
+      @Override
+      public double getAsDouble() {
+        return 1;
+      }
+    }).create();
+  }
 }
@@ -0,0 +1,115 @@
+package io.prometheus.client;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramCellsTest {
+
+  @Test
+  public void testObserve() {
+    HistogramCells cells = new HistogramCells(3);
+    cells.observe(0, 1.5);
+    cells.observe(2, 3.0);
+    cells.observe(2, 4.0);
+    HistogramCells.Snapshot snapshot = cells.snapshot();
+    assertArrayEquals(new long[]{1, 0, 2}, snapshot.counts);
+    assertEquals(8.5, snapshot.sum, 0);
+    // A second snapshot sees the same values.
+    snapshot = cells.snapshot();
+    assertArrayEquals(new long[]{1, 0, 2}, snapshot.counts);
+    assertEquals(8.5, snapshot.sum, 0);
+    cells.observe(1, 1.0);
+    snapshot = cells.snapshot();
+    assertArrayEquals(new long[]{1, 1, 2}, snapshot.counts);
+    assertEquals(9.5, snapshot.sum, 0);
+  }
+
+  @Test
+  public void testObserveAll() {
+    HistogramCells cells = new HistogramCells(3);
+    cells.observe(1, 2.0);
+    cells.observeAll(new long[]{2, 0, 5}, 10.5);
+    HistogramCells.Snapshot snapshot = cells.snapshot();
+    assertArrayEquals(new long[]{2, 1, 5}, snapshot.counts);
+    assertEquals(12.5, snapshot.sum, 0);
+  }
+
+  @Test
+  public void testCountAndSumWithoutSnapshot() {
+    HistogramCells cells = new HistogramCells(3);
+    cells.observe(0, 1.5);
+    cells.observe(2, 3.0);
+    assertEquals(1, cells.count(0));
+    assertEquals(0, cells.count(1));
+    assertEquals(4.5, cells.sum(), 0);
+    // Values moved to the other copy by a snapshot are still counted once.
+    cells.snapshot();
+    cells.observe(2, 4.0);
+    assertEquals(1, cells.count(0));
+    assertEquals(2, cells.count(2));
+    assertEquals(8.5, cells.sum(), 0);
+  }
+
+  @Test
+  public void testNaN() {
+    HistogramCells cells = new HistogramCells(1);
+    cells.observe(-1, Double.NaN);
+    assertArrayEquals(new long[]{0}, cells.snapshot().counts);
+    assertTrue(Double.isNaN(cells.snapshot().sum));
+  }
+
+  @Test
+  public void testConcurrentObserve() throws InterruptedException {
+    final HistogramCells cells = new HistogramCells(4);
+    final int nThreads = 8;
+    final int nObservations = 100000;
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < nThreads; t++) {
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (int i = 0; i < nObservations; i++) {
+            cells.observe(i % 4, 1.0);
+          }
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    start.countDown();
+    // Every observation adds 1.0 to the sum, so a consistent snapshot has sum == count.
+    boolean running = true;
+    while (running) {
+      running = false;
+      for (Thread thread : threads) {
+        running |= thread.isAlive();
+      }
+      HistogramCells.Snapshot snapshot = cells.snapshot();
+      long count = 0;
+      for (long c : snapshot.counts) {
+        count += c;
+      }
+      assertEquals(count, snapshot.sum, 0);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    long n = nThreads * nObservations / 4;
+    HistogramCells.Snapshot snapshot = cells.snapshot();
+    assertArrayEquals(new long[]{n, n, n, n}, snapshot.counts);
+    assertEquals(nThreads * nObservations, snapshot.sum, 0);
+  }
+}
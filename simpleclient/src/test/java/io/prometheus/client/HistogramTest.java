@@ -1,16 +1,20 @@
 package io.prometheus.client;
 
 import io.prometheus.client.Collector.MetricFamilySamples.Sample;
+import io.prometheus.client.exemplars.Exemplar;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.openjdk.jol.info.GraphLayout;
+import org.openjdk.jol.vm.VM;
 
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -110,6 +114,70 @@ public class HistogramTest {
     }
   }
 
+  @Test
+  public void testObserveAll() {
+    Histogram single = Histogram.build().name("single").help("help").nativeSchema(3).register(registry);
+    Histogram bulk = Histogram.build().name("bulk").help("help").nativeSchema(3).register(registry);
+    Histogram sorted = Histogram.build().name("sorted").help("help").nativeSchema(3).register(registry);
+    double[] values = new double[200];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = (i * 7919 % 200) / 13.0 - 1;
+    }
+    values[17] = 2.5;
+    values[42] = Double.POSITIVE_INFINITY;
+    values[99] = Double.NaN;
+    for (int i = 10; i < 190; i++) {
+      single.observe(values[i]);
+    }
+    bulk.observeAll(values, 10, 190);
+    double[] sortedValues = Arrays.copyOfRange(values, 10, 190);
+    Arrays.sort(sortedValues);
+    sorted.observeAllSorted(sortedValues, 0, sortedValues.length);
+
+    Histogram.Child.Value expected = single.labels().get();
+    for (Histogram h : new Histogram[]{bulk, sorted}) {
+      Histogram.Child.Value actual = h.labels().get();
+      assertArrayEquals(expected.buckets, actual.buckets, 0);
+      assertTrue(Double.isNaN(actual.sum));
+      assertEquals(expected.nativeBuckets.zeroCount, actual.nativeBuckets.zeroCount);
+      assertArrayEquals(expected.nativeBuckets.positiveIndexes, actual.nativeBuckets.positiveIndexes);
+      assertArrayEquals(expected.nativeBuckets.positiveCounts, actual.nativeBuckets.positiveCounts);
+      assertArrayEquals(expected.nativeBuckets.negativeIndexes, actual.nativeBuckets.negativeIndexes);
+      assertArrayEquals(expected.nativeBuckets.negativeCounts, actual.nativeBuckets.negativeCounts);
+    }
+
+    noLabels.observeAll(new double[]{1, 2, 3, 100}, 1, 3);
+    assertEquals(2.0, getCount(), .001);
+    assertEquals(5.0, getSum(), .001);
+    assertEquals(1.0, getBucket(2.5), .001);
+    assertEquals(2.0, getBucket(5), .001);
+  }
+
+  @Test
+  public void testChildFootprint() {
+    // The footprints documented in Histogram.Child, with the default buckets, plus room for one more field.
+    boolean compressedOops = VM.current().sizeOfField("oop") == 4;
+    Histogram histogram = Histogram.build().name("footprint").help("help").labelNames("l").create();
+    Histogram.Child first = histogram.labels("a");
+    Histogram.Child child = histogram.labels("b");
+    long unused = footprint(first, child);
+    assertTrue("unused child: " + unused, unused <= (compressedOops ? 64 : 96) + 8);
+    child.observe(1.0);
+    long counters = footprint(first, child) - unused;
+    assertTrue("counters: " + counters, counters <= 512);
+    child.observeWithExemplar(2.0);
+    Exemplar exemplar = child.get().exemplars[10]; // le="2.5"
+    long exemplarSlots = footprint(first, child) - unused - counters - GraphLayout.parseInstance(exemplar).totalSize();
+    assertTrue("exemplar slots: " + exemplarSlots, exemplarSlots <= (compressedOops ? 96 : 160) + 8);
+  }
+
+  /**
+   * Bytes retained by {@code child} that are not shared with {@code other}, i.e. not part of the histogram.
+   */
+  private static long footprint(Histogram.Child other, Histogram.Child child) {
+    return GraphLayout.parseInstance(other, child).totalSize() - GraphLayout.parseInstance(other).totalSize();
+  }
+
   @Test
   public void testBoundaryConditions() {
     // Equal to a bucket.
@@ -374,6 +442,101 @@ public class HistogramTest {
     assertEquals(mfsFixture, mfs.get(0));
   }
 
+  @Test
+  public void testCollectOnlyMatchingSamples() {
+    labels.labels("a").observe(2);
+    List<Collector.MetricFamilySamples> mfs = labels.collect(new SampleNameFilter.Builder()
+        .nameMustBeEqualTo("labels_count", "labels_sum").build());
+    assertEquals(1, mfs.size());
+    assertEquals(Arrays.asList(new Sample("labels_count", Arrays.asList("l"), Arrays.asList("a"), 1.0),
+        new Sample("labels_sum", Arrays.asList("l"), Arrays.asList("a"), 2.0)), mfs.get(0).samples);
+
+    // Families without matching samples are left out.
+    assertEquals(0, labels.collect(new SampleNameFilter.Builder().nameMustBeEqualTo("other").build()).size());
+    assertEquals(labels.collect(), labels.collect(SampleNameFilter.ALLOW_ALL));
+  }
+
+  @Test
+  public void testNativeBucketIndex() {
+    // schema 0: boundaries are powers of 2, upper bound inclusive
+    assertEquals(0, NativeHistogram.index(1.0, 0));
+    assertEquals(1, NativeHistogram.index(1.5, 0));
+    assertEquals(1, NativeHistogram.index(2.0, 0));
+    assertEquals(2, NativeHistogram.index(2.1, 0));
+    assertEquals(-1, NativeHistogram.index(0.5, 0));
+    // schema 1: boundaries are powers of sqrt(2)
+    assertEquals(1, NativeHistogram.index(Math.sqrt(2), 1));
+    assertEquals(2, NativeHistogram.index(1.5, 1));
+    assertEquals(2, NativeHistogram.index(2.0, 1));
+    // schema -1: boundaries are powers of 4
+    assertEquals(0, NativeHistogram.index(1.0, -1));
+    assertEquals(1, NativeHistogram.index(3.0, -1));
+    assertEquals(1, NativeHistogram.index(4.0, -1));
+    assertEquals(2, NativeHistogram.index(5.0, -1));
+    for (int schema = NativeHistogram.MIN_SCHEMA; schema <= NativeHistogram.MAX_SCHEMA; schema++) {
+      for (double value = 0.001; value < 1000; value *= 1.1) {
+        int index = NativeHistogram.index(value, schema);
+        double upperBound = Math.pow(2, Math.scalb((double) index, -schema));
+        double lowerBound = Math.pow(2, Math.scalb((double) index - 1, -schema));
+        assertTrue(value + " schema " + schema, value > lowerBound * 0.9999999 && value <= upperBound * 1.0000001);
+      }
+    }
+  }
+
+  @Test
+  public void testNativeBuckets() {
+    Histogram h = Histogram.build().name("native").help("help").nativeSchema(0).nativeZeroThreshold(0.1)
+        .register(registry);
+    h.observe(0.05);
+    h.observe(-0.05);
+    h.observe(1.5);
+    h.observe(2);
+    h.observe(3);
+    h.observe(-3);
+    Histogram.Child.NativeBuckets nb = h.labels().get().nativeBuckets;
+    assertEquals(0, nb.schema);
+    assertEquals(2, nb.zeroCount);
+    assertArrayEquals(new int[]{1, 2}, nb.positiveIndexes);
+    assertArrayEquals(new long[]{2, 1}, nb.positiveCounts);
+    assertArrayEquals(new int[]{2}, nb.negativeIndexes);
+    assertArrayEquals(new long[]{1}, nb.negativeCounts);
+    assertEquals(4.0, nb.upperBound(2), 0);
+    // classic buckets are still exposed
+    assertEquals(6.0, getCount("native"), 0);
+    assertEquals(2.0, getBucket(0.025, "native"), 0);
+  }
+
+  @Test
+  public void testNativeBucketsReduceResolution() {
+    Histogram h = Histogram.build().name("native").help("help").nativeSchema(3).nativeMaxBuckets(10)
+        .register(registry);
+    for (int i = 1; i <= 1000; i++) {
+      h.observe(i);
+    }
+    Histogram.Child.NativeBuckets nb = h.labels().get().nativeBuckets;
+    assertTrue(nb.positiveIndexes.length <= 10);
+    assertEquals(-1, nb.schema); // 1..1000 needs 10 buckets with powers of 4
+    long count = 0;
+    for (long c : nb.positiveCounts) {
+      count += c;
+    }
+    assertEquals(1000, count);
+    assertEquals(1024.0, nb.upperBound(nb.positiveIndexes[nb.positiveIndexes.length - 1]), 0);
+  }
+
+  @Test
+  public void testNativeBucketsDisabledByDefault() {
+    noLabels.observe(1);
+    assertEquals(null, noLabels.labels().get().nativeBuckets);
+  }
+
+  @Test
+  public void testInvalidNativeSchemaThrows() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("Native schema 9 invalid");
+    Histogram.build().name("native").help("help").nativeSchema(9);
+  }
+
   @Test
   public void testChildAndValuePublicApi() throws Exception {
     assertTrue(Modifier.isPublic(Histogram.Child.class.getModifiers()));
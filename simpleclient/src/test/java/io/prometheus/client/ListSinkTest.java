@@ -0,0 +1,53 @@
+package io.prometheus.client;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ListSinkTest {
+
+  private final List<String> labelNames = Arrays.asList("l");
+  private final List<String> labelValues = Arrays.asList("a");
+
+  @Test
+  public void testSamplesAreStoredInColumns() {
+    ListSink sink = new ListSink(false);
+    sink.startFamily("h", "", Collector.Type.HISTOGRAM, "help");
+    sink.sample("h_bucket", labelNames, labelValues, "le", "+Inf", 2, null, null);
+    sink.sample("h_count", labelNames, labelValues, null, null, 2, null, null);
+    sink.endFamily();
+
+    Collector.MetricFamilySamples mfs = sink.metricFamilySamples.get(0);
+    assertTrue(mfs.samples instanceof SampleColumns);
+    assertEquals(Arrays.asList(
+        new Collector.MetricFamilySamples.Sample("h_bucket", Arrays.asList("l", "le"), Arrays.asList("a", "+Inf"), 2),
+        new Collector.MetricFamilySamples.Sample("h_count", labelNames, labelValues, 2)), mfs.samples);
+  }
+
+  @Test
+  public void testSamplesThatDontFitInColumns() {
+    ListSink sink = new ListSink(true);
+    sink.startFamily("g", "", Collector.Type.GAUGE, "help");
+    sink.sample("g", labelNames, labelValues, null, null, 1, null, null);
+    sink.sample("g", Collections.<String>emptyList(), Collections.<String>emptyList(), null, null, 2, null, null);
+    sink.sample("g", labelNames, labelValues, null, null, 3, null, 1000L);
+    sink.endFamily();
+    sink.startFamily("empty", "", Collector.Type.GAUGE, "help");
+    sink.endFamily();
+
+    Collector.MetricFamilySamples mfs = sink.metricFamilySamples.get(0);
+    assertFalse(mfs.samples instanceof SampleColumns);
+    assertEquals(Arrays.asList(
+        new Collector.MetricFamilySamples.Sample("g", labelNames, labelValues, 1),
+        new Collector.MetricFamilySamples.Sample("g", Collections.<String>emptyList(),
+            Collections.<String>emptyList(), 2),
+        new Collector.MetricFamilySamples.Sample("g", labelNames, labelValues, 3, 1000L)), mfs.samples);
+    assertTrue(sink.metricFamilySamples.get(1).samples.isEmpty());
+  }
+}
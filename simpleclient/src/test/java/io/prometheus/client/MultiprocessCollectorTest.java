@@ -0,0 +1,181 @@
+package io.prometheus.client;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MultiprocessCollectorTest {
+
+  private File directory;
+  private MultiprocessStore store1;
+  private MultiprocessStore store2;
+  private CollectorRegistry registry;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = File.createTempFile("multiprocess", "");
+    directory.delete();
+    directory.mkdir();
+    // Two stores in the same directory, as if opened by two processes.
+    store1 = MultiprocessStore.open(directory);
+    store2 = MultiprocessStore.open(directory);
+    registry = new CollectorRegistry();
+    new MultiprocessCollector(directory).register(registry);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    store1.close();
+    store2.close();
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testCounter() {
+    Counter c1 = Counter.build().name("requests").help("help").labelNames("l").multiprocess(store1).create();
+    Counter c2 = Counter.build().name("requests").help("help").labelNames("l").multiprocess(store2).create();
+    c1.labels("a").inc(2.5);
+    c2.labels("a").inc();
+    c2.labels("b").inc(3);
+    assertEquals(3.5, registry.getSampleValue("requests_total", new String[]{"l"}, new String[]{"a"}), .001);
+    assertEquals(3.0, registry.getSampleValue("requests_total", new String[]{"l"}, new String[]{"b"}), .001);
+    assertNull(registry.getSampleValue("requests_created", new String[]{"l"}, new String[]{"a"}));
+  }
+
+  @Test
+  public void testIntegerCounter() {
+    Counter c = Counter.build().name("requests").help("help").integer().multiprocess(store1).create();
+    c.inc();
+    c.inc(4);
+    assertEquals(5.0, registry.getSampleValue("requests_total"), .001);
+  }
+
+  @Test
+  public void testRemovedChildContinuesFromSlot() {
+    Counter c = Counter.build().name("requests").help("help").labelNames("l").multiprocess(store1).create();
+    c.labels("a").inc(2);
+    c.remove("a");
+    c.labels("a").inc();
+    // The new child shares the slot with the old child, the counter must not go backwards.
+    assertEquals(3.0, registry.getSampleValue("requests_total", new String[]{"l"}, new String[]{"a"}), .001);
+
+    Counter i = Counter.build().name("integer").help("help").labelNames("l").integer().multiprocess(store1).create();
+    i.labels("a").inc(2);
+    i.clear();
+    i.labels("a").inc();
+    assertEquals(3.0, registry.getSampleValue("integer_total", new String[]{"l"}, new String[]{"a"}), .001);
+  }
+
+  @Test
+  public void testRemovedGaugeAndHistogramChildContinueFromSlot() {
+    Gauge g = Gauge.build().name("g").help("help").labelNames("l")
+        .multiprocess(store1, Gauge.MultiprocessMode.SUM).create();
+    g.labels("a").inc(2);
+    g.remove("a");
+    g.labels("a").dec();
+    assertEquals(1.0, registry.getSampleValue("g", new String[]{"l"}, new String[]{"a"}), .001);
+
+    Histogram h = Histogram.build().name("h").help("help").labelNames("l").buckets(1).multiprocess(store1).create();
+    h.labels("a").observe(0.5);
+    h.remove("a");
+    h.labels("a").observe(2);
+    assertEquals(1.0, registry.getSampleValue("h_bucket", new String[]{"l", "le"}, new String[]{"a", "1.0"}), .001);
+    assertEquals(2.0, registry.getSampleValue("h_count", new String[]{"l"}, new String[]{"a"}), .001);
+    assertEquals(2.5, registry.getSampleValue("h_sum", new String[]{"l"}, new String[]{"a"}), .001);
+  }
+
+  @Test
+  public void testGaugeModes() {
+    for (MultiprocessStore store : new MultiprocessStore[]{store1, store2}) {
+      double value = store == store1 ? 1 : 5;
+      Gauge.build().name("sum").help("help").multiprocess(store, Gauge.MultiprocessMode.SUM).create().set(value);
+      Gauge.build().name("min").help("help").multiprocess(store, Gauge.MultiprocessMode.MIN).create().set(value);
+      Gauge.build().name("max").help("help").multiprocess(store, Gauge.MultiprocessMode.MAX).create().set(value);
+    }
+    assertEquals(6.0, registry.getSampleValue("sum"), .001);
+    assertEquals(1.0, registry.getSampleValue("min"), .001);
+    assertEquals(5.0, registry.getSampleValue("max"), .001);
+    // Both stores belong to this process, so use only one of them for the per-process gauge.
+    Gauge.build().name("all").help("help").multiprocess(store1).create().set(1);
+    String pid1 = MultiprocessCollector.pid(store1.getFile().getName());
+    assertEquals(1.0, registry.getSampleValue("all", new String[]{"pid"}, new String[]{pid1}), .001);
+  }
+
+  @Test
+  public void testGaugeIncDec() {
+    Gauge g = Gauge.build().name("g").help("help").multiprocess(store1, Gauge.MultiprocessMode.SUM).create();
+    g.inc(3);
+    g.dec();
+    assertEquals(2.0, registry.getSampleValue("g"), .001);
+  }
+
+  @Test
+  public void testHistogram() {
+    Histogram h1 = Histogram.build().name("h").help("help").buckets(1, 2).multiprocess(store1).create();
+    Histogram h2 = Histogram.build().name("h").help("help").buckets(1, 2).multiprocess(store2).create();
+    h1.observe(0.5);
+    h1.observe(1.5);
+    h2.observe(1.5);
+    h2.observeAll(new double[]{3, 0.5}, 0, 2);
+    assertEquals(2.0, registry.getSampleValue("h_bucket", new String[]{"le"}, new String[]{"1.0"}), .001);
+    assertEquals(4.0, registry.getSampleValue("h_bucket", new String[]{"le"}, new String[]{"2.0"}), .001);
+    assertEquals(5.0, registry.getSampleValue("h_bucket", new String[]{"le"}, new String[]{"+Inf"}), .001);
+    assertEquals(5.0, registry.getSampleValue("h_count"), .001);
+    assertEquals(7.0, registry.getSampleValue("h_sum"), .001);
+
+    List<String> names = new ArrayList<String>();
+    for (Collector.MetricFamilySamples.Sample sample : registry.metricFamilySamples().nextElement().samples) {
+      names.add(sample.name + sample.labelValues);
+    }
+    assertEquals("[h_bucket[1.0], h_bucket[2.0], h_bucket[+Inf], h_count[], h_sum[]]", names.toString());
+  }
+
+  @Test
+  public void testGrowFile() {
+    Counter c = Counter.build().name("requests").help("help").labelNames("l").multiprocess(store1).create();
+    for (int i = 0; i < 2000; i++) {
+      c.labels("value-" + i).inc(i);
+    }
+    assertEquals(1999.0, registry.getSampleValue("requests_total", new String[]{"l"}, new String[]{"value-1999"}), .001);
+    assertEquals(7.0, registry.getSampleValue("requests_total", new String[]{"l"}, new String[]{"value-7"}), .001);
+  }
+
+  @Test
+  public void testEntryNotVisibleYet() throws IOException {
+    Counter c1 = Counter.build().name("requests").help("help").multiprocess(store1).create();
+    Counter c2 = Counter.build().name("requests").help("help").multiprocess(store2).create();
+    c1.inc(2);
+    c2.inc(3);
+    RandomAccessFile file = new RandomAccessFile(store2.getFile(), "rw");
+    try {
+      long used = file.readLong();
+      // The length was published, but the entry is still all zeros.
+      file.seek(0);
+      file.writeLong(used + 64);
+      assertEquals(5.0, registry.getSampleValue("requests_total"), .001);
+      // The key length is visible, but not the rest of the entry.
+      file.seek(used);
+      file.writeInt(1000);
+      assertEquals(5.0, registry.getSampleValue("requests_total"), .001);
+    } finally {
+      file.close();
+    }
+  }
+
+  @Test
+  public void testPid() {
+    assertEquals("1234", MultiprocessCollector.pid("pid-1234-5678.db"));
+  }
+}
@@ -0,0 +1,95 @@
+package io.prometheus.client;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RelativeErrorSketchTest {
+
+  private final double[] quantiles = {0.0, 0.01, 0.1, 0.5, 0.9, 0.95, 0.99, 0.999, 1.0};
+
+  @Test
+  public void testGetOnEmptySketch() {
+    assertTrue(Double.isNaN(new RelativeErrorSketch(0.01).get(0.5)));
+  }
+
+  @Test
+  public void testRelativeError() {
+    Random random = new Random(0);
+    RelativeErrorSketch sketch = new RelativeErrorSketch(0.01);
+    List<Double> input = new ArrayList<Double>();
+    for (int i = 0; i < 100000; i++) {
+      // Values spanning several orders of magnitude, including negative values and zero.
+      double value = Math.exp(random.nextGaussian() * 5) * (random.nextInt(10) == 0 ? -1 : 1);
+      input.add(i % 1000 == 0 ? 0.0 : value);
+    }
+    for (double value : input) {
+      sketch.insert(value);
+    }
+    validate(sketch, input, 0.01);
+  }
+
+  @Test
+  public void testMerge() {
+    Random random = new Random(1);
+    RelativeErrorSketch a = new RelativeErrorSketch(0.02);
+    RelativeErrorSketch b = new RelativeErrorSketch(0.02);
+    List<Double> input = new ArrayList<Double>();
+    for (int i = 0; i < 10000; i++) {
+      double value = random.nextDouble() * 1000;
+      input.add(value);
+      (i % 2 == 0 ? a : b).insert(value);
+    }
+    a.merge(b);
+    validate(a, input, 0.02);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMergeDifferentAccuracyThrows() {
+    new RelativeErrorSketch(0.01).merge(new RelativeErrorSketch(0.02));
+  }
+
+  @Test
+  public void testMaxBucketsCollapsesLowestValues() {
+    RelativeErrorSketch sketch = new RelativeErrorSketch(0.01, 100);
+    for (int i = 0; i < 1000; i++) {
+      sketch.insert(Math.pow(10, i / 100.0)); // 1 .. 10^10
+    }
+    // 100 buckets cover a factor of about e^2 below the max, so high quantiles are still accurate.
+    assertEquals(Math.pow(10, 9.98), sketch.get(0.999), Math.pow(10, 9.98) * 0.01);
+    assertEquals(Math.pow(10, 10 - 0.01), sketch.get(1.0), 0);
+    assertEquals(1.0, sketch.get(0.0), 0);
+  }
+
+  @Test
+  public void testReset() {
+    RelativeErrorSketch sketch = new RelativeErrorSketch(0.01);
+    sketch.insert(7);
+    sketch.reset();
+    assertTrue(Double.isNaN(sketch.get(0.5)));
+    sketch.insert(3);
+    assertEquals(3, sketch.get(0.5), 0.03);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidRelativeAccuracyThrows() {
+    RelativeErrorSketch.factory(0.0);
+  }
+
+  private void validate(RelativeErrorSketch sketch, List<Double> input, double relativeAccuracy) {
+    List<Double> sorted = new ArrayList<Double>(input);
+    Collections.sort(sorted);
+    for (double q : quantiles) {
+      double expected = sorted.get((int) (q * (sorted.size() - 1)));
+      double actual = sketch.get(q);
+      String msg = "q=" + q + ": expected " + expected + " but got " + actual;
+      assertTrue(msg, Math.abs(actual - expected) <= Math.abs(expected) * relativeAccuracy);
+    }
+  }
+}
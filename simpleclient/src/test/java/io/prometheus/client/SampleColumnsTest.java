@@ -0,0 +1,74 @@
+package io.prometheus.client;
+
+import io.prometheus.client.exemplars.Exemplar;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class SampleColumnsTest {
+
+  @Test
+  public void testRowsMaterializeAsSamples() {
+    List<String> labelValues = Arrays.asList("a");
+    Exemplar exemplar = new Exemplar(1.5, "trace_id", "abc");
+    SampleColumns columns = new SampleColumns(Arrays.asList("l"), "le", 0);
+    for (int i = 0; i < 10; i++) { // grows beyond the initial capacity
+      columns.add("h_bucket", labelValues, Integer.toString(i), i, i == 7 ? exemplar : null);
+    }
+    columns.add("h_count", labelValues, null, 10, null);
+
+    assertEquals(11, columns.size());
+    assertSame(labelValues, columns.getLabelValues(3));
+    assertEquals("3", columns.getExtraLabelValue(3));
+    assertNull(columns.getExtraLabelValue(10));
+    assertSame(exemplar, columns.getExemplar(7));
+    assertEquals(new Collector.MetricFamilySamples.Sample("h_bucket", Arrays.asList("l", "le"),
+        Arrays.asList("a", "7"), 7, exemplar), columns.get(7));
+    assertEquals(new Collector.MetricFamilySamples.Sample("h_count", Arrays.asList("l"), labelValues, 10),
+        columns.get(10));
+  }
+
+  @Test
+  public void testFilterKeepsColumns() {
+    SampleColumns columns = new SampleColumns(Collections.<String>emptyList(), "quantile", 4);
+    columns.add("s", Collections.<String>emptyList(), "0.5", 1, null);
+    columns.add("s_count", Collections.<String>emptyList(), null, 2, null);
+    columns.add("s_sum", Collections.<String>emptyList(), null, 3, null);
+    Collector.MetricFamilySamples mfs = new Collector.MetricFamilySamples("s", Collector.Type.SUMMARY, "help", columns);
+
+    Collector.MetricFamilySamples filtered = mfs.filter(new SampleNameFilter.Builder().nameMustNotBeEqualTo("s_count").build());
+    assertEquals(SampleColumns.class, filtered.samples.getClass());
+    List<String> names = new ArrayList<String>();
+    for (Collector.MetricFamilySamples.Sample sample : filtered.samples) {
+      names.add(sample.name);
+    }
+    assertEquals(Arrays.asList("s", "s_sum"), names);
+  }
+
+  @Test
+  public void testHistogramUsesColumns() {
+    Histogram h = Histogram.build().name("h").help("help").labelNames("l").buckets(1).create();
+    h.labels("a").observe(0.5);
+    List<Collector.MetricFamilySamples.Sample> samples = h.collect().get(0).samples;
+    assertEquals(SampleColumns.class, samples.getClass());
+    assertEquals(Arrays.asList("l", "le"), samples.get(0).labelNames);
+    assertEquals(Arrays.asList("a", "1.0"), samples.get(0).labelValues);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWrongNumberOfLabelValues() {
+    new SampleColumns(Arrays.asList("l"), null, 1).add("g", Collections.<String>emptyList(), null, 1, null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testExtraLabelValueWithoutName() {
+    new SampleColumns(Arrays.asList("l"), null, 1).add("g", Arrays.asList("a"), "x", 1, null);
+  }
+}
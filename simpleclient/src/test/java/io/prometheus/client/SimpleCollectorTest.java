@@ -3,6 +3,8 @@ package io.prometheus.client;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.rules.ExpectedException.none;
 
 import org.junit.Rule;
@@ -10,6 +12,8 @@ import org.junit.Test;
 import org.junit.Before;
 import org.junit.rules.ExpectedException;
 
+import java.util.concurrent.TimeUnit;
+
 
 public class SimpleCollectorTest {
 
@@ -56,6 +60,32 @@ public class SimpleCollectorTest {
     metric.labels("a", "b");
   }
   
+  @Test
+  public void testFixedArityLabelsReturnSameChildAsVarargs() {
+    Gauge g = Gauge.build().name("four").help("help").labelNames("a", "b", "c", "d").create();
+    assertSame(g.labels(new String[]{"1", "2", "3", "4"}), g.labels("1", "2", "3", "4"));
+    assertSame(g.labels("1", "2", "3", "4"), g.labels("1", "2", "3", "4"));
+    assertNotSame(g.labels("1", "2", "3", "4"), g.labels("1", "2", "3", "5"));
+    assertSame(metric.labels(new String[]{"a"}), metric.labels("a"));
+  }
+
+  @Test
+  public void testFixedArityNullLabelThrows() {
+    Gauge g = Gauge.build().name("two").help("help").labelNames("a", "b").create();
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("Label cannot be null.");
+    g.labels("a", (String) null);
+  }
+
+  @Test
+  public void testLabelValuesAreCopied() {
+    String[] labelValues = new String[]{"a"};
+    metric.labels(labelValues).set(1);
+    labelValues[0] = "b";
+    assertEquals(1.0, getValue("a").doubleValue(), .001);
+    assertNull(getValue("b"));
+  }
+
   @Test
   public void testRemove() {
     metric.labels("a");
@@ -104,6 +134,90 @@ public class SimpleCollectorTest {
     assertEquals(getValueNoLabels(), 2.0, .001);
   }
 
+  @Test
+  public void testMaxChildrenOverflowChild() {
+    Gauge g = Gauge.build().name("limited").help("help").labelNames("l").maxChildren(2).register(registry);
+    g.labels("a").inc();
+    g.labels("b").inc();
+    g.labels("c").inc();
+    g.labels("d").inc();
+    assertSame(g.labels("c"), g.labels(SimpleCollector.OVERFLOW_LABEL_VALUE));
+    assertEquals(3, g.children.size());
+    assertEquals(1.0, registry.getSampleValue("limited", new String[]{"l"}, new String[]{"a"}), .001);
+    assertNull(registry.getSampleValue("limited", new String[]{"l"}, new String[]{"c"}));
+    assertEquals(2.0, registry.getSampleValue("limited", new String[]{"l"}, new String[]{"__overflow__"}), .001);
+    // Every rejected lookup is counted, also repeated lookups of the same label set.
+    assertEquals(3.0, registry.getSampleValue("limited_cardinality_overflow_total"), .001);
+
+    // Removing a child makes room for a new label set.
+    g.remove("a");
+    g.labels("e").inc();
+    assertEquals(1.0, registry.getSampleValue("limited", new String[]{"l"}, new String[]{"e"}), .001);
+  }
+
+  @Test
+  public void testMaxChildrenDrop() {
+    Gauge g = Gauge.build().name("limited").help("help").labelNames("l")
+        .maxChildren(1, SimpleCollector.OverflowPolicy.DROP).register(registry);
+    g.labels("a").inc();
+    g.labels("b").inc();
+    g.labels("c").inc();
+    assertEquals(1, g.children.size());
+    assertNull(registry.getSampleValue("limited", new String[]{"l"}, new String[]{"b"}));
+    assertNull(registry.getSampleValue("limited", new String[]{"l"}, new String[]{"__overflow__"}));
+    assertEquals(2.0, registry.getSampleValue("limited_cardinality_overflow_total"), .001);
+  }
+
+  @Test
+  public void testMaxChildrenNotExportedByDefault() {
+    metric.labels("a").inc();
+    assertNull(registry.getSampleValue("labels_cardinality_overflow_total"));
+  }
+
+  @Test
+  public void testMaxChildrenNameCollision() {
+    Gauge.build().name("limited").help("help").labelNames("l").maxChildren(1).register(registry);
+    thrown.expect(IllegalArgumentException.class);
+    Counter.build().name("limited_cardinality_overflow_total").help("help").register(registry);
+  }
+
+  @Test
+  public void testInvalidMaxChildrenThrows() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("maxChildren cannot be 0");
+    Gauge.build().name("limited").help("help").maxChildren(0);
+  }
+
+  @Test
+  public void testExpireAfterIdle() {
+    Gauge g = Gauge.build().name("expiring").help("help").labelNames("l")
+        .expireAfterIdle(1, TimeUnit.MINUTES).register(registry);
+    Gauge.Child a = g.labels("a");
+    g.labels("b");
+    g.labels("c");
+    long now = System.currentTimeMillis();
+    g.removeIdleChildren(now);
+    assertEquals(3, g.children.size());
+
+    a.set(1);
+    g.labels("b");
+    g.removeIdleChildren(now + 59 * 1000);
+    assertEquals(3, g.children.size());
+    g.removeIdleChildren(now + 61 * 1000);
+    assertEquals(2, g.children.size());
+    assertNull(registry.getSampleValue("expiring", new String[]{"l"}, new String[]{"c"}));
+
+    g.removeIdleChildren(now + 120 * 1000);
+    assertEquals(0, g.children.size());
+  }
+
+  @Test
+  public void testInvalidExpireAfterIdleThrows() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("expireAfterIdle cannot be 0");
+    Gauge.build().name("expiring").help("help").expireAfterIdle(0, TimeUnit.SECONDS);
+  }
+
   @Test
   public void testNameIsConcatenated() {
     assertEquals("a_b_c", Gauge.build().name("c").subsystem("b").namespace("a").help("h").create().fullname);
@@ -162,6 +276,7 @@ public class SimpleCollectorTest {
       }
     }, "a");
     assertEquals(42.0, getValue("a").doubleValue(), .001);
+    assertEquals(42.0, metric.labels("a").get(), .001);
   }
 
   @Test
@@ -0,0 +1,77 @@
+package io.prometheus.client;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+
+public class StripedBufferTest {
+
+  private static class CountingBuffer extends StripedBuffer {
+    long count = 0;
+    double sum = 0;
+
+    @Override
+    synchronized void flush(double[] values, int n) {
+      count += n;
+      for (int i = 0; i < n; i++) {
+        sum += values[i];
+      }
+    }
+  }
+
+  @Test
+  public void testSingleThread() {
+    CountingBuffer buffer = new CountingBuffer();
+    for (int i = 1; i <= StripedBuffer.BUFFER_SIZE; i++) {
+      buffer.add(i);
+    }
+    // The full buffer was flushed by the writer.
+    assertEquals(StripedBuffer.BUFFER_SIZE, buffer.count);
+    buffer.add(1);
+    assertEquals(StripedBuffer.BUFFER_SIZE, buffer.count);
+    buffer.flushAll();
+    assertEquals(StripedBuffer.BUFFER_SIZE + 1, buffer.count);
+    buffer.flushAll();
+    assertEquals(StripedBuffer.BUFFER_SIZE + 1, buffer.count);
+  }
+
+  @Test
+  public void testConcurrentWritersAndReader() throws InterruptedException {
+    final CountingBuffer buffer = new CountingBuffer();
+    final int nThreads = 8;
+    final int nValues = 100000;
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < nThreads; t++) {
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (int i = 0; i < nValues; i++) {
+            buffer.add(1.0);
+          }
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    start.countDown();
+    for (int i = 0; i < 100; i++) {
+      buffer.flushAll();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    buffer.flushAll();
+    assertEquals(nThreads * nValues, buffer.count);
+    assertEquals(nThreads * nValues, buffer.sum, 0.0);
+  }
+}
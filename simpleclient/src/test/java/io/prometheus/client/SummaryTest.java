@@ -70,6 +70,28 @@ public class SummaryTest {
     assertEquals(6.0, noLabels.get().sum, .001);
   }
 
+  @Test
+  public void testObserveAll() {
+    noLabels.observeAll(new double[]{1, 2, 3, 4}, 1, 3);
+    assertEquals(2.0, getCount(), .001);
+    assertEquals(5.0, getSum(), .001);
+    noLabels.observeAll(new double[]{1, 2}, 1, 1);
+    assertEquals(2.0, getCount(), .001);
+
+    int nSamples = 100000;
+    double[] values = new double[nSamples];
+    for (int i = 0; i < nSamples; i++) {
+      values[i] = i + 1;
+    }
+    for (int from = 0; from < nSamples; from += 1000) {
+      noLabelsAndQuantiles.observeAll(values, from, from + 1000);
+    }
+    assertEquals(nSamples, noLabelsAndQuantiles.get().count, 0);
+    assertEquals(getNoLabelQuantile(0.5), 0.5 * nSamples, 0.05 * nSamples);
+    assertEquals(getNoLabelQuantile(0.9), 0.9 * nSamples, 0.01 * nSamples);
+    assertEquals(getNoLabelQuantile(0.99), 0.99 * nSamples, 0.001 * nSamples);
+  }
+
   @Test
   // See https://github.com/prometheus/client_java/issues/646
   public void testNegativeAmount() {
@@ -116,6 +138,68 @@ public class SummaryTest {
     assertEquals(Double.NaN, val, 0.0); // Bucket 1 again, now it is empty.
   }
 
+  @Test
+  public void testMaxAgeWithBufferedObservations() throws InterruptedException {
+    Summary summary = Summary.build()
+            .quantile(0.99, 0.001)
+            .bufferObservations()
+            .maxAgeSeconds(1)
+            .ageBuckets(2)
+            .name("short_attention_span").help("help").register(registry);
+    summary.observe(8.0);
+    double val = registry.getSampleValue("short_attention_span", new String[]{"quantile"}, new String[]{Collector.doubleToGoString(0.99)}).doubleValue();
+    assertEquals(8.0, val, 0.0);
+    // Not collected before it expires, the observation must not be inserted into newer time windows.
+    summary.observe(9.0);
+    Thread.sleep(1200);
+    val = registry.getSampleValue("short_attention_span", new String[]{"quantile"}, new String[]{Collector.doubleToGoString(0.99)}).doubleValue();
+    assertEquals(Double.NaN, val, 0.0);
+    summary.observe(7.0);
+    val = registry.getSampleValue("short_attention_span", new String[]{"quantile"}, new String[]{Collector.doubleToGoString(0.99)}).doubleValue();
+    assertEquals(7.0, val, 0.0);
+  }
+
+  @Test
+  public void testQuantileEstimator() {
+    Summary sketch = Summary.build()
+            .quantile(0.5, 0.05)
+            .quantile(0.99, 0.001)
+            .quantileEstimator(RelativeErrorSketch.factory(0.01))
+            .name("sketch").help("help").register(registry);
+    Summary tdigest = Summary.build()
+            .quantile(0.5, 0.05)
+            .quantile(0.99, 0.001)
+            .quantileEstimator(TDigest.factory(100))
+            .name("tdigest").help("help").register(registry);
+    for (int i = 1; i <= 100000; i++) {
+      sketch.observe(i);
+      tdigest.observe(i);
+    }
+    for (String name : new String[]{"sketch", "tdigest"}) {
+      assertEquals(50000, registry.getSampleValue(name, new String[]{"quantile"}, new String[]{"0.5"}), 500);
+      assertEquals(99000, registry.getSampleValue(name, new String[]{"quantile"}, new String[]{"0.99"}), 990);
+    }
+  }
+
+  @Test
+  public void testMaxAgeWithQuantileEstimator() throws InterruptedException {
+    Summary summary = Summary.build()
+            .quantile(0.99, 0.001)
+            .quantileEstimator(TDigest.factory(100))
+            .maxAgeSeconds(1)
+            .ageBuckets(2)
+            .name("short_attention_span").help("help").register(registry);
+    summary.observe(8.0);
+    double val = registry.getSampleValue("short_attention_span", new String[]{"quantile"}, new String[]{Collector.doubleToGoString(0.99)}).doubleValue();
+    assertEquals(8.0, val, 0.0);
+    Thread.sleep(600);
+    val = registry.getSampleValue("short_attention_span", new String[]{"quantile"}, new String[]{Collector.doubleToGoString(0.99)}).doubleValue();
+    assertEquals(8.0, val, 0.0);
+    Thread.sleep(600);
+    val = registry.getSampleValue("short_attention_span", new String[]{"quantile"}, new String[]{Collector.doubleToGoString(0.99)}).doubleValue();
+    assertEquals(Double.NaN, val, 0.0);
+  }
+
   @Test
   public void testTimer() {
     SimpleTimer.defaultTimeProvider = new SimpleTimer.TimeProvider() {
@@ -217,6 +301,23 @@ public class SummaryTest {
     assertEquals(mfsFixture, mfs.get(0));
   }
 
+  @Test
+  public void testCollectWithoutQuantiles() {
+    labelsAndQuantiles.labels("a").observe(2);
+    List<Collector.MetricFamilySamples> mfs = labelsAndQuantiles.collect(new SampleNameFilter.Builder()
+        .nameMustNotBeEqualTo("labels_and_quantiles").build());
+
+    ArrayList<Collector.MetricFamilySamples.Sample> samples = new ArrayList<Collector.MetricFamilySamples.Sample>();
+    samples.add(new Collector.MetricFamilySamples.Sample("labels_and_quantiles_count", asList("l"), asList("a"), 1.0));
+    samples.add(new Collector.MetricFamilySamples.Sample("labels_and_quantiles_sum", asList("l"), asList("a"), 2.0));
+    samples.add(new Collector.MetricFamilySamples.Sample("labels_and_quantiles_created", asList("l"), asList("a"), labelsAndQuantiles.labels("a").get().created / 1000.0));
+    Collector.MetricFamilySamples mfsFixture = new Collector.MetricFamilySamples("labels_and_quantiles", Collector.Type.SUMMARY, "help", samples);
+
+    assertEquals(1, mfs.size());
+    assertEquals(mfsFixture, mfs.get(0));
+    assertTrue(labelsAndQuantiles.labels("a").get(false).quantiles.isEmpty());
+  }
+
   @Test
   public void testChildAndValuePublicApi() throws Exception {
     assertTrue(Modifier.isPublic(Summary.Child.class.getModifiers()));
@@ -0,0 +1,83 @@
+package io.prometheus.client;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TDigestTest {
+
+  @Test
+  public void testGetOnEmptyDigest() {
+    assertTrue(Double.isNaN(new TDigest().get(0.5)));
+  }
+
+  @Test
+  public void testRankError() {
+    Random random = new Random(0);
+    TDigest digest = new TDigest(100);
+    List<Double> input = shuffledValues(1000000, random);
+    for (double value : input) {
+      digest.insert(value);
+    }
+    validate(digest, input.size());
+  }
+
+  @Test
+  public void testMerge() {
+    Random random = new Random(1);
+    TDigest a = new TDigest(100);
+    TDigest b = new TDigest(200);
+    List<Double> input = shuffledValues(100000, random);
+    for (int i = 0; i < input.size(); i++) {
+      (i % 3 == 0 ? a : b).insert(input.get(i));
+    }
+    a.merge(b);
+    validate(a, input.size());
+    // b keeps its observations
+    assertEquals(input.size(), b.get(1.0), 0);
+  }
+
+  @Test
+  public void testReset() {
+    TDigest digest = new TDigest();
+    digest.insert(7);
+    digest.reset();
+    assertTrue(Double.isNaN(digest.get(0.5)));
+    digest.insert(3);
+    assertEquals(3, digest.get(0.5), 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidCompressionThrows() {
+    TDigest.factory(1);
+  }
+
+  /**
+   * The input are the numbers 1 to n, so the error in value is the error in rank.
+   */
+  private void validate(TDigest digest, int n) {
+    assertEquals(1, digest.get(0.0), 0);
+    assertEquals(n, digest.get(1.0), 0);
+    double[] quantiles = {0.001, 0.01, 0.1, 0.5, 0.9, 0.99, 0.999};
+    for (double q : quantiles) {
+      // With compression 100, a centroid at quantile q spans about 2 pi sqrt(q(1-q)) / 100 of the observations.
+      double allowedRankError = Math.PI * Math.sqrt(q * (1 - q)) / 100 * n;
+      assertEquals("q=" + q, q * n, digest.get(q), allowedRankError);
+    }
+  }
+
+  private List<Double> shuffledValues(int n, Random random) {
+    List<Double> result = new ArrayList<Double>(n);
+    for (int i = 0; i < n; i++) {
+      result.add(i + 1.0);
+    }
+    Collections.shuffle(result, random);
+    return result;
+  }
+}
@@ -0,0 +1,85 @@
+package io.prometheus.client.exporter.common;
+
+import java.util.Enumeration;
+import java.util.concurrent.TimeUnit;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Predicate;
+
+/**
+ * The scrape timeout that Prometheus sends with each scrape.
+ * <p>
+ * Exporters pass it to {@link TextFormat#writeFormat(String, java.io.Writer, CollectorRegistry, Predicate, long)}
+ * or {@link CollectorRegistry#filteredMetricFamilySamples(Predicate, long, TimeUnit)}, so that a slow collector
+ * doesn't make the whole scrape time out. Prometheus gives up on the scrape when the timeout expires, so the
+ * timeout is shortened by a {@link #setSafetyMargin(double) safety margin} that is left for sending the response.
+ * <p>
+ * Collectors that didn't start before the timeout are skipped. A collector that is already running can only be
+ * abandoned if the registry uses
+ * {@link CollectorRegistry#enableParallelCollection(java.util.concurrent.Executor, long, TimeUnit) parallel
+ * collection}, otherwise the scrape waits for it.
+ */
+public class ScrapeTimeout {
+
+  /**
+   * Request header with the scrape timeout in seconds.
+   */
+  public final static String HEADER = "X-Prometheus-Scrape-Timeout-Seconds";
+
+  private static volatile double safetyMargin = 0.1;
+
+  /**
+   * The fraction of the scrape timeout that is left for sending the response, the default is 0.1.
+   *
+   * @throws IllegalArgumentException if {@code fraction} is not at least 0 and less than 1.
+   */
+  public static void setSafetyMargin(double fraction) {
+    if (!(fraction >= 0 && fraction < 1)) {
+      throw new IllegalArgumentException("Safety margin must be at least 0 and less than 1, got " + fraction + ".");
+    }
+    safetyMargin = fraction;
+  }
+
+  /**
+   * The fraction of the scrape timeout that is left for sending the response.
+   */
+  public static double getSafetyMargin() {
+    return safetyMargin;
+  }
+
+  /**
+   * Parse the value of the {@link #HEADER} header, and subtract the {@link #setSafetyMargin(double) safety margin}.
+   *
+   * @return the timeout in nanoseconds, or 0 if {@code headerValue} is {@code null} or not a positive number.
+   */
+  public static long parseNanos(String headerValue) {
+    if (headerValue == null) {
+      return 0;
+    }
+    try {
+      double seconds = Double.parseDouble(headerValue.trim());
+      if (seconds > 0 && !Double.isInfinite(seconds)) {
+        return Math.max(1, (long) (seconds * (1 - safetyMargin) * 1e9));
+      }
+    } catch (NumberFormatException e) {
+      // ignored, like a missing header
+    }
+    return 0;
+  }
+
+  /**
+   * The metrics of {@code registry}, within the timeout given by the {@link #HEADER} header if there is one.
+   *
+   * @param sampleNameFilter may be {@code null}, indicating that all metrics should be returned.
+   * @param headerValue      value of the {@link #HEADER} header, may be {@code null}.
+   */
+  public static Enumeration<Collector.MetricFamilySamples> metricFamilySamples(CollectorRegistry registry,
+      Predicate<String> sampleNameFilter, String headerValue) {
+    long timeoutNanos = parseNanos(headerValue);
+    if (timeoutNanos > 0) {
+      return registry.filteredMetricFamilySamples(sampleNameFilter, timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+    return registry.filteredMetricFamilySamples(sampleNameFilter);
+  }
+}
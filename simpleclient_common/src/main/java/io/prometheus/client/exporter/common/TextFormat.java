@@ -6,10 +6,16 @@ import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 
 import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Predicate;
+import io.prometheus.client.SampleSink;
+import io.prometheus.client.exemplars.Exemplar;
 
 public class TextFormat {
   /**
@@ -60,79 +66,164 @@ public class TextFormat {
     throw new IllegalArgumentException("Unknown contentType " + contentType);
   }
 
+  /**
+   * Write out the metrics of {@code registry} in a format per the contentType, without building the complete
+   * list of {@code MetricFamilySamples} first. See {@link CollectorRegistry#collect(SampleSink, Predicate)}.
+   *
+   * @param sampleNameFilter may be {@code null}, indicating that all metrics should be written.
+   * @param timeoutNanos     like {@link CollectorRegistry#collect(SampleSink, Predicate, long, TimeUnit)},
+   *                         0 means no timeout.
+   */
+  public static void writeFormat(String contentType, Writer writer, CollectorRegistry registry,
+                                 Predicate<String> sampleNameFilter, long timeoutNanos) throws IOException {
+    FormatSink sink;
+    if (CONTENT_TYPE_004.equals(contentType)) {
+      sink = new Sink004(writer);
+    } else if (CONTENT_TYPE_OPENMETRICS_100.equals(contentType)) {
+      sink = new SinkOpenMetrics100(writer);
+    } else {
+      throw new IllegalArgumentException("Unknown contentType " + contentType);
+    }
+    if (timeoutNanos > 0) {
+      registry.collect(sink, sampleNameFilter, timeoutNanos, TimeUnit.NANOSECONDS);
+    } else {
+      registry.collect(sink, sampleNameFilter);
+    }
+    sink.finish();
+  }
+
   /**
    * Write out the text version 0.0.4 of the given MetricFamilySamples.
    */
   public static void write004(Writer writer, Enumeration<Collector.MetricFamilySamples> mfs) throws IOException {
-    Map<String, Collector.MetricFamilySamples> omFamilies = new TreeMap<String, Collector.MetricFamilySamples>();
+    write(new Sink004(writer), mfs);
+  }
+
+  private static void write(FormatSink sink, Enumeration<Collector.MetricFamilySamples> mfs) throws IOException {
+    while(mfs.hasMoreElements()) {
+      mfs.nextElement().writeTo(sink);
+    }
+    sink.finish();
+  }
+
+  private interface FormatSink extends SampleSink {
+    /**
+     * Called after the last family.
+     */
+    void finish() throws IOException;
+  }
+
+  private static final class Sink004 implements FormatSink {
+
+    private final Writer writer;
+    private final Map<String, Collector.MetricFamilySamples> omFamilies = new TreeMap<String, Collector.MetricFamilySamples>();
+    private String help;
+    private String createdName;
+    private String gcountName;
+    private String gsumName;
+
+    Sink004(Writer writer) {
+      this.writer = writer;
+    }
+
     /* See http://prometheus.io/docs/instrumenting/exposition_formats/
      * for the output format specification. */
-    while(mfs.hasMoreElements()) {
-      Collector.MetricFamilySamples metricFamilySamples = mfs.nextElement();
-      String name = metricFamilySamples.name;
+    @Override
+    public void startFamily(String name, String unit, Collector.Type type, String help) throws IOException {
       writer.write("# HELP ");
       writer.write(name);
-      if (metricFamilySamples.type == Collector.Type.COUNTER) {
+      if (type == Collector.Type.COUNTER) {
         writer.write("_total");
       }
-      if (metricFamilySamples.type == Collector.Type.INFO) {
+      if (type == Collector.Type.INFO) {
         writer.write("_info");
       }
       writer.write(' ');
-      writeEscapedHelp(writer, metricFamilySamples.help);
+      writeEscapedHelp(writer, help);
       writer.write('\n');
 
       writer.write("# TYPE ");
       writer.write(name);
-      if (metricFamilySamples.type == Collector.Type.COUNTER) {
+      if (type == Collector.Type.COUNTER) {
         writer.write("_total");
       }
-      if (metricFamilySamples.type == Collector.Type.INFO) {
+      if (type == Collector.Type.INFO) {
         writer.write("_info");
       }
       writer.write(' ');
-      writer.write(typeString(metricFamilySamples.type));
+      writer.write(typeString(type));
       writer.write('\n');
 
-      String createdName = name + "_created";
-      String gcountName = name + "_gcount";
-      String gsumName = name + "_gsum";
-      for (Collector.MetricFamilySamples.Sample sample: metricFamilySamples.samples) {
-        /* OpenMetrics specific sample, put in a gauge at the end. */
-        if (sample.name.equals(createdName)
-            || sample.name.equals(gcountName)
-            || sample.name.equals(gsumName)) {
-          Collector.MetricFamilySamples omFamily = omFamilies.get(sample.name);
-          if (omFamily == null) {
-            omFamily = new Collector.MetricFamilySamples(sample.name, Collector.Type.GAUGE, metricFamilySamples.help, new ArrayList<Collector.MetricFamilySamples.Sample>());
-            omFamilies.put(sample.name, omFamily);
-          }
-          omFamily.samples.add(sample);
-          continue;
+      this.help = help;
+      createdName = name + "_created";
+      gcountName = name + "_gcount";
+      gsumName = name + "_gsum";
+    }
+
+    @Override
+    public void sample(String name, List<String> labelNames, List<String> labelValues, String extraLabelName,
+                       String extraLabelValue, double value, Exemplar exemplar, Long timestampMs)
+        throws IOException {
+      /* OpenMetrics specific sample, put in a gauge at the end. */
+      if (name.equals(createdName)
+          || name.equals(gcountName)
+          || name.equals(gsumName)) {
+        Collector.MetricFamilySamples omFamily = omFamilies.get(name);
+        if (omFamily == null) {
+          omFamily = new Collector.MetricFamilySamples(name, Collector.Type.GAUGE, help, new ArrayList<Collector.MetricFamilySamples.Sample>());
+          omFamilies.put(name, omFamily);
         }
-        writer.write(sample.name);
-        if (sample.labelNames.size() > 0) {
-          writer.write('{');
-          for (int i = 0; i < sample.labelNames.size(); ++i) {
-            writer.write(sample.labelNames.get(i));
-            writer.write("=\"");
-            writeEscapedLabelValue(writer, sample.labelValues.get(i));
-            writer.write("\",");
-          }
-          writer.write('}');
+        omFamily.samples.add(copy(name, labelNames, labelValues, extraLabelName, extraLabelValue, value, timestampMs));
+        return;
+      }
+      writer.write(name);
+      if (labelNames.size() > 0 || extraLabelValue != null) {
+        writer.write('{');
+        for (int i = 0; i < labelNames.size(); ++i) {
+          writer.write(labelNames.get(i));
+          writer.write("=\"");
+          writeEscapedLabelValue(writer, labelValues.get(i));
+          writer.write("\",");
         }
-        writer.write(' ');
-        writer.write(Collector.doubleToGoString(sample.value));
-        if (sample.timestampMs != null){
-          writer.write(' ');
-          writer.write(sample.timestampMs.toString());
+        if (extraLabelValue != null) {
+          writer.write(extraLabelName);
+          writer.write("=\"");
+          writeEscapedLabelValue(writer, extraLabelValue);
+          writer.write("\",");
         }
-        writer.write('\n');
+        writer.write('}');
+      }
+      writer.write(' ');
+      writer.write(Collector.doubleToGoString(value));
+      if (timestampMs != null){
+        writer.write(' ');
+        writer.write(timestampMs.toString());
       }
+      writer.write('\n');
+    }
+
+    @Override
+    public void endFamily() {
     }
-    // Write out any OM-specific samples.
-    if (!omFamilies.isEmpty()) {
-      write004(writer, Collections.enumeration(omFamilies.values()));
+
+    @Override
+    public void finish() throws IOException {
+      // Write out any OM-specific samples.
+      if (!omFamilies.isEmpty()) {
+        write004(writer, Collections.enumeration(omFamilies.values()));
+      }
+    }
+
+    private static Collector.MetricFamilySamples.Sample copy(String name, List<String> labelNames,
+                                                             List<String> labelValues, String extraLabelName,
+                                                             String extraLabelValue, double value, Long timestampMs) {
+      List<String> names = new ArrayList<String>(labelNames);
+      List<String> values = new ArrayList<String>(labelValues);
+      if (extraLabelValue != null) {
+        names.add(extraLabelName);
+        values.add(extraLabelValue);
+      }
+      return new Collector.MetricFamilySamples.Sample(name, names, values, value, timestampMs);
     }
   }
 
@@ -198,73 +289,102 @@ public class TextFormat {
    * @since 0.10.0
    */
   public static void writeOpenMetrics100(Writer writer, Enumeration<Collector.MetricFamilySamples> mfs) throws IOException {
-    while(mfs.hasMoreElements()) {
-      Collector.MetricFamilySamples metricFamilySamples = mfs.nextElement();
-      String name = metricFamilySamples.name;
+    write(new SinkOpenMetrics100(writer), mfs);
+  }
+
+  private static final class SinkOpenMetrics100 implements FormatSink {
+
+    private final Writer writer;
+
+    SinkOpenMetrics100(Writer writer) {
+      this.writer = writer;
+    }
 
+    @Override
+    public void startFamily(String name, String unit, Collector.Type type, String help) throws IOException {
       writer.write("# TYPE ");
       writer.write(name);
       writer.write(' ');
-      writer.write(omTypeString(metricFamilySamples.type));
+      writer.write(omTypeString(type));
       writer.write('\n');
 
-      if (!metricFamilySamples.unit.isEmpty()) {
+      if (!unit.isEmpty()) {
         writer.write("# UNIT ");
         writer.write(name);
         writer.write(' ');
-        writer.write(metricFamilySamples.unit);
+        writer.write(unit);
         writer.write('\n');
       }
 
       writer.write("# HELP ");
       writer.write(name);
       writer.write(' ');
-      writeEscapedLabelValue(writer, metricFamilySamples.help);
+      writeEscapedLabelValue(writer, help);
       writer.write('\n');
- 
-      for (Collector.MetricFamilySamples.Sample sample: metricFamilySamples.samples) {
-        writer.write(sample.name);
-        if (sample.labelNames.size() > 0) {
-          writer.write('{');
-          for (int i = 0; i < sample.labelNames.size(); ++i) {
-            if (i > 0) {
-              writer.write(",");
-            }
-            writer.write(sample.labelNames.get(i));
-            writer.write("=\"");
-            writeEscapedLabelValue(writer, sample.labelValues.get(i));
-            writer.write("\"");
+    }
+
+    @Override
+    public void sample(String name, List<String> labelNames, List<String> labelValues, String extraLabelName,
+                       String extraLabelValue, double value, Exemplar exemplar, Long timestampMs)
+        throws IOException {
+      writer.write(name);
+      if (labelNames.size() > 0 || extraLabelValue != null) {
+        writer.write('{');
+        for (int i = 0; i < labelNames.size(); ++i) {
+          if (i > 0) {
+            writer.write(",");
           }
-          writer.write('}');
+          writer.write(labelNames.get(i));
+          writer.write("=\"");
+          writeEscapedLabelValue(writer, labelValues.get(i));
+          writer.write("\"");
         }
-        writer.write(' ');
-        writer.write(Collector.doubleToGoString(sample.value));
-        if (sample.timestampMs != null){
-          writer.write(' ');
-          omWriteTimestamp(writer, sample.timestampMs);
-        }
-        if (sample.exemplar != null) {
-          writer.write(" # {");
-          for (int i=0; i<sample.exemplar.getNumberOfLabels(); i++) {
-            if (i > 0) {
-              writer.write(",");
-            }
-            writer.write(sample.exemplar.getLabelName(i));
-            writer.write("=\"");
-            writeEscapedLabelValue(writer, sample.exemplar.getLabelValue(i));
-            writer.write("\"");
+        if (extraLabelValue != null) {
+          if (labelNames.size() > 0) {
+            writer.write(",");
           }
-          writer.write("} ");
-          writer.write(Collector.doubleToGoString(sample.exemplar.getValue()));
-          if (sample.exemplar.getTimestampMs() != null) {
-            writer.write(' ');
-            omWriteTimestamp(writer, sample.exemplar.getTimestampMs());
+          writer.write(extraLabelName);
+          writer.write("=\"");
+          writeEscapedLabelValue(writer, extraLabelValue);
+          writer.write("\"");
+        }
+        writer.write('}');
+      }
+      writer.write(' ');
+      writer.write(Collector.doubleToGoString(value));
+      if (timestampMs != null){
+        writer.write(' ');
+        omWriteTimestamp(writer, timestampMs);
+      }
+      if (exemplar != null) {
+        writer.write(" # {");
+        for (int i=0; i<exemplar.getNumberOfLabels(); i++) {
+          if (i > 0) {
+            writer.write(",");
           }
+          writer.write(exemplar.getLabelName(i));
+          writer.write("=\"");
+          writeEscapedLabelValue(writer, exemplar.getLabelValue(i));
+          writer.write("\"");
+        }
+        writer.write("} ");
+        writer.write(Collector.doubleToGoString(exemplar.getValue()));
+        if (exemplar.getTimestampMs() != null) {
+          writer.write(' ');
+          omWriteTimestamp(writer, exemplar.getTimestampMs());
         }
-        writer.write('\n');
       }
+      writer.write('\n');
+    }
+
+    @Override
+    public void endFamily() {
+    }
+
+    @Override
+    public void finish() throws IOException {
+      writer.write("# EOF\n");
     }
-    writer.write("# EOF\n");
   }
 
   static void omWriteTimestamp(Writer writer, long timestampMs) throws IOException {
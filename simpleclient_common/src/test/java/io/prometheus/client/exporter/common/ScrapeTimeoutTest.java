@@ -0,0 +1,38 @@
+package io.prometheus.client.exporter.common;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ScrapeTimeoutTest {
+
+  @Test
+  public void testParseNanos() {
+    assertEquals(9000000000L, ScrapeTimeout.parseNanos("10"));
+    assertEquals(2250000000L, ScrapeTimeout.parseNanos(" 2.5 "));
+    assertEquals(0, ScrapeTimeout.parseNanos(null));
+    assertEquals(0, ScrapeTimeout.parseNanos(""));
+    assertEquals(0, ScrapeTimeout.parseNanos("abc"));
+    assertEquals(0, ScrapeTimeout.parseNanos("-1"));
+    assertEquals(0, ScrapeTimeout.parseNanos("0"));
+    assertEquals(0, ScrapeTimeout.parseNanos("NaN"));
+    assertEquals(0, ScrapeTimeout.parseNanos("Infinity"));
+  }
+
+  @Test
+  public void testSafetyMargin() {
+    try {
+      ScrapeTimeout.setSafetyMargin(0);
+      assertEquals(10000000000L, ScrapeTimeout.parseNanos("10"));
+      ScrapeTimeout.setSafetyMargin(0.25);
+      assertEquals(7500000000L, ScrapeTimeout.parseNanos("10"));
+    } finally {
+      ScrapeTimeout.setSafetyMargin(0.1);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSafetyMarginMustBeLessThanOne() {
+    ScrapeTimeout.setSafetyMargin(1);
+  }
+}
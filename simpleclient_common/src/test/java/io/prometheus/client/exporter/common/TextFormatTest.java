@@ -15,7 +15,10 @@ import io.prometheus.client.Collector;
 import io.prometheus.client.CollectorRegistry;
 import io.prometheus.client.Counter;
 import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
 import io.prometheus.client.Info;
+import io.prometheus.client.Predicate;
+import io.prometheus.client.SampleNameFilter;
 import io.prometheus.client.Summary;
 
 
@@ -232,6 +235,28 @@ public class TextFormatTest {
                  + "nolabels 1.0\n", writer.toString());
   }
 
+  @Test
+  public void testWriteRegistryMatchesEnumeration() throws IOException {
+    Counter.build().name("requests").help("help").labelNames("path").register(registry).labels("/").inc();
+    Gauge.build().name("temperature").help("help").register(registry).set(21);
+    Gauge.build().name("empty").help("help").labelNames("l").register(registry);
+    Histogram.build().name("latency").help("help").labelNames("path").buckets(0.1, 1).register(registry)
+        .labels("/").observe(0.5);
+    Summary.build().name("size").help("help").quantile(0.5, 0.05).register(registry).observe(3);
+    Info.build().name("build").help("help").register(registry).info("version", "1.0");
+
+    Predicate<String> filter = new SampleNameFilter.Builder().nameMustNotStartWith("latency_bucket").build();
+    for (String contentType : new String[]{TextFormat.CONTENT_TYPE_004, TextFormat.CONTENT_TYPE_OPENMETRICS_100}) {
+      for (Predicate<String> f : Arrays.asList(null, filter)) {
+        StringWriter expected = new StringWriter();
+        TextFormat.writeFormat(contentType, expected, registry.filteredMetricFamilySamples(f));
+        StringWriter actual = new StringWriter();
+        TextFormat.writeFormat(contentType, actual, registry, f, 0);
+        assertEquals(expected.toString(), actual.toString());
+      }
+    }
+  }
+
   @Test
   public void testChooseContentType() throws IOException {
     assertEquals(TextFormat.CONTENT_TYPE_004, TextFormat.chooseContentType(null));
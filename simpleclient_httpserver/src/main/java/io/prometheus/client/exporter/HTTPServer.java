@@ -11,6 +11,7 @@ import io.prometheus.client.CollectorRegistry;
 import io.prometheus.client.Predicate;
 import io.prometheus.client.SampleNameFilter;
 import io.prometheus.client.Supplier;
+import io.prometheus.client.exporter.common.ScrapeTimeout;
 import io.prometheus.client.exporter.common.TextFormat;
 
 import java.io.ByteArrayOutputStream;
@@ -44,6 +45,7 @@ import java.util.zip.GZIPOutputStream;
  * HTTPServer server = new HTTPServer(1234);
  * }
  * </pre>
+ * The {@code X-Prometheus-Scrape-Timeout-Seconds} header is honored as described in {@link ScrapeTimeout}.
  * */
 public class HTTPServer implements Closeable {
 
@@ -97,11 +99,8 @@ public class HTTPServer implements Closeable {
                 t.getResponseHeaders().set("Content-Type", contentType);
                 Predicate<String> filter = sampleNameFilterSupplier == null ? null : sampleNameFilterSupplier.get();
                 filter = SampleNameFilter.restrictToNamesEqualTo(filter, parseQuery(query));
-                if (filter == null) {
-                    TextFormat.writeFormat(contentType, osw, registry.metricFamilySamples());
-                } else {
-                    TextFormat.writeFormat(contentType, osw, registry.filteredMetricFamilySamples(filter));
-                }
+                String scrapeTimeout = t.getRequestHeaders().getFirst(ScrapeTimeout.HEADER);
+                TextFormat.writeFormat(contentType, osw, registry, filter, ScrapeTimeout.parseNanos(scrapeTimeout));
             }
 
             osw.close();
@@ -245,7 +245,7 @@ public class PushGateway {
     try {
       if (!method.equals("DELETE")) {
         BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(connection.getOutputStream(), "UTF-8"));
-        TextFormat.write004(writer, registry.metricFamilySamples());
+        TextFormat.writeFormat(TextFormat.CONTENT_TYPE_004, writer, registry, null, 0);
         writer.flush();
         writer.close();
       }
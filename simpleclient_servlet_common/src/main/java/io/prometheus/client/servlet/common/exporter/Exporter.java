@@ -5,6 +5,7 @@ import io.prometheus.client.SampleNameFilter;
 import io.prometheus.client.Predicate;
 import io.prometheus.client.servlet.common.adapter.HttpServletRequestAdapter;
 import io.prometheus.client.servlet.common.adapter.HttpServletResponseAdapter;
+import io.prometheus.client.exporter.common.ScrapeTimeout;
 import io.prometheus.client.exporter.common.TextFormat;
 import io.prometheus.client.servlet.common.adapter.ServletConfigAdapter;
 
@@ -19,6 +20,8 @@ import java.util.Set;
 
 /**
  * The MetricsServlet class exists to provide a simple way of exposing the metrics values.
+ * <p>
+ * The {@code X-Prometheus-Scrape-Timeout-Seconds} header is honored as described in {@link ScrapeTimeout}.
  */
 public class Exporter {
 
@@ -71,11 +74,8 @@ public class Exporter {
     Writer writer = new BufferedWriter(resp.getWriter());
     try {
       Predicate<String> filter = SampleNameFilter.restrictToNamesEqualTo(sampleNameFilter, parse(req));
-      if (filter == null) {
-        TextFormat.writeFormat(contentType, writer, registry.metricFamilySamples());
-      } else {
-        TextFormat.writeFormat(contentType, writer, registry.filteredMetricFamilySamples(filter));
-      }
+      TextFormat.writeFormat(contentType, writer, registry, filter,
+          ScrapeTimeout.parseNanos(req.getHeader(ScrapeTimeout.HEADER)));
       writer.flush();
     } finally {
       writer.close();
@@ -1,6 +1,9 @@
 package io.prometheus.client.vertx;
 
 import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Predicate;
+import io.prometheus.client.SampleNameFilter;
+import io.prometheus.client.exporter.common.ScrapeTimeout;
 import io.prometheus.client.exporter.common.TextFormat;
 import io.vertx.core.Handler;
 import io.vertx.core.buffer.Buffer;
@@ -22,6 +25,8 @@ import java.util.Set;
  * Usage:
  * <p>
  * router.route("/metrics").handler(new MetricsHandler());
+ * <p>
+ * The {@code X-Prometheus-Scrape-Timeout-Seconds} header is honored as described in {@link ScrapeTimeout}.
  */
 public class MetricsHandler implements Handler<RoutingContext> {
 
@@ -75,7 +80,9 @@ public class MetricsHandler implements Handler<RoutingContext> {
       final BufferWriter writer = new BufferWriter();
       String contentType = TextFormat.chooseContentType(ctx.request().headers().get("Accept"));
 
-      TextFormat.writeFormat(contentType, writer, registry.filteredMetricFamilySamples(parse(ctx.request())));
+      Predicate<String> filter = SampleNameFilter.restrictToNamesEqualTo(null, parse(ctx.request()));
+      String scrapeTimeout = ctx.request().headers().get(ScrapeTimeout.HEADER);
+      TextFormat.writeFormat(contentType, writer, registry, filter, ScrapeTimeout.parseNanos(scrapeTimeout));
       ctx.response()
               .setStatusCode(200)
               .putHeader("Content-Type", contentType)